@@ -124,9 +124,9 @@ public class DeterministicKeyMap<K, V> extends ForwardingMap<K, V> {
 				protected T computeNext() {
 					while (iterByKey.hasNext()) {
 						K nextKey = iterByKey.next();
-						T value = keyToValue.apply(nextKey);
-						if (delegate.contains(value)) {
-							return value;
+						// ask the map rather than the collection, whose contains() may be a linear scan
+						if (DeterministicKeyMap.this.delegate.containsKey(nextKey)) {
+							return keyToValue.apply(nextKey);
 						}
 					}
 					return endOfData();
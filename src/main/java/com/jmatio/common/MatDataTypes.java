@@ -39,6 +39,7 @@ public class MatDataTypes {
 	public static final int miSIZE_UINT32 = 4;
 	public static final int miSIZE_UINT16 = 2;
 	public static final int miSIZE_UINT8 = 1;
+	public static final int miSIZE_SINGLE = 4;
 	public static final int miSIZE_DOUBLE = 8;
 	public static final int miSIZE_CHAR = 1;
 
@@ -66,6 +67,8 @@ public class MatDataTypes {
 			return miSIZE_INT64;
 		case MatDataTypes.miUINT64:
 			return miSIZE_UINT64;
+		case MatDataTypes.miSINGLE:
+			return miSIZE_SINGLE;
 		case MatDataTypes.miDOUBLE:
 			return miSIZE_DOUBLE;
 		default:
@@ -0,0 +1,144 @@
+/*
+ * Code licensed under new-style BSD (see LICENSE).
+ * All code up to tags/original: Copyright (c) 2006, Wojciech Gradkowski
+ * All code after tags/original: Copyright (c) 2015, DiffPlug
+ */
+package com.jmatio.io;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import com.jmatio.io.MatFileWriter.ByteArrayOutputStream2;
+
+/**
+ * Pool of <code>Inflater</code>s, <code>Deflater</code>s and scratch buffers
+ * which can be shared by readers and writers across many MAT-files.
+ * <p>
+ * Every <code>miCOMPRESSED</code> element needs a zlib stream, whose native
+ * memory is otherwise only released by finalization.  Readers and writers
+ * which are not given a context end their zlib streams as soon as an element
+ * is done; with a context they are reset and handed to the next element or
+ * file instead.
+ * <p>
+ * Usage:
+ * <pre><code>
+ * CompressionContext context = new CompressionContext();
+ * try {
+ *     for (File file : files) {
+ *         MatFileReader reader = new MatFileReader(MatFileType.Regular, context);
+ *         reader.read(file);
+ *         ...
+ *     }
+ * } finally {
+ *     context.close();
+ * }
+ * </code></pre>
+ *
+ * A context is thread-safe, and keeps at most <code>poolSize</code> objects
+ * of each kind.
+ */
+public class CompressionContext implements Closeable {
+	/** Scratch buffers which have grown larger than this are not kept. */
+	private static final int SCRATCH_BUFFER_LIMIT = 1 << 24;
+
+	/** Context which does not pool anything, used when none is given. */
+	static final CompressionContext NONE = new CompressionContext(0);
+
+	private final int poolSize;
+	private final List<Inflater> inflaters = new ArrayList<Inflater>();
+	private final List<Deflater> deflaters = new ArrayList<Deflater>();
+	private final List<ByteArrayOutputStream2> buffers = new ArrayList<ByteArrayOutputStream2>();
+	private boolean closed;
+
+	/**
+	 * Creates a context which keeps as many objects of each kind as there are
+	 * available processors.
+	 */
+	public CompressionContext() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Creates a context which keeps at most <code>poolSize</code> objects of
+	 * each kind.
+	 *
+	 * @param poolSize the number of objects of each kind to keep
+	 */
+	public CompressionContext(int poolSize) {
+		if (poolSize < 0) {
+			throw new IllegalArgumentException("Pool size must not be negative: " + poolSize);
+		}
+		this.poolSize = poolSize;
+	}
+
+	/** Returns a pooled or new <code>Inflater</code>, to be given back with {@link #release(Inflater)}. */
+	synchronized Inflater inflater() {
+		return inflaters.isEmpty() ? new Inflater() : inflaters.remove(inflaters.size() - 1);
+	}
+
+	/** Resets the inflater and keeps it, or ends it if the pool is full or closed. */
+	synchronized void release(Inflater inflater) {
+		if (closed || inflaters.size() >= poolSize) {
+			inflater.end();
+		} else {
+			inflater.reset();
+			inflaters.add(inflater);
+		}
+	}
+
+	/**
+	 * Returns a pooled or new <code>Deflater</code> set to the given level and
+	 * strategy, to be given back with {@link #release(Deflater)}.
+	 */
+	synchronized Deflater deflater(int level, int strategy) {
+		Deflater deflater = deflaters.isEmpty() ? new Deflater() : deflaters.remove(deflaters.size() - 1);
+		// a pooled deflater keeps the parameters of its previous use
+		deflater.setLevel(level);
+		deflater.setStrategy(strategy);
+		return deflater;
+	}
+
+	/** Resets the deflater and keeps it, or ends it if the pool is full or closed. */
+	synchronized void release(Deflater deflater) {
+		if (closed || deflaters.size() >= poolSize) {
+			deflater.end();
+		} else {
+			deflater.reset();
+			deflaters.add(deflater);
+		}
+	}
+
+	/** Returns an empty pooled or new scratch buffer, to be given back with {@link #release(ByteArrayOutputStream2)}. */
+	synchronized ByteArrayOutputStream2 buffer() {
+		return buffers.isEmpty() ? new ByteArrayOutputStream2() : buffers.remove(buffers.size() - 1);
+	}
+
+	/** Empties the buffer and keeps it, unless the pool is full or closed or the buffer has grown too large. */
+	synchronized void release(ByteArrayOutputStream2 buffer) {
+		if (!closed && buffers.size() < poolSize && buffer.getBuf().length <= SCRATCH_BUFFER_LIMIT) {
+			buffer.reset();
+			buffers.add(buffer);
+		}
+	}
+
+	/**
+	 * Ends the pooled zlib streams and drops the scratch buffers.  Objects
+	 * which are in use are ended when they are released.
+	 */
+	@Override
+	public synchronized void close() {
+		closed = true;
+		for (Inflater inflater : inflaters) {
+			inflater.end();
+		}
+		inflaters.clear();
+		for (Deflater deflater : deflaters) {
+			deflater.end();
+		}
+		deflaters.clear();
+		buffers.clear();
+	}
+}
@@ -0,0 +1,151 @@
+/*
+ * Code licensed under new-style BSD (see LICENSE).
+ * All code up to tags/original: Copyright (c) 2006, Wojciech Gradkowski
+ * All code after tags/original: Copyright (c) 2015, DiffPlug
+ */
+package com.jmatio.io;
+
+import java.util.zip.Deflater;
+
+/**
+ * How {@link MatFileWriter} and {@link MatFileIncrementalWriter} write their
+ * variables: deflated into <code>miCOMPRESSED</code> elements at a given
+ * level and strategy, or as plain <code>miMATRIX</code> elements.
+ * <p>
+ * Uncompressed files are larger, but are written several times faster,
+ * which suits scratch and checkpoint files that are read back soon.
+ * MATLAB reads them like any v6 MAT-file.
+ * <p>
+ * {@link #adaptive(int, int, double, Listener) Adaptive} options decide for
+ * every variable: a few chunks spread over the data of a numeric array are
+ * deflated first, and the array is stored uncompressed if they don't shrink
+ * enough, as for noise or already compressed bytes.  The file mixes both
+ * kinds of elements, which MATLAB reads as well.
+ * <p>
+ * Usage:
+ * <pre><code>
+ * MatFileWriter writer = new MatFileWriter(context, CompressionOptions.compressed(Deflater.BEST_SPEED, Deflater.DEFAULT_STRATEGY));
+ * writer.write(file, variables);
+ * </code></pre>
+ */
+public final class CompressionOptions {
+	/** Deflates every variable at the default level and strategy of zlib. */
+	public static final CompressionOptions DEFAULT = new CompressionOptions(true, Deflater.DEFAULT_COMPRESSION, Deflater.DEFAULT_STRATEGY, false, 1, null);
+
+	/** Writes every variable as a plain <code>miMATRIX</code> element. */
+	public static final CompressionOptions UNCOMPRESSED = new CompressionOptions(false, Deflater.DEFAULT_COMPRESSION, Deflater.DEFAULT_STRATEGY, false, 1, null);
+
+	/** Default of the largest sampled compression ratio at which adaptive options still compress. */
+	public static final double DEFAULT_MAX_RATIO = 0.9;
+
+	/** Receives the decisions of adaptive options. */
+	public interface Listener {
+		/**
+		 * Called on the writing thread once it is decided how a variable is written.
+		 *
+		 * @param name - the name of the variable
+		 * @param size - the size of its <code>miMATRIX</code> element
+		 * @param sampledRatio - compressed size over size of the sampled data, or <code>NaN</code> if the variable wasn't sampled
+		 * @param compressed - whether the variable is deflated
+		 */
+		void decided(String name, long size, double sampledRatio, boolean compressed);
+	}
+
+	private final boolean compressed;
+	private final int level;
+	private final int strategy;
+	private final boolean adaptive;
+	private final double maxRatio;
+	private final Listener listener;
+
+	private CompressionOptions(boolean compressed, int level, int strategy, boolean adaptive, double maxRatio, Listener listener) {
+		this.compressed = compressed;
+		this.level = level;
+		this.strategy = strategy;
+		this.adaptive = adaptive;
+		this.maxRatio = maxRatio;
+		this.listener = listener;
+	}
+
+	/**
+	 * Returns options which deflate every variable.
+	 *
+	 * @param level - the compression level, 0-9 or <code>Deflater.DEFAULT_COMPRESSION</code>
+	 * @param strategy - <code>Deflater.DEFAULT_STRATEGY</code>, <code>FILTERED</code> or <code>HUFFMAN_ONLY</code>
+	 */
+	public static CompressionOptions compressed(int level, int strategy) {
+		checkParameters(level, strategy);
+		return new CompressionOptions(true, level, strategy, false, 1, null);
+	}
+
+	/**
+	 * Returns options which deflate the variables that shrink enough, and
+	 * store the others uncompressed.
+	 * <p>
+	 * Numeric arrays with at least 64 KB of data are sampled; other variables
+	 * are always deflated.
+	 *
+	 * @param level - the compression level, 0-9 or <code>Deflater.DEFAULT_COMPRESSION</code>
+	 * @param strategy - <code>Deflater.DEFAULT_STRATEGY</code>, <code>FILTERED</code> or <code>HUFFMAN_ONLY</code>
+	 * @param maxRatio - the largest ratio of compressed to original size of the sample at which a variable is deflated, e.g. {@link #DEFAULT_MAX_RATIO}
+	 * @param listener - receives the decision for every variable, or null
+	 */
+	public static CompressionOptions adaptive(int level, int strategy, double maxRatio, Listener listener) {
+		checkParameters(level, strategy);
+		if (!(maxRatio > 0)) {
+			throw new IllegalArgumentException("Invalid compression ratio: " + maxRatio);
+		}
+		return new CompressionOptions(true, level, strategy, true, maxRatio, listener);
+	}
+
+	private static void checkParameters(int level, int strategy) {
+		if ((level < 0 || level > 9) && level != Deflater.DEFAULT_COMPRESSION) {
+			throw new IllegalArgumentException("Invalid compression level: " + level);
+		}
+		if (strategy != Deflater.DEFAULT_STRATEGY && strategy != Deflater.FILTERED && strategy != Deflater.HUFFMAN_ONLY) {
+			throw new IllegalArgumentException("Invalid compression strategy: " + strategy);
+		}
+	}
+
+	/**
+	 * Returns true if the variables are written as <code>miCOMPRESSED</code>
+	 * elements, all of them or, with adaptive options, those which shrink
+	 * enough.
+	 */
+	public boolean isCompressed() {
+		return compressed;
+	}
+
+	/** Returns true if it is decided for every variable whether it is deflated. */
+	public boolean isAdaptive() {
+		return adaptive;
+	}
+
+	/** Returns the largest sampled compression ratio at which adaptive options deflate a variable. */
+	public double getMaxRatio() {
+		return maxRatio;
+	}
+
+	/** Returns the listener of the decisions of adaptive options, or null. */
+	public Listener getListener() {
+		return listener;
+	}
+
+	/** Returns the deflate level. */
+	public int getLevel() {
+		return level;
+	}
+
+	/** Returns the deflate strategy. */
+	public int getStrategy() {
+		return strategy;
+	}
+
+	@Override
+	public String toString() {
+		if (!compressed) {
+			return "CompressionOptions[uncompressed]";
+		}
+		return "CompressionOptions[level=" + level + ", strategy=" + strategy + (adaptive ? ", maxRatio=" + maxRatio : "") + "]";
+	}
+}
@@ -0,0 +1,454 @@
+/*
+ * Code licensed under new-style BSD (see LICENSE).
+ * All code up to tags/original: Copyright (c) 2006, Wojciech Gradkowski
+ * All code after tags/original: Copyright (c) 2015, DiffPlug
+ */
+package com.jmatio.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.ZipException;
+
+/**
+ * Decoder of raw deflate data (RFC 1951) which reports access points
+ * into the stream, like zlib's <code>examples/zran.c</code>, and resumes
+ * inflating at them.
+ * <p>
+ * <code>java.util.zip.Inflater</code> can't stop at the boundaries of deflate
+ * blocks nor report its bit position, so the stream is decoded here instead.
+ * The output is not kept, only its last 32 KB, which is the dictionary needed
+ * to resume inflating at a block boundary.  Nor can an <code>Inflater</code>
+ * start inside a byte: it would have to be given shifted input, in which every
+ * later stored block, e.g. the empty block of a sync flush, is padded to the
+ * wrong boundary.  So inflating from an access point is done here as well,
+ * see {@link #resume(InputStream, int, byte[])}.
+ */
+class DeflateScanner {
+	/** Size of the deflate window, and of the dictionary of an access point. */
+	static final int WINDOW_SIZE = 1 << 15;
+	private static final int WINDOW_MASK = WINDOW_SIZE - 1;
+	private static final int MAX_BITS = 15;
+	/** Most bytes of a stored block copied by one step, so that they stay in the window until they are read. */
+	private static final int MAX_STORED_STEP = 1 << 12;
+	/** Codes up to this length are decoded with a single table lookup. */
+	private static final int FAST_BITS = 9;
+	private static final int FAST_MASK = (1 << FAST_BITS) - 1;
+
+	private static final short[] LENGTH_BASE = {3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31, 35, 43, 51, 59, 67, 83, 99, 115, 131, 163, 195, 227, 258};
+	private static final short[] LENGTH_EXTRA = {0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2, 3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0};
+	private static final int[] DISTANCE_BASE = {1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193, 257, 385, 513, 769, 1025, 1537, 2049, 3073, 4097, 6145, 8193, 12289, 16385, 24577};
+	private static final short[] DISTANCE_EXTRA = {0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6, 7, 7, 8, 8, 9, 9, 10, 10, 11, 11, 12, 12, 13, 13};
+	/** Order of the code length code lengths in a dynamic block header. */
+	private static final short[] CODE_LENGTH_ORDER = {16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15};
+
+	private static final Huffman FIXED_LENGTHS = new Huffman(288);
+	private static final Huffman FIXED_DISTANCES = new Huffman(30);
+
+	static {
+		int[] lengths = new int[288];
+		for (int symbol = 0; symbol < 288; symbol++) {
+			lengths[symbol] = symbol < 144 ? 8 : symbol < 256 ? 9 : symbol < 280 ? 7 : 8;
+		}
+		FIXED_LENGTHS.build(lengths, 0, 288);
+		int[] distances = new int[30];
+		Arrays.fill(distances, 5);
+		FIXED_DISTANCES.build(distances, 0, 30);
+	}
+
+	/** Receives the access points found by {@link DeflateScanner#scan(long, Listener)}. */
+	interface Listener {
+		/**
+		 * Called at the start of a deflate block.
+		 *
+		 * @param out - number of bytes inflated before the block
+		 * @param bitPosition - position of the block in the deflate data, in bits
+		 * @param window - the last <code>length</code> inflated bytes
+		 * @param length - the length of the window, at most {@link DeflateScanner#WINDOW_SIZE}
+		 */
+		void accessPoint(long out, long bitPosition, byte[] window, int length) throws IOException;
+	}
+
+	private final InputStream in;
+	private final byte[] input = new byte[1 << 16];
+	private int inputPosition;
+	private int inputLength;
+	/** Number of bytes read before <code>input</code>. */
+	private long inputBase;
+	private long bitBuffer;
+	private int bitCount;
+
+	private final byte[] window = new byte[WINDOW_SIZE];
+	private long out;
+	/** Bytes at the end of the window which weren't returned by {@link #read(byte[], int, int)} yet. */
+	private int pending;
+
+	/** Position in the stream: at a block header, or inside a stored or a compressed block, or past the last block. */
+	private static final int HEADER = 0;
+	private static final int STORED = 1;
+	private static final int CODES = 2;
+	private static final int END = 3;
+	private int state = HEADER;
+	private boolean lastBlock;
+	/** Bytes left in the current stored block. */
+	private int storedLength;
+	private Huffman blockLengths;
+	private Huffman blockDistances;
+
+	private final Huffman lengthCode = new Huffman(288);
+	private final Huffman distanceCode = new Huffman(30);
+	private final Huffman codeLengthCode = new Huffman(19);
+	private final int[] lengths = new int[288 + 30];
+
+	/** Creates a scanner of the raw deflate data of the given stream. */
+	DeflateScanner(InputStream in) {
+		this.in = in;
+	}
+
+	/**
+	 * Returns the inflated data of a raw deflate stream from an access point
+	 * on.
+	 *
+	 * @param in - the deflate data from the byte holding the first bit of the access point
+	 * @param shift - the position of that bit in its byte
+	 * @param dictionary - the output which precedes the access point, at most {@link #WINDOW_SIZE} bytes
+	 */
+	static InputStream resume(InputStream in, int shift, byte[] dictionary) throws IOException {
+		final DeflateScanner scanner = new DeflateScanner(in);
+		System.arraycopy(dictionary, 0, scanner.window, 0, dictionary.length);
+		scanner.out = dictionary.length;
+		scanner.bits(shift);
+		return new InputStream() {
+			@Override
+			public int read() throws IOException {
+				byte[] b = new byte[1];
+				return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				return scanner.read(b, off, len);
+			}
+		};
+	}
+
+	/**
+	 * Decodes the whole stream, reporting an access point at the first block
+	 * boundary after every <code>span</code> bytes of output.
+	 *
+	 * @return the number of inflated bytes
+	 */
+	long scan(long span, Listener listener) throws IOException {
+		long last = 0;
+		byte[] dictionary = new byte[WINDOW_SIZE];
+		while (state != END) {
+			if (state == HEADER && out - last >= span) {
+				int length = (int) Math.min(out, WINDOW_SIZE);
+				int start = (int) ((out - length) & WINDOW_MASK);
+				int head = Math.min(length, WINDOW_SIZE - start);
+				System.arraycopy(window, start, dictionary, 0, head);
+				System.arraycopy(window, 0, dictionary, head, length - head);
+				listener.accessPoint(out, bitPosition(), dictionary, length);
+				last = out;
+			}
+			step();
+		}
+		return out;
+	}
+
+	/**
+	 * Inflates up to <code>len</code> bytes.
+	 *
+	 * @return the number of bytes inflated, or -1 after the last block
+	 */
+	int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		while (pending == 0) {
+			if (state == END) {
+				return -1;
+			}
+			pending = step();
+		}
+		int count = Math.min(len, pending);
+		int start = (int) ((out - pending) & WINDOW_MASK);
+		int head = Math.min(count, WINDOW_SIZE - start);
+		System.arraycopy(window, start, b, off, head);
+		System.arraycopy(window, 0, b, off + head, count - head);
+		pending -= count;
+		return count;
+	}
+
+	/**
+	 * Decodes a block header, part of a stored block or a symbol.
+	 *
+	 * @return the number of bytes inflated
+	 */
+	private int step() throws IOException {
+		switch (state) {
+		case HEADER:
+			lastBlock = bits(1) == 1;
+			switch (bits(2)) {
+			case 0:
+				// go to the byte boundary
+				bits(bitCount & 7);
+				storedLength = bits(16);
+				if (bits(16) != (~storedLength & 0xffff)) {
+					throw new ZipException("Invalid stored block length at bit " + bitPosition());
+				}
+				state = STORED;
+				break;
+			case 1:
+				blockLengths = FIXED_LENGTHS;
+				blockDistances = FIXED_DISTANCES;
+				state = CODES;
+				break;
+			case 2:
+				dynamic();
+				blockLengths = lengthCode;
+				blockDistances = distanceCode;
+				state = CODES;
+				break;
+			default:
+				throw new ZipException("Invalid deflate block type at bit " + bitPosition());
+			}
+			return 0;
+		case STORED:
+			int count = Math.min(storedLength, MAX_STORED_STEP);
+			for (int i = 0; i < count; i++) {
+				put(bits(8));
+			}
+			storedLength -= count;
+			if (storedLength == 0) {
+				endBlock();
+			}
+			return count;
+		case CODES:
+			return symbol();
+		default:
+			return 0;
+		}
+	}
+
+	private void endBlock() {
+		state = lastBlock ? END : HEADER;
+	}
+
+	/** Returns the number of bits consumed so far. */
+	private long bitPosition() {
+		return (inputBase + inputPosition) * 8 - bitCount;
+	}
+
+	/** Returns the next input byte, or -1 at the end of the stream. */
+	private int nextByte() throws IOException {
+		if (inputPosition == inputLength) {
+			inputBase += inputLength;
+			inputPosition = 0;
+			inputLength = Math.max(0, in.read(input));
+			if (inputLength == 0) {
+				return -1;
+			}
+		}
+		return input[inputPosition++] & 0xff;
+	}
+
+	/** Fills the bit buffer up to <code>need</code> bits, or up to the end of the stream. */
+	private void fill(int need) throws IOException {
+		while (bitCount < need) {
+			int b = nextByte();
+			if (b < 0) {
+				return;
+			}
+			bitBuffer |= (long) b << bitCount;
+			bitCount += 8;
+		}
+	}
+
+	private int bits(int need) throws IOException {
+		fill(need);
+		if (bitCount < need) {
+			throw new EOFException("Unexpected end of deflate data");
+		}
+		int value = (int) (bitBuffer & ((1L << need) - 1));
+		bitBuffer >>>= need;
+		bitCount -= need;
+		return value;
+	}
+
+	private void put(int b) {
+		window[(int) out & WINDOW_MASK] = (byte) b;
+		out++;
+	}
+
+	private void dynamic() throws IOException {
+		int lengthCount = bits(5) + 257;
+		int distanceCount = bits(5) + 1;
+		int codeLengthCount = bits(4) + 4;
+		if (lengthCount > 286 || distanceCount > 30) {
+			throw new ZipException("Too many length or distance codes at bit " + bitPosition());
+		}
+		int[] codeLengths = new int[19];
+		for (int i = 0; i < codeLengthCount; i++) {
+			codeLengths[CODE_LENGTH_ORDER[i]] = bits(3);
+		}
+		if (codeLengthCode.build(codeLengths, 0, 19) != 0) {
+			throw new ZipException("Incomplete code length code at bit " + bitPosition());
+		}
+		for (int index = 0; index < lengthCount + distanceCount;) {
+			int symbol = decode(codeLengthCode);
+			if (symbol < 16) {
+				lengths[index++] = symbol;
+				continue;
+			}
+			int length = 0;
+			int repeat;
+			if (symbol == 16) {
+				if (index == 0) {
+					throw new ZipException("Repeated code length without a previous one at bit " + bitPosition());
+				}
+				length = lengths[index - 1];
+				repeat = 3 + bits(2);
+			} else if (symbol == 17) {
+				repeat = 3 + bits(3);
+			} else {
+				repeat = 11 + bits(7);
+			}
+			if (index + repeat > lengthCount + distanceCount) {
+				throw new ZipException("Too many code lengths at bit " + bitPosition());
+			}
+			while (repeat-- > 0) {
+				lengths[index++] = length;
+			}
+		}
+		if (lengths[256] == 0) {
+			throw new ZipException("Missing end-of-block code at bit " + bitPosition());
+		}
+		if (lengthCode.build(lengths, 0, lengthCount) < 0 || distanceCode.build(lengths, lengthCount, distanceCount) < 0) {
+			throw new ZipException("Over-subscribed code at bit " + bitPosition());
+		}
+	}
+
+	/**
+	 * Decodes a literal, a match or the end of a compressed block.
+	 *
+	 * @return the number of bytes inflated
+	 */
+	private int symbol() throws IOException {
+		int symbol = decode(blockLengths);
+		if (symbol < 256) {
+			put(symbol);
+			return 1;
+		} else if (symbol == 256) {
+			endBlock();
+			return 0;
+		}
+		symbol -= 257;
+		if (symbol >= 29) {
+			throw new ZipException("Invalid length code at bit " + bitPosition());
+		}
+		int length = LENGTH_BASE[symbol] + bits(LENGTH_EXTRA[symbol]);
+		symbol = decode(blockDistances);
+		if (symbol >= 30) {
+			throw new ZipException("Invalid distance code at bit " + bitPosition());
+		}
+		int distance = DISTANCE_BASE[symbol] + bits(DISTANCE_EXTRA[symbol]);
+		if (distance > out) {
+			throw new ZipException("Distance too far back at bit " + bitPosition());
+		}
+		for (int i = 0; i < length; i++) {
+			window[(int) out & WINDOW_MASK] = window[(int) (out - distance) & WINDOW_MASK];
+			out++;
+		}
+		return length;
+	}
+
+	/** Decodes a symbol, with a table lookup for short codes and bit by bit otherwise. */
+	private int decode(Huffman code) throws IOException {
+		fill(MAX_BITS);
+		int entry = code.fast[(int) bitBuffer & FAST_MASK];
+		int length = entry & 0xf;
+		if (entry != 0 && length <= bitCount) {
+			bitBuffer >>>= length;
+			bitCount -= length;
+			return entry >>> 4;
+		}
+		int value = 0;
+		int first = 0;
+		int index = 0;
+		for (length = 1; length <= MAX_BITS; length++) {
+			value |= bits(1);
+			int count = code.count[length];
+			if (value - count < first) {
+				return code.symbol[index + (value - first)];
+			}
+			index += count;
+			first += count;
+			first <<= 1;
+			value <<= 1;
+		}
+		throw new ZipException("Invalid Huffman code at bit " + bitPosition());
+	}
+
+	/** Canonical Huffman code, as in zlib's <code>contrib/puff</code>. */
+	private static final class Huffman {
+		final short[] count = new short[MAX_BITS + 1];
+		final short[] symbol;
+		/** (symbol << 4) | length of the codes up to FAST_BITS long, indexed by their reversed bits. */
+		final int[] fast = new int[1 << FAST_BITS];
+
+		Huffman(int size) {
+			symbol = new short[size];
+		}
+
+		/**
+		 * Builds the code from the code lengths of <code>n</code> symbols.
+		 *
+		 * @return 0 for a complete code, a positive number for an incomplete one, or a negative number for an over-subscribed one
+		 */
+		int build(int[] lengths, int offset, int n) {
+			Arrays.fill(count, (short) 0);
+			for (int s = 0; s < n; s++) {
+				count[lengths[offset + s]]++;
+			}
+			Arrays.fill(fast, 0);
+			if (count[0] == n) {
+				return 0;
+			}
+			int left = 1;
+			for (int length = 1; length <= MAX_BITS; length++) {
+				left <<= 1;
+				left -= count[length];
+				if (left < 0) {
+					return left;
+				}
+			}
+			int[] offsets = new int[MAX_BITS + 1];
+			for (int length = 1; length < MAX_BITS; length++) {
+				offsets[length + 1] = offsets[length] + count[length];
+			}
+			for (int s = 0; s < n; s++) {
+				if (lengths[offset + s] != 0) {
+					symbol[offsets[lengths[offset + s]]++] = (short) s;
+				}
+			}
+			// the codes are stored from their most significant bit, so the
+			// table is indexed by the reversed code
+			int code = 0;
+			int index = 0;
+			for (int length = 1; length <= FAST_BITS; length++) {
+				for (int k = 0; k < count[length]; k++) {
+					int reversed = Integer.reverse(code) >>> (32 - length);
+					for (int j = reversed; j < fast.length; j += 1 << length) {
+						fast[j] = symbol[index] << 4 | length;
+					}
+					index++;
+					code++;
+				}
+				code <<= 1;
+			}
+			return left;
+		}
+	}
+}
@@ -0,0 +1,350 @@
+/*
+ * Code licensed under new-style BSD (see LICENSE).
+ * All code up to tags/original: Copyright (c) 2006, Wojciech Gradkowski
+ * All code after tags/original: Copyright (c) 2015, DiffPlug
+ */
+package com.jmatio.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import com.jmatio.io.stream.BoundedInputStream;
+
+/**
+ * Random access index into the <code>miCOMPRESSED</code> variables of a
+ * MAT-file, after zlib's <code>examples/zran.c</code>.
+ * <p>
+ * Every <code>span</code> bytes of inflated output, at the next deflate block
+ * boundary, the index records an access point: the bit position of the block
+ * and the last 32 KB of output, which is the dictionary the block may refer
+ * to.  {@link MatFileLazyReader#readRegion(String, int[], int[])} then starts
+ * inflating at the access point nearest to the region instead of at the start
+ * of the variable.
+ * <p>
+ * The index is built in one pass over the file and kept in a sidecar file
+ * next to it, see {@link #sidecarFor(File)}, from which
+ * <code>MatFileLazyReader</code> loads it when it opens the file.  The
+ * dictionaries are stored deflated and read from the sidecar when an access
+ * point is used.
+ * <p>
+ * Usage:
+ * <pre><code>
+ * MatCompressedIndex.build(new File("archive.mat"));
+ * ...
+ * MatFileLazyReader reader = new MatFileLazyReader(new File("archive.mat"));
+ * MLNumericArray&lt;?&gt; lastColumn = reader.readRegion("huge", 0, rows, columns - 1, 1);
+ * </code></pre>
+ *
+ * A sidecar is ignored once the length or modification time of the MAT-file
+ * has changed.
+ */
+public class MatCompressedIndex {
+	/** Default distance between access points, in bytes of inflated output. */
+	public static final long DEFAULT_SPAN = 1 << 20;
+
+	private static final int MAGIC = 0x4D5A4958; // MZIX
+	private static final int VERSION = 2;
+	/** Magic, version, MAT-file length and modification time. */
+	private static final int HEADER_SIZE = 24;
+
+	private final File sidecar;
+	/** Access points by the file offset of their variable, in output order. */
+	private final Map<Long, List<AccessPoint>> accessPoints;
+
+	private MatCompressedIndex(File sidecar, Map<Long, List<AccessPoint>> accessPoints) {
+		this.sidecar = sidecar;
+		this.accessPoints = accessPoints;
+	}
+
+	/** Returns the sidecar file of the given MAT-file, which has <code>.zidx</code> appended to its name. */
+	public static File sidecarFor(File matFile) {
+		return new File(matFile.getPath() + ".zidx");
+	}
+
+	/**
+	 * Builds the index of the given MAT-file with {@link #DEFAULT_SPAN} and
+	 * writes it to its sidecar file.
+	 *
+	 * @param matFile the MAT-file
+	 * @return the index
+	 * @throws IOException when error occurred while processing the file.
+	 */
+	public static MatCompressedIndex build(File matFile) throws IOException {
+		return build(matFile, DEFAULT_SPAN);
+	}
+
+	/**
+	 * Builds the index of the given MAT-file and writes it to its sidecar
+	 * file.  Every compressed variable is decoded once; uncompressed
+	 * variables need no index.
+	 *
+	 * @param matFile the MAT-file
+	 * @param span the distance between access points, in bytes of inflated output
+	 * @return the index
+	 * @throws IOException when error occurred while processing the file.
+	 */
+	public static MatCompressedIndex build(File matFile, long span) throws IOException {
+		if (span < DeflateScanner.WINDOW_SIZE) {
+			throw new IllegalArgumentException("Span must be at least " + DeflateScanner.WINDOW_SIZE + " bytes: " + span);
+		}
+		List<MatVariableInfo> variables = MatFileLazyReader.scan(matFile);
+		File sidecar = sidecarFor(matFile);
+		Map<Long, List<AccessPoint>> accessPoints = new HashMap<Long, List<AccessPoint>>();
+		final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(sidecar)));
+		boolean done = false;
+		try {
+			output.writeInt(MAGIC);
+			output.writeInt(VERSION);
+			output.writeLong(matFile.length());
+			output.writeLong(matFile.lastModified());
+
+			final Deflater deflater = new Deflater();
+			final byte[] deflated = new byte[DeflateScanner.WINDOW_SIZE + 1024];
+			final long[] position = {HEADER_SIZE};
+			try {
+				for (MatVariableInfo info : variables) {
+					if (!info.isCompressed()) {
+						continue;
+					}
+					final List<AccessPoint> points = new ArrayList<AccessPoint>();
+					InputStream input = new BufferedInputStream(new FileInputStream(matFile), 1 << 16);
+					try {
+						skipFully(input, info.getOffset() + 8);
+						// the 2-byte zlib header, then raw deflate data
+						int cmf = input.read();
+						int flg = input.read();
+						if ((cmf & 0x0f) != 8 || (flg & 0x20) != 0 || (cmf << 8 | flg) % 31 != 0) {
+							throw new MatlabIOException("Variable " + info.getName() + " is not a zlib stream");
+						}
+						new DeflateScanner(new BoundedInputStream(input, info.getSize() - 2)).scan(span, new DeflateScanner.Listener() {
+							@Override
+							public void accessPoint(long out, long bitPosition, byte[] window, int length) throws IOException {
+								deflater.reset();
+								deflater.setInput(window, 0, length);
+								deflater.finish();
+								int deflatedLength = deflater.deflate(deflated);
+								if (!deflater.finished()) {
+									throw new IllegalStateException("Dictionary did not fit the buffer");
+								}
+								output.write(deflated, 0, deflatedLength);
+								points.add(new AccessPoint(out, 16 + bitPosition, position[0], deflatedLength, length));
+								position[0] += deflatedLength;
+							}
+						});
+					} finally {
+						input.close();
+					}
+					accessPoints.put(info.getOffset(), points);
+				}
+			} finally {
+				deflater.end();
+			}
+
+			// the table, then its position
+			output.writeInt(accessPoints.size());
+			for (Map.Entry<Long, List<AccessPoint>> entry : accessPoints.entrySet()) {
+				output.writeLong(entry.getKey());
+				output.writeInt(entry.getValue().size());
+				for (AccessPoint point : entry.getValue()) {
+					output.writeLong(point.out);
+					output.writeLong(point.bitPosition);
+					output.writeLong(point.windowPosition);
+					output.writeInt(point.deflatedLength);
+					output.writeInt(point.windowLength);
+				}
+			}
+			output.writeLong(position[0]);
+			output.close();
+			done = true;
+		} finally {
+			if (!done) {
+				output.close();
+				sidecar.delete();
+			}
+		}
+		return new MatCompressedIndex(sidecar, accessPoints);
+	}
+
+	/**
+	 * Loads the index of the given MAT-file from its sidecar file.
+	 *
+	 * @param matFile the MAT-file
+	 * @return the index, or null if there is no sidecar or it was built for another version of the file or by another version of this class
+	 * @throws IOException when error occurred while reading the sidecar, or it is corrupt.
+	 */
+	public static MatCompressedIndex load(File matFile) throws IOException {
+		File sidecar = sidecarFor(matFile);
+		if (!sidecar.isFile()) {
+			return null;
+		}
+		RandomAccessFile raFile = new RandomAccessFile(sidecar, "r");
+		try {
+			FileChannel channel = raFile.getChannel();
+			long length = channel.size();
+			if (length < HEADER_SIZE + 8) {
+				throw new MatlabIOException("Index " + sidecar + " is truncated");
+			}
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			readFully(channel, header, 0);
+			if (header.getInt() != MAGIC) {
+				throw new MatlabIOException("File " + sidecar + " is not a MAT-file index");
+			}
+			if (header.getInt() != VERSION || header.getLong() != matFile.length() || header.getLong() != matFile.lastModified()) {
+				return null;
+			}
+			ByteBuffer trailer = ByteBuffer.allocate(8);
+			readFully(channel, trailer, length - 8);
+			long tablePosition = trailer.getLong();
+			if (tablePosition < HEADER_SIZE || tablePosition > length - 8 - 4 || length - 8 - tablePosition > Integer.MAX_VALUE) {
+				throw new MatlabIOException("Index " + sidecar + " is corrupt");
+			}
+			ByteBuffer table = ByteBuffer.allocate((int) (length - 8 - tablePosition));
+			readFully(channel, table, tablePosition);
+
+			Map<Long, List<AccessPoint>> accessPoints = new HashMap<Long, List<AccessPoint>>();
+			for (int variables = table.getInt(); variables > 0; variables--) {
+				long offset = table.getLong();
+				int count = table.getInt();
+				if (count < 0 || count > table.remaining() / 32) {
+					throw new MatlabIOException("Index " + sidecar + " is corrupt");
+				}
+				List<AccessPoint> points = new ArrayList<AccessPoint>(count);
+				for (int i = 0; i < count; i++) {
+					points.add(new AccessPoint(table.getLong(), table.getLong(), table.getLong(), table.getInt(), table.getInt()));
+				}
+				accessPoints.put(offset, points);
+			}
+			return new MatCompressedIndex(sidecar, accessPoints);
+		} catch (BufferUnderflowException e) {
+			throw new MatlabIOException("Index " + sidecar + " is corrupt");
+		} finally {
+			raFile.close();
+		}
+	}
+
+	/** Returns the access points of the given compressed variable, in output order, or an empty list if it wasn't indexed. */
+	public List<AccessPoint> getAccessPoints(MatVariableInfo info) {
+		List<AccessPoint> points = accessPoints.get(info.getOffset());
+		return points == null ? Collections.<AccessPoint> emptyList() : Collections.unmodifiableList(points);
+	}
+
+	/** Returns the last access point of the variable at or before the given position of its inflated matrix, or null if there is none. */
+	AccessPoint find(MatVariableInfo info, long position) {
+		List<AccessPoint> points = accessPoints.get(info.getOffset());
+		if (points == null) {
+			return null;
+		}
+		int low = 0;
+		int high = points.size() - 1;
+		AccessPoint found = null;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			AccessPoint point = points.get(middle);
+			if (point.out <= position) {
+				found = point;
+				low = middle + 1;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return found;
+	}
+
+	/** Reads the dictionary of the access point from the sidecar. */
+	byte[] readWindow(AccessPoint point) throws IOException {
+		byte[] deflated = new byte[point.deflatedLength];
+		RandomAccessFile raFile = new RandomAccessFile(sidecar, "r");
+		try {
+			raFile.seek(point.windowPosition);
+			raFile.readFully(deflated);
+		} finally {
+			raFile.close();
+		}
+		byte[] window = new byte[point.windowLength];
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(deflated);
+			if (inflater.inflate(window) != window.length || !inflater.finished()) {
+				throw new MatlabIOException("Index " + sidecar + " is corrupt");
+			}
+		} catch (DataFormatException e) {
+			throw new MatlabIOException("Index " + sidecar + " is corrupt: " + e.getMessage());
+		} finally {
+			inflater.end();
+		}
+		return window;
+	}
+
+	private static void skipFully(InputStream in, long length) throws IOException {
+		while (length > 0) {
+			long skipped = in.skip(length);
+			if (skipped <= 0) {
+				if (in.read() < 0) {
+					throw new EOFException("Unexpected end of file");
+				}
+				skipped = 1;
+			}
+			length -= skipped;
+		}
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+		while (buf.hasRemaining()) {
+			if (channel.read(buf, position + buf.position()) < 0) {
+				throw new EOFException("Unexpected end of file at offset " + (position + buf.position()));
+			}
+		}
+		buf.flip();
+	}
+
+	/** A position in a compressed variable from which it can be inflated. */
+	public static final class AccessPoint {
+		private final long out;
+		private final long bitPosition;
+		private final long windowPosition;
+		private final int deflatedLength;
+		private final int windowLength;
+
+		AccessPoint(long out, long bitPosition, long windowPosition, int deflatedLength, int windowLength) {
+			this.out = out;
+			this.bitPosition = bitPosition;
+			this.windowPosition = windowPosition;
+			this.deflatedLength = deflatedLength;
+			this.windowLength = windowLength;
+		}
+
+		/** Returns the position in the inflated matrix, counting from its tag. */
+		public long getOutputPosition() {
+			return out;
+		}
+
+		/** Returns the position in the compressed data of the element, in bits from the start of its zlib header. */
+		public long getBitPosition() {
+			return bitPosition;
+		}
+
+		@Override
+		public String toString() {
+			return "AccessPoint[out=" + out + ", bit=" + bitPosition + "]";
+		}
+	}
+}
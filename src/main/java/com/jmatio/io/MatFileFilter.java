@@ -76,4 +76,9 @@ public class MatFileFilter {
 		}
 		return filter.contains(name);
 	}
+
+	/** Returns true if this filter has no names and therefore accepts every array. */
+	boolean isEmpty() {
+		return filter.isEmpty();
+	}
 }
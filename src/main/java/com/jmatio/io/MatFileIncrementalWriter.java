@@ -5,8 +5,6 @@
  */
 package com.jmatio.io;
 
-import java.io.ByteArrayOutputStream;
-import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -16,16 +14,8 @@ import java.util.Collection;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.zip.DataFormatException;
-import java.util.zip.Deflater;
-import java.util.zip.DeflaterOutputStream;
 
-import com.jmatio.common.MatDataTypes;
 import com.jmatio.types.MLArray;
-import com.jmatio.types.MLCell;
-import com.jmatio.types.MLChar;
-import com.jmatio.types.MLNumericArray;
-import com.jmatio.types.MLSparse;
-import com.jmatio.types.MLStructure;
 
 /**
  * MAT-file Incremental writer.
@@ -69,6 +59,10 @@ import com.jmatio.types.MLStructure;
 public class MatFileIncrementalWriter {
 	//    private static final Logger logger = Logger.getLogger(MatFileWriter.class);
 	private WritableByteChannel channel = null;
+	private final CompressionContext context;
+	private final CompressionOptions options;
+	/** Whether the writer opened the channel, see <code>MatFileWriter.writeMatrix</code>. */
+	private final boolean inPlace;
 
 	private boolean headerWritten = false;
 	private Set<String> varNames = new TreeSet<String>();
@@ -93,7 +87,7 @@ public class MatFileIncrementalWriter {
 	 */
 	@SuppressWarnings("resource") // the channel is closed when you call close()
 	public MatFileIncrementalWriter(File file) throws IOException {
-		this((new FileOutputStream(file)).getChannel());
+		this((new FileOutputStream(file)).getChannel(), CompressionContext.NONE, CompressionOptions.DEFAULT, true);
 	}
 
 	/**
@@ -106,7 +100,40 @@ public class MatFileIncrementalWriter {
 	 * @throws IOException
 	 */
 	public MatFileIncrementalWriter(WritableByteChannel chan) throws IOException {
+		this(chan, CompressionContext.NONE);
+	}
+
+	/**
+	 * Creates a writer for a file, given an output channel to the file, which
+	 * takes its deflaters and buffers from the given context.
+	 * 
+	 * @param chan - <code>WritableByteChannel</code>
+	 * @param context - the context to take the deflaters and buffers from
+	 * @throws IOException
+	 */
+	public MatFileIncrementalWriter(WritableByteChannel chan, CompressionContext context) throws IOException {
+		this(chan, context, CompressionOptions.DEFAULT);
+	}
+
+	/**
+	 * Creates a writer for a file, given an output channel to the file, which
+	 * takes its deflaters and buffers from the given context and compresses
+	 * the variables as given by <code>options</code>.
+	 * 
+	 * @param chan - <code>WritableByteChannel</code>
+	 * @param context - the context to take the deflaters and buffers from
+	 * @param options - the deflate level and strategy, or no compression
+	 * @throws IOException
+	 */
+	public MatFileIncrementalWriter(WritableByteChannel chan, CompressionContext context, CompressionOptions options) throws IOException {
+		this(chan, context, options, false);
+	}
+
+	private MatFileIncrementalWriter(WritableByteChannel chan, CompressionContext context, CompressionOptions options, boolean inPlace) {
 		this.channel = chan;
+		this.context = context;
+		this.options = options;
+		this.inPlace = inPlace;
 	}
 
 	public synchronized void write(MLArray data)
@@ -121,34 +148,7 @@ public class MatFileIncrementalWriter {
 				writeHeader(channel);
 			}
 
-			//prepare buffer for MATRIX data
-			ByteArrayOutputStream baos = new ByteArrayOutputStream();
-			DataOutputStream dos = new DataOutputStream(baos);
-			//write MATRIX bytes into buffer
-			writeMatrix(dos, data);
-
-			//compress data to save storage
-			Deflater compresser = new Deflater();
-
-			byte[] input = baos.toByteArray();
-
-			ByteArrayOutputStream compressed = new ByteArrayOutputStream();
-			DataOutputStream dout = new DataOutputStream(new DeflaterOutputStream(compressed, compresser));
-
-			dout.write(input);
-
-			dout.close();
-			compressed.close();
-
-			//write COMPRESSED tag and compressed data into output channel
-			byte[] compressedBytes = compressed.toByteArray();
-			ByteBuffer buf = ByteBuffer.allocateDirect(2 * 4 /* Int size */ + compressedBytes.length);
-			buf.putInt(MatDataTypes.miCOMPRESSED);
-			buf.putInt(compressedBytes.length);
-			buf.put(compressedBytes);
-
-			buf.flip();
-			channel.write(buf);
+			MatFileWriter.writeMatrix(channel, new MatrixSerializer(data), context, options, inPlace);
 		} catch (IOException e) {
 			throw e;
 		} finally {}
@@ -216,251 +216,4 @@ public class MatFileIncrementalWriter {
 
 		headerWritten = true;
 	}
-
-	/**
-	 * Writes MATRIX into <code>OutputStream</code>.
-	 * 
-	 * @param os - <code>OutputStream</code>
-	 * @param array - a <code>MLArray</code>
-	 * @throws IOException
-	 */
-	private void writeMatrix(DataOutputStream output, MLArray array) throws IOException {
-		OSArrayTag tag;
-		ByteArrayOutputStream buffer;
-		DataOutputStream bufferDOS;
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		DataOutputStream dos = new DataOutputStream(baos);
-
-		//flags
-		writeFlags(dos, array);
-
-		//dimensions
-		writeDimensions(dos, array);
-
-		//array name
-		writeName(dos, array);
-
-		switch (array.getType()) {
-		case MLArray.mxCHAR_CLASS:
-			//write char data
-			buffer = new ByteArrayOutputStream();
-			bufferDOS = new DataOutputStream(buffer);
-			Character[] ac = ((MLChar) array).exportChar();
-			for (int i = 0; i < ac.length; i++) {
-				bufferDOS.writeByte((byte) ac[i].charValue());
-			}
-			tag = new OSArrayTag(MatDataTypes.miUTF8, buffer.toByteArray());
-			tag.writeTo(dos);
-
-			break;
-		case MLArray.mxDOUBLE_CLASS:
-
-			tag = new OSArrayTag(MatDataTypes.miDOUBLE,
-					((MLNumericArray<?>) array).getRealByteBuffer());
-			tag.writeTo(dos);
-
-			//write real imaginary
-			if (array.isComplex()) {
-				tag = new OSArrayTag(MatDataTypes.miDOUBLE,
-						((MLNumericArray<?>) array).getImaginaryByteBuffer());
-				tag.writeTo(dos);
-			}
-			break;
-		case MLArray.mxUINT8_CLASS:
-
-			tag = new OSArrayTag(MatDataTypes.miUINT8,
-					((MLNumericArray<?>) array).getRealByteBuffer());
-			tag.writeTo(dos);
-
-			//write real imaginary
-			if (array.isComplex()) {
-				tag = new OSArrayTag(MatDataTypes.miUINT8,
-						((MLNumericArray<?>) array).getImaginaryByteBuffer());
-				tag.writeTo(dos);
-			}
-			break;
-		case MLArray.mxINT8_CLASS:
-
-			tag = new OSArrayTag(MatDataTypes.miINT8,
-					((MLNumericArray<?>) array).getRealByteBuffer());
-			tag.writeTo(dos);
-
-			//write real imaginary
-			if (array.isComplex()) {
-				tag = new OSArrayTag(MatDataTypes.miINT8,
-						((MLNumericArray<?>) array).getImaginaryByteBuffer());
-				tag.writeTo(dos);
-			}
-			break;
-		case MLArray.mxINT16_CLASS:
-
-			tag = new OSArrayTag(MatDataTypes.miINT16,
-					((MLNumericArray<?>) array).getRealByteBuffer());
-			tag.writeTo(dos);
-
-			//write real imaginary
-			if (array.isComplex()) {
-				tag = new OSArrayTag(MatDataTypes.miINT16,
-						((MLNumericArray<?>) array).getImaginaryByteBuffer());
-				tag.writeTo(dos);
-			}
-			break;
-		case MLArray.mxINT64_CLASS:
-
-			tag = new OSArrayTag(MatDataTypes.miINT64,
-					((MLNumericArray<?>) array).getRealByteBuffer());
-			tag.writeTo(dos);
-
-			//write real imaginary
-			if (array.isComplex()) {
-				tag = new OSArrayTag(MatDataTypes.miINT64,
-						((MLNumericArray<?>) array).getImaginaryByteBuffer());
-				tag.writeTo(dos);
-			}
-			break;
-		case MLArray.mxUINT64_CLASS:
-
-			tag = new OSArrayTag(MatDataTypes.miUINT64,
-					((MLNumericArray<?>) array).getRealByteBuffer());
-			tag.writeTo(dos);
-
-			//write real imaginary
-			if (array.isComplex()) {
-				tag = new OSArrayTag(MatDataTypes.miUINT64,
-						((MLNumericArray<?>) array).getImaginaryByteBuffer());
-				tag.writeTo(dos);
-			}
-			break;
-		case MLArray.mxSTRUCT_CLASS:
-			//field name length
-			int itag = 4 << 16 | MatDataTypes.miINT32 & 0xffff;
-			dos.writeInt(itag);
-			dos.writeInt(((MLStructure) array).getMaxFieldLenth());
-
-			//get field names
-			tag = new OSArrayTag(MatDataTypes.miINT8, ((MLStructure) array).getKeySetToByteArray());
-			tag.writeTo(dos);
-
-			for (MLArray a : ((MLStructure) array).getAllFields()) {
-				writeMatrix(dos, a);
-			}
-			break;
-		case MLArray.mxCELL_CLASS:
-			for (MLArray a : ((MLCell) array).cells()) {
-				writeMatrix(dos, a);
-			}
-			break;
-		case MLArray.mxSPARSE_CLASS:
-			int[] ai;
-			//write ir
-			buffer = new ByteArrayOutputStream();
-			bufferDOS = new DataOutputStream(buffer);
-			ai = ((MLSparse) array).getIR();
-			for (int i : ai) {
-				bufferDOS.writeInt(i);
-			}
-			tag = new OSArrayTag(MatDataTypes.miINT32, buffer.toByteArray());
-			tag.writeTo(dos);
-			//write jc
-			buffer = new ByteArrayOutputStream();
-			bufferDOS = new DataOutputStream(buffer);
-			ai = ((MLSparse) array).getJC();
-			for (int i : ai) {
-				bufferDOS.writeInt(i);
-			}
-			tag = new OSArrayTag(MatDataTypes.miINT32, buffer.toByteArray());
-			tag.writeTo(dos);
-			//write real
-			buffer = new ByteArrayOutputStream();
-			bufferDOS = new DataOutputStream(buffer);
-
-			Double[] ad = ((MLSparse) array).exportReal();
-
-			for (int i = 0; i < ad.length; i++) {
-				bufferDOS.writeDouble(ad[i].doubleValue());
-			}
-
-			tag = new OSArrayTag(MatDataTypes.miDOUBLE, buffer.toByteArray());
-			tag.writeTo(dos);
-			//write real imaginary
-			if (array.isComplex()) {
-				buffer = new ByteArrayOutputStream();
-				bufferDOS = new DataOutputStream(buffer);
-				ad = ((MLSparse) array).exportImaginary();
-				for (int i = 0; i < ad.length; i++) {
-					bufferDOS.writeDouble(ad[i].doubleValue());
-				}
-				tag = new OSArrayTag(MatDataTypes.miDOUBLE, buffer.toByteArray());
-				tag.writeTo(dos);
-			}
-			break;
-		default:
-			throw new MatlabIOException("Cannot write matrix of type: " + MLArray.typeToString(array.getType()));
-
-		}
-
-		//write matrix
-		output.writeInt(MatDataTypes.miMATRIX); //matrix tag
-		output.writeInt(baos.size()); //size of matrix
-		output.write(baos.toByteArray()); //matrix data
-	}
-
-	/**
-	 * Writes MATRIX flags into <code>OutputStream</code>.
-	 * 
-	 * @param os - <code>OutputStream</code>
-	 * @param array - a <code>MLArray</code>
-	 * @throws IOException
-	 */
-	private void writeFlags(DataOutputStream os, MLArray array) throws IOException {
-		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-		DataOutputStream bufferDOS = new DataOutputStream(buffer);
-
-		bufferDOS.writeInt(array.getFlags());
-
-		if (array.isSparse()) {
-			bufferDOS.writeInt(((MLSparse) array).getMaxNZ());
-		} else {
-			bufferDOS.writeInt(0);
-		}
-		OSArrayTag tag = new OSArrayTag(MatDataTypes.miUINT32, buffer.toByteArray());
-		tag.writeTo(os);
-
-	}
-
-	/**
-	 * Writes MATRIX dimensions into <code>OutputStream</code>.
-	 * 
-	 * @param os - <code>OutputStream</code>
-	 * @param array - a <code>MLArray</code>
-	 * @throws IOException
-	 */
-	private void writeDimensions(DataOutputStream os, MLArray array) throws IOException {
-		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-		DataOutputStream bufferDOS = new DataOutputStream(buffer);
-
-		int[] dims = array.getDimensions();
-		for (int i = 0; i < dims.length; i++) {
-			bufferDOS.writeInt(dims[i]);
-		}
-		OSArrayTag tag = new OSArrayTag(MatDataTypes.miINT32, buffer.toByteArray());
-		tag.writeTo(os);
-
-	}
-
-	/**
-	 * Writes MATRIX name into <code>OutputStream</code>.
-	 * 
-	 * @param os - <code>OutputStream</code>
-	 * @param array - a <code>MLArray</code>
-	 * @throws IOException
-	 */
-	private void writeName(DataOutputStream os, MLArray array) throws IOException {
-		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-		DataOutputStream bufferDOS = new DataOutputStream(buffer);
-		byte[] nameByteArray = array.getNameToByteArray();
-		bufferDOS.write(nameByteArray);
-		OSArrayTag tag = new OSArrayTag(MatDataTypes.miINT8, buffer.toByteArray());
-		tag.writeTo(os);
-	}
 }
@@ -0,0 +1,700 @@
+/*
+ * Code licensed under new-style BSD (see LICENSE).
+ * All code up to tags/original: Copyright (c) 2006, Wojciech Gradkowski
+ * All code after tags/original: Copyright (c) 2015, DiffPlug
+ */
+package com.jmatio.io;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import com.jmatio.common.MatDataTypes;
+import com.jmatio.io.stream.BoundedInputStream;
+import com.jmatio.io.stream.MatFileInputStream;
+import com.jmatio.types.MLArray;
+import com.jmatio.types.MLDouble;
+import com.jmatio.types.MLInt16;
+import com.jmatio.types.MLInt32;
+import com.jmatio.types.MLInt64;
+import com.jmatio.types.MLInt8;
+import com.jmatio.types.MLNumericArray;
+import com.jmatio.types.MLSingle;
+import com.jmatio.types.MLUInt16;
+import com.jmatio.types.MLUInt32;
+import com.jmatio.types.MLUInt64;
+import com.jmatio.types.MLUInt8;
+
+/**
+ * MAT-file reader which decodes variables on demand.
+ * <p>
+ * Opening the file only walks the 8-byte tags of the top-level elements and
+ * inflates the first few hundred bytes of each <code>miCOMPRESSED</code>
+ * element to learn the name, class and dimensions of every variable. The data
+ * of a variable is read and decoded the first time it is requested, so pulling
+ * a few variables out of a huge file costs only their own decompression.
+ * <p>
+ * Usage:
+ * <pre><code>
+ * MatFileLazyReader reader = new MatFileLazyReader(new File("results.mat"));
+ * try {
+ *     MLArray array = reader.getMLArray("my_array");
+ * } finally {
+ *     reader.close();
+ * }
+ * </code></pre>
+ *
+ * The file is kept open until {@link #close()} is called.
+ * <p>
+ * With the {@link MatFileReader#MEMORY_MAPPED_FILE} policy, the numeric
+ * variables of uncompressed (v6) files are not copied at all: their real and
+ * imaginary buffers are read-only slices of the mapped file, which share the
+ * page cache and stay valid after the reader is closed.
+ */
+public class MatFileLazyReader implements Closeable {
+	private final MatFileType matType;
+	private final CompressionContext context;
+	private final int policy;
+	private final RandomAccessFile raFile;
+	private final FileChannel channel;
+	private final MatFileHeader header;
+	/** Directory of the variables, in file order. */
+	private final Map<String, MatVariableInfo> variables = new LinkedHashMap<String, MatVariableInfo>();
+	/** The variables which have been decoded so far. */
+	private final Map<MatVariableInfo, MLArray> cache = new HashMap<MatVariableInfo, MLArray>();
+	/** The likely candidate for the MCOS subsystem data, the last unnamed uint8 variable. */
+	private MatVariableInfo mcosData;
+	/** Access points into the compressed variables, or null. */
+	private MatCompressedIndex index;
+	/** Reads cell arrays of strings into <code>MLCellStr</code>s, see {@link MatFileReader#setCellStrings(boolean)}. */
+	private boolean cellStrings;
+
+	/**
+	 * Opens the given MAT-file and reads its variable directory.
+	 *
+	 * @param file the MAT-file
+	 * @throws IOException when error occurred while processing the file.
+	 */
+	public MatFileLazyReader(File file) throws IOException {
+		this(file, MatFileType.Regular);
+	}
+
+	/**
+	 * Opens the given MAT-file and reads its variable directory.
+	 *
+	 * @param file the MAT-file
+	 * @param matType the type of the MAT-file
+	 * @throws IOException when error occurred while processing the file.
+	 */
+	public MatFileLazyReader(File file, MatFileType matType) throws IOException {
+		this(file, matType, CompressionContext.NONE);
+	}
+
+	/**
+	 * Opens the given MAT-file and reads its variable directory, taking
+	 * inflaters from the given context.
+	 *
+	 * @param file the MAT-file
+	 * @param matType the type of the MAT-file
+	 * @param context the context to take the inflaters from
+	 * @throws IOException when error occurred while processing the file.
+	 */
+	public MatFileLazyReader(File file, MatFileType matType, CompressionContext context) throws IOException {
+		this(file, matType, context, MatFileReader.HEAP_BYTE_BUFFER);
+	}
+
+	/**
+	 * Opens the given MAT-file and reads its variable directory, taking
+	 * inflaters from the given context.
+	 * <p>
+	 * With {@link MatFileReader#MEMORY_MAPPED_FILE}, variables are read from
+	 * a mapping of their part of the file, and the numeric arrays of
+	 * uncompressed variables are backed by it directly.  With the other
+	 * policies, variables are read into the heap.
+	 *
+	 * @param file the MAT-file
+	 * @param matType the type of the MAT-file
+	 * @param context the context to take the inflaters from
+	 * @param policy the file allocation policy
+	 * @throws IOException when error occurred while processing the file.
+	 */
+	public MatFileLazyReader(File file, MatFileType matType, CompressionContext context, int policy) throws IOException {
+		this(file, matType, context, policy, true);
+	}
+
+	/**
+	 * @param loadIndex whether to load the {@link MatCompressedIndex} of the file.
+	 *            A sidecar which can't be read is ignored, like a stale one:
+	 *            the variables are then inflated from their start.
+	 */
+	private MatFileLazyReader(File file, MatFileType matType, CompressionContext context, int policy, boolean loadIndex) throws IOException {
+		switch (policy) {
+		case MatFileReader.MEMORY_MAPPED_FILE:
+		case MatFileReader.DIRECT_BYTE_BUFFER:
+		case MatFileReader.HEAP_BYTE_BUFFER:
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown file allocation policy");
+		}
+		this.matType = matType;
+		this.context = context;
+		this.policy = policy;
+		this.raFile = new RandomAccessFile(file, "r");
+		this.channel = raFile.getChannel();
+		try {
+			MatFileReader headerReader = new MatFileReader(matType);
+			ByteBuffer buf = read(0, (int) Math.min(128, channel.size()));
+			headerReader.readHeader(buf);
+			this.header = headerReader.getMatFileHeader();
+			readDirectory(buf.position());
+		} catch (IOException e) {
+			raFile.close();
+			throw e;
+		} catch (RuntimeException e) {
+			raFile.close();
+			throw e;
+		}
+		if (loadIndex) {
+			try {
+				this.index = MatCompressedIndex.load(file);
+			} catch (IOException e) {
+				// a corrupt sidecar doesn't keep the file from being read
+			}
+		}
+	}
+
+	/**
+	 * Lists the variables of a MAT-file without reading their data, like
+	 * MATLAB's <code>whos -file</code>.  Only the tag of every top-level
+	 * element and the flags, dimensions and name of its matrix are read,
+	 * inflating just the first bytes of compressed variables.
+	 *
+	 * @param file the MAT-file
+	 * @return the descriptions of the variables, in file order
+	 * @throws IOException when error occurred while processing the file.
+	 */
+	public static List<MatVariableInfo> scan(File file) throws IOException {
+		return scan(file, CompressionContext.NONE);
+	}
+
+	/**
+	 * Lists the variables of a MAT-file without reading their data, taking
+	 * inflaters from the given context, see {@link #scan(File)}.
+	 *
+	 * @param file the MAT-file
+	 * @param context the context to take the inflaters from
+	 * @return the descriptions of the variables, in file order
+	 * @throws IOException when error occurred while processing the file.
+	 */
+	public static List<MatVariableInfo> scan(File file, CompressionContext context) throws IOException {
+		// the sidecar isn't needed, and MatCompressedIndex.build() may be replacing it
+		MatFileLazyReader reader = new MatFileLazyReader(file, MatFileType.Regular, context, MatFileReader.HEAP_BYTE_BUFFER, false);
+		try {
+			return reader.getVariables();
+		} finally {
+			reader.close();
+		}
+	}
+
+	/** Walks the top-level tags, starting at the given position. */
+	private void readDirectory(long position) throws IOException {
+		long fileSize = channel.size();
+		while (position + 8 <= fileSize) {
+			ByteBuffer tag = read(position, 8);
+			int type = tag.getInt();
+			long size = tag.getInt() & 0xffffffffL;
+			if (position + 8 + size > fileSize) {
+				throw new MatlabIOException("Element at offset " + position + " is " + size + " bytes long, but the file ends at " + fileSize);
+			}
+
+			MatVariableInfo info;
+			switch (type) {
+			case MatDataTypes.miCOMPRESSED:
+				Inflater inflater = context.inflater();
+				try {
+					info = MatFileReader.peekVariableInfo(new InflaterInputStream(open(position + 8, size), inflater), header, position, size, true);
+				} finally {
+					context.release(inflater);
+				}
+				break;
+			case MatDataTypes.miMATRIX:
+				info = MatFileReader.peekVariableInfo(open(position, 8 + size), header, position, size, false);
+				break;
+			default:
+				throw new MatlabIOException("Incorrect data tag at offset " + position + ": " + MatDataTypes.typeToString(type));
+			}
+			addVariable(info);
+			position += 8 + size;
+		}
+	}
+
+	/** Adds the variable to the directory, using the same naming rules as {@link MatFileReader}. */
+	private void addVariable(MatVariableInfo info) {
+		String name = info.getName();
+		if (!variables.containsKey(name)) {
+			variables.put(name, info);
+		}
+		if (name.equals(MLArray.DEFAULT_NAME)) {
+			int nextIndex = 0;
+			for (; variables.containsKey(MLArray.DEFAULT_NAME + nextIndex); nextIndex++) {}
+			variables.put(MLArray.DEFAULT_NAME + nextIndex, info);
+			if (info.getType() == MLArray.mxUINT8_CLASS) {
+				mcosData = info;
+			}
+		}
+	}
+
+	/** Reads <code>length</code> bytes at the given file position. */
+	private ByteBuffer read(long position, int length) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(length);
+		while (buf.hasRemaining()) {
+			if (channel.read(buf, position + buf.position()) < 0) {
+				throw new EOFException("Unexpected end of file at offset " + (position + buf.position()));
+			}
+		}
+		buf.flip();
+		if (header != null) {
+			buf.order(header.getByteOrder());
+		}
+		return buf;
+	}
+
+	/** Returns the access point index used by {@link #readRegion(String, int[], int[])}, or null if the file has none. */
+	public synchronized MatCompressedIndex getIndex() {
+		return index;
+	}
+
+	/**
+	 * Sets the access point index used by {@link #readRegion(String, int[], int[])}.
+	 * The index found next to the file, if any, is loaded when the reader is
+	 * opened.
+	 *
+	 * @param index the index of this file, or null to always inflate from the start of a variable
+	 */
+	public synchronized void setIndex(MatCompressedIndex index) {
+		this.index = index;
+	}
+
+	/**
+	 * Sets whether cell arrays of strings are read into an
+	 * <code>MLCellStr</code>, see {@link MatFileReader#setCellStrings(boolean)}.
+	 */
+	public synchronized void setCellStrings(boolean cellStrings) {
+		this.cellStrings = cellStrings;
+	}
+
+	/** Returns the MAT-file header. */
+	public MatFileHeader getMatFileHeader() {
+		return header;
+	}
+
+	/** Returns the names of the variables in the file, in file order. */
+	public synchronized Collection<String> getVariableNames() {
+		return new ArrayList<String>(variables.keySet());
+	}
+
+	/** Returns the descriptions of the variables in the file, in file order. */
+	public synchronized List<MatVariableInfo> getVariables() {
+		return new ArrayList<MatVariableInfo>(new LinkedHashSet<MatVariableInfo>(variables.values()));
+	}
+
+	/** Returns the description of the given variable, or null if the file contains no variable with this name. */
+	public synchronized MatVariableInfo getVariableInfo(String name) {
+		return variables.get(name);
+	}
+
+	/**
+	 * Returns the given variable, decoding it if it hasn't been decoded yet.
+	 *
+	 * @param name - array name
+	 * @return - the <code>MLArray</code> of the given name, or null if the file contains no content for this name.
+	 * @throws IOException when error occurred while reading the variable.
+	 */
+	public synchronized MLArray getMLArray(String name) throws IOException {
+		MatVariableInfo info = variables.get(name);
+		if (info == null) {
+			return null;
+		}
+		MLArray array = cache.get(info);
+		if (array == null) {
+			array = decode(info);
+			cache.put(info, array);
+		}
+		return array;
+	}
+
+	/**
+	 * Decodes every variable of the file.
+	 *
+	 * @return - a <code>Map</code> of MLArrays mapped with their names.
+	 * @throws IOException when error occurred while reading the variables.
+	 */
+	public synchronized Map<String, MLArray> getContent() throws IOException {
+		Map<String, MLArray> content = new LinkedHashMap<String, MLArray>();
+		for (String name : variables.keySet()) {
+			content.put(name, getMLArray(name));
+		}
+		return content;
+	}
+
+	/**
+	 * Reads a block of a numeric variable, e.g. a few columns of a large
+	 * matrix, without decoding the rest of it.  The region is given by its
+	 * first index and its size along every dimension, as in
+	 * <code>A(start(1)+1 : start(1)+count(1), start(2)+1 : ...)</code>.
+	 * <p>
+	 * Only the bytes of the region are read from uncompressed variables.
+	 * Compressed variables are inflated as a stream up to the end of the
+	 * region, discarding the bytes outside of it, so memory use is bounded
+	 * by the size of the region either way.  With a {@link MatCompressedIndex},
+	 * inflating starts at the access point nearest to the region instead.
+	 * Variables which were already decoded are not used.
+	 *
+	 * @param name - array name
+	 * @param start - first index along every dimension, 0-based
+	 * @param count - number of elements along every dimension
+	 * @return - the region, a numeric array of the same class, or null if the file contains no variable with this name
+	 * @throws IllegalArgumentException if the variable is not a numeric array, or the region is outside of it
+	 * @throws IOException when error occurred while reading the variable.
+	 */
+	public synchronized MLNumericArray<?> readRegion(String name, int[] start, int[] count) throws IOException {
+		MatVariableInfo info = variables.get(name);
+		if (info == null) {
+			return null;
+		}
+		int[] dims = info.getDimensions();
+		if (info.isSparse() || !isNumeric(info.getType())) {
+			throw new IllegalArgumentException("Variable " + name + " is a " + MLArray.typeToString(info.getType()) + ", not a numeric array");
+		}
+		if (start.length != dims.length || count.length != dims.length) {
+			throw new IllegalArgumentException("Cannot use a " + start.length + "-d region for " + dims.length + " dimensions.");
+		}
+		for (int i = 0; i < dims.length; i++) {
+			if (start[i] < 0 || count[i] < 0 || (long) start[i] + count[i] > dims[i]) {
+				throw new IllegalArgumentException("Region " + start[i] + "+" + count[i] + " is outside of dimension " + i + " of size " + dims[i]);
+			}
+		}
+
+		MLNumericArray<?> region = newNumericArray(info.getName(), count, info.getType(), info.getFlags());
+		ElementCursor cursor = new ElementCursor(info);
+		try {
+			// matrix tag, then the flags, dimensions and name
+			cursor.read(8);
+			for (int i = 0; i < 3; i++) {
+				cursor.skipElement();
+			}
+			readRegionPart(cursor, dims, start, count, region, region.getRealByteBuffer());
+			if (info.isComplex()) {
+				readRegionPart(cursor, dims, start, count, region, region.getImaginaryByteBuffer());
+			}
+		} finally {
+			cursor.close();
+		}
+		return region;
+	}
+
+	/**
+	 * Reads a block of rows and columns of a 2-D numeric variable.
+	 *
+	 * @see #readRegion(String, int[], int[])
+	 */
+	public MLNumericArray<?> readRegion(String name, int firstRow, int rows, int firstColumn, int columns) throws IOException {
+		return readRegion(name, new int[]{firstRow, firstColumn}, new int[]{rows, columns});
+	}
+
+	/**
+	 * Reads the region of the real or imaginary part at the cursor into
+	 * <code>dest</code>, one run along the first dimension at a time, and
+	 * leaves the cursor after the part.
+	 */
+	private void readRegionPart(ElementCursor cursor, int[] dims, int[] start, int[] count, MLNumericArray<?> region, ByteBuffer dest) throws IOException {
+		ByteBuffer tag = cursor.read(8);
+		int type = tag.getInt(0);
+		long size;
+		ByteBuffer packed = null;
+		if (type >>> 16 != 0) {
+			// data packed in the tag
+			size = type >>> 16;
+			type &= 0xffff;
+			tag.position(4);
+			packed = tag.slice().order(tag.order());
+		} else {
+			size = tag.getInt(4) & 0xffffffffL;
+		}
+		long dataStart = cursor.position();
+		int srcWidth = MatDataTypes.sizeOf(type);
+		int destWidth = region.getBytesAllocated();
+		if (region.getSize() > 0) {
+			// odometer over the indices of dimensions 1..n-1; runs which
+			// follow each other in the file are merged
+			long[] strides = new long[dims.length];
+			strides[0] = 1;
+			for (int d = 1; d < dims.length; d++) {
+				strides[d] = strides[d - 1] * dims[d - 1];
+			}
+			int[] index = new int[dims.length];
+			long runStart = -1;
+			int runLength = 0;
+			int destIndex = 0;
+			int runDest = 0;
+			while (true) {
+				long element = start[0];
+				for (int d = 1; d < dims.length; d++) {
+					element += (start[d] + index[d]) * strides[d];
+				}
+				if (runStart >= 0 && runStart + runLength == element) {
+					runLength += count[0];
+				} else {
+					if (runStart >= 0) {
+						copyRun(cursor, packed, dataStart, type, runStart * srcWidth, runLength, region, dest, runDest * destWidth);
+					}
+					runStart = element;
+					runLength = count[0];
+					runDest = destIndex;
+				}
+				destIndex += count[0];
+				int d = 1;
+				while (d < dims.length && ++index[d] == count[d]) {
+					index[d] = 0;
+					d++;
+				}
+				if (d == dims.length) {
+					break;
+				}
+			}
+			copyRun(cursor, packed, dataStart, type, runStart * srcWidth, runLength, region, dest, runDest * destWidth);
+		}
+		if (packed == null) {
+			cursor.skip(dataStart + size + (8 - size % 8) % 8 - cursor.position());
+		}
+	}
+
+	/** Converts <code>length</code> stored values at the given offset of the part into <code>dest</code>. */
+	private static void copyRun(ElementCursor cursor, ByteBuffer packed, long dataStart, int type, long offset, int length, MLNumericArray<?> region, ByteBuffer dest, int destOffset) throws IOException {
+		int bytes = length * MatDataTypes.sizeOf(type);
+		ByteBuffer src;
+		if (packed != null) {
+			src = packed.duplicate().order(packed.order());
+			src.position((int) offset);
+		} else {
+			cursor.skip(dataStart + offset - cursor.position());
+			src = cursor.read(bytes);
+		}
+		ByteBuffer target = dest.duplicate().order(dest.order());
+		target.position(destOffset);
+		target = target.slice().order(dest.order());
+		target.limit(length * region.getBytesAllocated());
+		new MatFileInputStream(src, type).readToByteBuffer(target, length, region);
+	}
+
+	private static boolean isNumeric(int type) {
+		switch (type) {
+		case MLArray.mxDOUBLE_CLASS:
+		case MLArray.mxSINGLE_CLASS:
+		case MLArray.mxINT8_CLASS:
+		case MLArray.mxUINT8_CLASS:
+		case MLArray.mxINT16_CLASS:
+		case MLArray.mxUINT16_CLASS:
+		case MLArray.mxINT32_CLASS:
+		case MLArray.mxUINT32_CLASS:
+		case MLArray.mxINT64_CLASS:
+		case MLArray.mxUINT64_CLASS:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	private static MLNumericArray<?> newNumericArray(String name, int[] dims, int type, int attributes) {
+		switch (type) {
+		case MLArray.mxDOUBLE_CLASS:
+			return new MLDouble(name, dims, type, attributes);
+		case MLArray.mxSINGLE_CLASS:
+			return new MLSingle(name, dims, type, attributes);
+		case MLArray.mxINT8_CLASS:
+			return new MLInt8(name, dims, type, attributes);
+		case MLArray.mxUINT8_CLASS:
+			return new MLUInt8(name, dims, type, attributes);
+		case MLArray.mxINT16_CLASS:
+			return new MLInt16(name, dims, type, attributes);
+		case MLArray.mxUINT16_CLASS:
+			return new MLUInt16(name, dims, type, attributes);
+		case MLArray.mxINT32_CLASS:
+			return new MLInt32(name, dims, type, attributes);
+		case MLArray.mxUINT32_CLASS:
+			return new MLUInt32(name, dims, type, attributes);
+		case MLArray.mxINT64_CLASS:
+			return new MLInt64(name, dims, type, attributes);
+		default:
+			return new MLUInt64(name, dims, type, attributes);
+		}
+	}
+
+	/**
+	 * Sequential reader of a top-level element: positioned reads of the file
+	 * for uncompressed elements, or the inflated stream of compressed ones,
+	 * whose skipped bytes are inflated and dropped.  Positions are relative
+	 * to the start of the matrix.
+	 * <p>
+	 * Long skips within a compressed element restart inflating at the
+	 * nearest access point of the {@link MatCompressedIndex}, if any.
+	 */
+	private class ElementCursor {
+		private final MatVariableInfo info;
+		private InputStream stream;
+		/** The inflater taken from the context, until inflating is resumed at an access point. */
+		private Inflater inflater;
+		private long position;
+
+		ElementCursor(MatVariableInfo info) throws IOException {
+			this.info = info;
+			if (info.isCompressed()) {
+				inflater = context.inflater();
+				stream = new InflaterInputStream(open(info.getOffset() + 8, info.getSize()), inflater, 1 << 16);
+			}
+		}
+
+		long position() {
+			return position;
+		}
+
+		ByteBuffer read(int length) throws IOException {
+			ByteBuffer buf;
+			if (stream == null) {
+				buf = MatFileLazyReader.this.read(info.getOffset() + position, length);
+			} else {
+				byte[] bytes = new byte[length];
+				for (int done = 0; done < length;) {
+					int n = stream.read(bytes, done, length - done);
+					if (n < 0) {
+						throw new EOFException("Unexpected end of compressed variable at offset " + (position + done));
+					}
+					done += n;
+				}
+				buf = ByteBuffer.wrap(bytes).order(header.getByteOrder());
+			}
+			position += length;
+			return buf;
+		}
+
+		void skip(long length) throws IOException {
+			MatCompressedIndex.AccessPoint point = stream == null || index == null ? null : index.find(info, position + length);
+			if (point != null && point.getOutputPosition() - position > DeflateScanner.WINDOW_SIZE && resume(point)) {
+				length -= point.getOutputPosition() - position;
+				position = point.getOutputPosition();
+			}
+			if (stream != null) {
+				for (long done = 0; done < length;) {
+					long n = stream.skip(length - done);
+					if (n <= 0) {
+						if (stream.read() < 0) {
+							throw new EOFException("Unexpected end of compressed variable at offset " + (position + done));
+						}
+						n = 1;
+					}
+					done += n;
+				}
+			}
+			position += length;
+		}
+
+		/**
+		 * Restarts inflating at the access point.
+		 *
+		 * @return false if its dictionary can't be read from the sidecar, in which case inflating goes on
+		 */
+		private boolean resume(MatCompressedIndex.AccessPoint point) throws IOException {
+			byte[] dictionary;
+			try {
+				dictionary = index.readWindow(point);
+			} catch (IOException e) {
+				return false;
+			}
+			close();
+			long skipped = point.getBitPosition() >>> 3;
+			InputStream deflated = open(info.getOffset() + 8 + skipped, info.getSize() - skipped);
+			stream = DeflateScanner.resume(deflated, (int) (point.getBitPosition() & 7), dictionary);
+			return true;
+		}
+
+		/** Gives back the inflater. */
+		void close() {
+			if (inflater != null) {
+				context.release(inflater);
+				inflater = null;
+			}
+		}
+
+		/** Skips a data element, whose data may be packed in its tag. */
+		void skipElement() throws IOException {
+			ByteBuffer tag = read(8);
+			if (tag.getInt(0) >>> 16 == 0) {
+				long size = tag.getInt(4) & 0xffffffffL;
+				skip(size + (8 - size % 8) % 8);
+			}
+		}
+	}
+
+	/** Reads and decodes a single variable. */
+	private MLArray decode(MatVariableInfo info) throws IOException {
+		MatFileReader reader = new MatFileReader(matType, context);
+		reader.matFileHeader = header;
+		reader.zeroCopy = policy == MatFileReader.MEMORY_MAPPED_FILE && !info.isCompressed();
+		reader.cellStrings = cellStrings;
+		reader.readData(readElement(info));
+		if (reader.hasUnresolvedMCOS() && mcosData != null && mcosData != info) {
+			reader.readData(readElement(mcosData));
+			reader.resolveMCOS();
+		}
+		return firstValue(reader.getContent());
+	}
+
+	/** Reads the raw bytes of a top-level element, including its tag. */
+	private ByteBuffer readElement(MatVariableInfo info) throws IOException {
+		long length = 8 + info.getSize();
+		if (length > Integer.MAX_VALUE) {
+			throw new MatlabIOException("Variable " + info.getName() + " is too large to be read into a single buffer: " + length + " bytes");
+		}
+		if (policy == MatFileReader.MEMORY_MAPPED_FILE) {
+			// not released explicitly, as the arrays may keep slices of it
+			ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, info.getOffset(), length);
+			return buf.order(header.getByteOrder());
+		}
+		return read(info.getOffset(), (int) length);
+	}
+
+	private static MLArray firstValue(Map<String, MLArray> content) throws MatlabIOException {
+		if (content.isEmpty()) {
+			throw new MatlabIOException("Element did not contain a matrix");
+		}
+		return content.values().iterator().next();
+	}
+
+	/** Closes the underlying file.  Variables which were already decoded remain usable. */
+	@Override
+	public synchronized void close() throws IOException {
+		channel.close();
+		raFile.close();
+	}
+
+	/** Returns a stream over <code>length</code> bytes at the given file position. */
+	private InputStream open(long position, long length) throws IOException {
+		channel.position(position);
+		return new BoundedInputStream(Channels.newInputStream(channel), length);
+	}
+}
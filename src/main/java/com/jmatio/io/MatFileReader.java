@@ -10,28 +10,44 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.PushbackInputStream;
 import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.CharBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.zip.Inflater;
 import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
 
 import com.jmatio.common.MatDataTypes;
-import com.jmatio.io.MatFileWriter.ByteArrayOutputStream2;
+import com.jmatio.io.stream.BoundedInputStream;
 import com.jmatio.io.stream.ByteBufferInputStream;
-import com.jmatio.io.stream.HeapBufferDataOutputStream;
 import com.jmatio.io.stream.MatFileInputStream;
 import com.jmatio.types.ByteStorageSupport;
 import com.jmatio.types.MLArray;
 import com.jmatio.types.MLCell;
+import com.jmatio.types.MLCellStr;
 import com.jmatio.types.MLChar;
 import com.jmatio.types.MLDouble;
 import com.jmatio.types.MLEmptyArray;
@@ -46,6 +62,7 @@ import com.jmatio.types.MLObject;
 import com.jmatio.types.MLSingle;
 import com.jmatio.types.MLSparse;
 import com.jmatio.types.MLStructure;
+import com.jmatio.types.MLStructureObjectBase;
 import com.jmatio.types.MLUInt16;
 import com.jmatio.types.MLUInt32;
 import com.jmatio.types.MLUInt64;
@@ -103,6 +120,32 @@ public class MatFileReader {
 	 * Holds the likely candidate for the MCOS extra data at the end of a MAT file.
 	 */
 	private MLUInt8 mcosData;
+	/**
+	 * Source of the inflaters of compressed elements
+	 */
+	/**
+	 * Default bound on the size of the compressed elements copied out of the
+	 * file and waiting to be merged by
+	 * {@link #read(File, MatFileFilter, int, ExecutorService)}.
+	 */
+	public static final long DEFAULT_MAX_BYTES_IN_FLIGHT = 256L << 20;
+
+	private CompressionContext context = CompressionContext.NONE;
+	/**
+	 * Whether numeric arrays may be backed by slices of the buffer they are
+	 * read from, see {@link #readPart(ISMatTag, MLNumericArray, boolean)}
+	 */
+	boolean zeroCopy;
+	/**
+	 * Parses the children of large cells and structures concurrently when
+	 * set, see {@link #readChildren(ByteBuffer, int)}
+	 */
+	private ExecutorService executor;
+	/**
+	 * Reads cell arrays of strings into {@link MLCellStr}s when set, see
+	 * {@link #setCellStrings(boolean)}
+	 */
+	boolean cellStrings;
 
 	/**
 	 * Creates instance of <code>MatFileReader</code> and reads MAT-file 
@@ -183,6 +226,40 @@ public class MatFileReader {
 		this(MatFileType.Regular);
 	}
 
+	/**
+	 * Creates instance of <code>MatFileReader</code> which takes its inflaters
+	 * from the given context, so that they are reused across elements and
+	 * files.
+	 * 
+	 * @param matType
+	 *            the type of the MAT-files which are read
+	 * @param context
+	 *            the context to take the inflaters from
+	 */
+	public MatFileReader(MatFileType matType, CompressionContext context) {
+		this(matType);
+		this.context = context;
+	}
+
+	/**
+	 * Sets whether cell arrays whose cells are all 1 x N char rows or 0 x 0
+	 * char arrays are read into an {@link MLCellStr}, which keeps their
+	 * characters in one pool instead of one {@link MLChar} per cell.  Off by
+	 * default.
+	 * <p>
+	 * An <code>MLCellStr</code> can only hold strings, and its cells are
+	 * built on demand, so changes to them are not kept: leave this off if the
+	 * cells of what is read are modified.
+	 */
+	public synchronized void setCellStrings(boolean cellStrings) {
+		this.cellStrings = cellStrings;
+	}
+
+	/** Returns whether cell arrays of strings are read into an {@link MLCellStr}. */
+	public synchronized boolean isCellStrings() {
+		return cellStrings;
+	}
+
 	/**
 	 * Creates instance of <code>MatFileReader</code> and reads MAT-file from
 	 * <code>file</code>.
@@ -288,6 +365,10 @@ public class MatFileReader {
 	 * <code>{@link ByteBuffer#allocate(int)}</code> method to read in the
 	 * file contents</li>
 	 * </ul>
+	 * Whatever the policy, the file is read through windows of at most 1 GB
+	 * (or the size of the largest variable), so files larger than 2 GB can be
+	 * read as well.
+	 * <p>
 	 * <i>Note: memory mapped file will try to invoke a nasty code to relase
 	 * it's resources</i>
 	 * 
@@ -302,14 +383,80 @@ public class MatFileReader {
 	 * @throws IOException
 	 *             if error occurs during file processing
 	 */
-	private static final int DIRECT_BUFFER_LIMIT = 1 << 25;
-
 	public synchronized Map<String, MLArray> read(File file, MatFileFilter filter, int policy) throws IOException {
 		return read(new RandomAccessFile(file, "r"), filter, policy);
 	}
 
 	public synchronized Map<String, MLArray> read(RandomAccessFile raFile, MatFileFilter filter, int policy) throws IOException {
+		return read(raFile, filter, policy, null);
+	}
+
+	/**
+	 * Reads the content of a MAT-file and returns the mapped content,
+	 * inflating and parsing the top-level variables concurrently.
+	 * <p>
+	 * The top-level elements are first located by their tag sizes, then
+	 * each of them is parsed by a task submitted to <code>executor</code>.
+	 * The results are collected in the original file order, so
+	 * <code>getContent()</code> is the same as for a sequential read.  The
+	 * children of a cell array or structure array whose elements span more
+	 * than 1 MB are split into tasks on <code>executor</code> as well, so
+	 * that a single large variable is parsed in parallel too.  The executor
+	 * is not shut down.
+	 * <p>
+	 * At most {@link #DEFAULT_MAX_BYTES_IN_FLIGHT} bytes of compressed
+	 * elements are copied out of the file and waiting to be merged.
+	 * 
+	 * @param file
+	 *            a valid MAT-file file to be read
+	 * @param filter
+	 *            the array filter applied during reading
+	 * @param policy
+	 *            the file memory allocation policy
+	 * @param executor
+	 *            runs the parsing tasks, or null to parse on the calling thread
+	 * @return the same as <code>{@link #getContent()}</code>
+	 * @see #read(File, MatFileFilter, int)
+	 * @see #read(File, MatFileFilter, int, ExecutorService, long)
+	 * @throws IOException
+	 *             if error occurs during file processing
+	 */
+	public synchronized Map<String, MLArray> read(File file, MatFileFilter filter, int policy, ExecutorService executor) throws IOException {
+		return read(file, filter, policy, executor, DEFAULT_MAX_BYTES_IN_FLIGHT);
+	}
+
+	/**
+	 * Reads the content of a MAT-file like
+	 * {@link #read(File, MatFileFilter, int, ExecutorService)}, with at most
+	 * <code>maxBytesInFlight</code> bytes of compressed elements copied out
+	 * of the file and waiting to be merged.  An element larger than that is
+	 * still copied, once the elements before it are merged.
+	 * 
+	 * @param file
+	 *            a valid MAT-file file to be read
+	 * @param filter
+	 *            the array filter applied during reading
+	 * @param policy
+	 *            the file memory allocation policy
+	 * @param executor
+	 *            runs the parsing tasks, or null to parse on the calling thread
+	 * @param maxBytesInFlight
+	 *            the maximum size of the compressed elements copied out of the file at a time
+	 * @return the same as <code>{@link #getContent()}</code>
+	 * @throws IOException
+	 *             if error occurs during file processing
+	 */
+	public synchronized Map<String, MLArray> read(File file, MatFileFilter filter, int policy, ExecutorService executor, long maxBytesInFlight) throws IOException {
+		return read(new RandomAccessFile(file, "r"), filter, policy, executor, maxBytesInFlight);
+	}
+
+	public synchronized Map<String, MLArray> read(RandomAccessFile raFile, MatFileFilter filter, int policy, ExecutorService executor) throws IOException {
+		return read(raFile, filter, policy, executor, DEFAULT_MAX_BYTES_IN_FLIGHT);
+	}
+
+	public synchronized Map<String, MLArray> read(RandomAccessFile raFile, MatFileFilter filter, int policy, ExecutorService executor, long maxBytesInFlight) throws IOException {
 		this.filter = filter;
+		this.executor = executor;
 
 		//clear the results
 		for (String key : data.keySet()) {
@@ -317,65 +464,25 @@ public class MatFileReader {
 		}
 
 		FileChannel roChannel = null;
-		ByteBuffer buf = null;
+		WindowedFileBuffer windows = null;
 		try {
-			//Create a read-only memory-mapped file
-			roChannel = raFile.getChannel();
 			// until java bug #4715154 is fixed I am not using memory mapped files
 			// The bug disables re-opening the memory mapped files for writing
 			// or deleting until the VM stops working. In real life I need to open
 			// and update files
-			switch (policy) {
-			case DIRECT_BYTE_BUFFER:
-				buf = ByteBuffer.allocateDirect((int) roChannel.size());
-				roChannel.read(buf, 0);
-				buf.rewind();
-				break;
-			case HEAP_BYTE_BUFFER:
-				int filesize = (int) roChannel.size();
-				buf = ByteBuffer.allocate(filesize);
-
-				// The following two methods couldn't be used (at least under MS Windows)
-				// since they are implemented in a suboptimal way. Each of them
-				// allocates its own _direct_ buffer of exactly the same size,
-				// the buffer passed as parameter has, reads data into it and
-				// only afterwards moves data into the buffer passed as parameter.
-				// roChannel.read(buf, 0);        // ends up in outOfMemory
-				// raFile.readFully(buf.array()); // ends up in outOfMemory
-				int numberOfBlocks = filesize / DIRECT_BUFFER_LIMIT + ((filesize % DIRECT_BUFFER_LIMIT) > 0 ? 1 : 0);
-				if (numberOfBlocks > 1) {
-					ByteBuffer tempByteBuffer = ByteBuffer.allocateDirect(DIRECT_BUFFER_LIMIT);
-					for (long block = 0; block < numberOfBlocks; block++) {
-						tempByteBuffer.clear();
-						roChannel.read(tempByteBuffer, block * DIRECT_BUFFER_LIMIT);
-						tempByteBuffer.flip();
-						buf.put(tempByteBuffer);
-					}
-					tempByteBuffer = null;
-				} else
-					roChannel.read(buf, 0);
-
-				buf.rewind();
-				break;
-			case MEMORY_MAPPED_FILE:
-				buf = roChannel.map(FileChannel.MapMode.READ_ONLY, 0, (int) roChannel.size());
-				break;
-			default:
-				throw new IllegalArgumentException("Unknown file allocation policy");
-			}
+			roChannel = raFile.getChannel();
+			windows = new WindowedFileBuffer(roChannel, policy);
 			// Do the actual work.
-			parseData(buf);
+			if (executor == null) {
+				parseData(windows);
+			} else {
+				parseData(windows, executor, maxBytesInFlight);
+			}
 
 			return getContent();
-		} catch (IOException e) {
-			throw e;
 		} finally {
-			if (buf != null && buf.isDirect()) {
-				// Forcefully unmap memory mapped buffer or direct buffer. This is a
-				// workaround for <a href="http://bugs.sun.com/bugdatabase/view_bug.do?bug_id=4724038">#4724038</a>.
-				// Note that subsequent accesses to the buffer will crash the runtime, so it may
-				// only be applied to internal buffers.
-				Unsafe9R.invokeCleaner(buf);
+			if (windows != null) {
+				windows.close();
 			}
 			if (roChannel != null) {
 				roChannel.close();
@@ -386,13 +493,182 @@ public class MatFileReader {
 		}
 	}
 
-	private void parseData(ByteBuffer buf) throws IOException {
+	/**
+	 * Parses the top-level elements of the file concurrently, and merges
+	 * their results in file order.
+	 * <p>
+	 * A compressed element is copied out of the file windows, which don't
+	 * outlive the next window, and inflated and parsed by a task with a reader
+	 * of its own.  Once the copied elements waiting to be merged take more than
+	 * <code>maxBytesInFlight</code> bytes, the oldest one is merged before more is
+	 * copied; the calling thread parses it if no thread has started it yet.
+	 * An uncompressed element has nothing to inflate, and is parsed on the
+	 * calling thread straight from the window.
+	 */
+	private void parseData(WindowedFileBuffer windows, ExecutorService executor, long maxBytesInFlight) throws IOException {
+		//read in file header
+		ByteBuffer buf = windows.window(0, (int) Math.min(128, windows.size()));
+		readHeader(buf);
+
+		LinkedList<ParseTask> pending = new LinkedList<ParseTask>();
+		long inFlight = 0;
+		try {
+			long position = buf.position();
+			while (position < windows.size()) {
+				ByteBuffer tag = windows.window(position, 8);
+				tag.order(matFileHeader.getByteOrder());
+				int type = tag.getInt();
+				long length = 8 + (tag.getInt() & 0xffffffffL);
+				if (length > Integer.MAX_VALUE) {
+					throw new MatlabIOException("Element at offset " + position + " is too large to be read into a single buffer: " + length + " bytes");
+				}
+				buf = windows.window(position, (int) length);
+				if (type != MatDataTypes.miCOMPRESSED) {
+					ParseTask task = newParseTask(buf, 0);
+					task.run();
+					pending.add(task);
+					position += length;
+					continue;
+				}
+				if (!filter.isEmpty()) {
+					//don't bother copying the arrays which are filtered out
+					buf.position(buf.position() + 8);
+					if (!matchesFilter(buf, (int) length - 8)) {
+						position += length;
+						continue;
+					}
+					buf.position(buf.position() - 8);
+				}
+				while (!pending.isEmpty() && inFlight + length > maxBytesInFlight) {
+					inFlight -= mergeNext(pending);
+				}
+				byte[] element = new byte[(int) length];
+				buf.get(element);
+				ParseTask task = newParseTask(ByteBuffer.wrap(element), length);
+				pending.add(task);
+				inFlight += length;
+				executor.execute(task);
+				position += length;
+			}
+			while (!pending.isEmpty()) {
+				mergeNext(pending);
+			}
+		} finally {
+			for (ParseTask task : pending) {
+				task.cancel(true);
+			}
+		}
+		resolveMCOS();
+	}
+
+	/** Returns a task which parses a top-level element with a reader of its own. */
+	private ParseTask newParseTask(final ByteBuffer element, long size) {
+		return new ParseTask(new Callable<MatFileReader>() {
+			@Override
+			public MatFileReader call() throws IOException {
+				MatFileReader reader = new MatFileReader(matType, context);
+				reader.matFileHeader = matFileHeader;
+				reader.filter = filter;
+				reader.executor = executor;
+				reader.cellStrings = cellStrings;
+				element.order(matFileHeader.getByteOrder());
+				reader.readData(element);
+				return reader;
+			}
+		}, size);
+	}
+
+	/**
+	 * Waits for the oldest pending element, parsing it if it hasn't started,
+	 * merges its results and returns its copied size.
+	 */
+	private long mergeNext(LinkedList<ParseTask> pending) throws IOException {
+		ParseTask task = pending.removeFirst();
+		task.run();
+		MatFileReader reader = getResult(task);
+		for (MLArray element : reader.data.values()) {
+			addArray(element);
+			break;
+		}
+		mcosToFind.addAll(reader.mcosToFind);
+		if (reader.mcosData != null) {
+			mcosData = reader.mcosData;
+		}
+		return task.size;
+	}
+
+	/** Parses a top-level element. */
+	private static final class ParseTask extends FutureTask<MatFileReader> {
+		/** Size of the element copied out of the file, or 0 if it is parsed from the window. */
+		final long size;
+
+		ParseTask(Callable<MatFileReader> callable, long size) {
+			super(callable);
+			this.size = size;
+		}
+	}
+
+	/** Waits for the result of a parsing task, rethrowing its failure. */
+	private static MatFileReader getResult(Future<MatFileReader> result) throws IOException {
+		try {
+			return result.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the variables to be parsed");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new MatlabIOException("Could not parse variable: " + cause);
+		}
+	}
+
+	/**
+	 * Parses the file one top-level element at a time.  File positions are
+	 * long, so that files larger than 2 GB can be read; each element is read
+	 * through a window of its own, so it is only limited to 2 GB by itself.
+	 */
+	private void parseData(WindowedFileBuffer windows) throws IOException {
 		//read in file header
+		ByteBuffer buf = windows.window(0, (int) Math.min(128, windows.size()));
 		readHeader(buf);
 
-		while (buf.remaining() > 0) {
+		long position = buf.position();
+		while (position < windows.size()) {
+			ByteBuffer tag = windows.window(position, 8);
+			tag.order(matFileHeader.getByteOrder());
+			tag.getInt();
+			long length = 8 + (tag.getInt() & 0xffffffffL);
+			if (length > Integer.MAX_VALUE) {
+				throw new MatlabIOException("Element at offset " + position + " is too large to be read into a single buffer: " + length + " bytes");
+			}
+			buf = windows.window(position, (int) length);
+			buf.order(matFileHeader.getByteOrder());
 			readData(buf);
+			position += length;
 		}
+		resolveMCOS();
+	}
+
+	/**
+	 * Returns true if MCOS objects were read which can only be
+	 * resolved once the subsystem data has been read as well.
+	 */
+	boolean hasUnresolvedMCOS() {
+		return !mcosToFind.isEmpty();
+	}
+
+	/**
+	 * Resolves the MCOS objects found so far against the subsystem data
+	 * (the unnamed <code>uint8</code> variable) and removes the subsystem
+	 * data from the results.
+	 */
+	void resolveMCOS() throws IOException {
 		if (!mcosToFind.isEmpty()) {
 			parseMCOS(mcosData, mcosToFind);
 			if (data.get("@") == mcosData) {
@@ -604,8 +880,9 @@ public class MatFileReader {
 	}
 
 	/**
-	 * Read a mat file from a stream. Internally this will read the stream fully
-	 * into memory before parsing it.
+	 * Read a mat file from a stream. The stream is parsed one variable at a
+	 * time as it is read, so only the variables which pass the filter are
+	 * held in memory.  The stream is read to its end, but not closed.
 	 * 
 	 * @param stream
 	 *            a valid MAT-file stream to be read
@@ -622,24 +899,144 @@ public class MatFileReader {
 
 		data.clear();
 
-		ByteBuffer buf = null;
-
-		final ByteArrayOutputStream2 baos = new ByteArrayOutputStream2();
-		copy(stream, baos);
-		buf = ByteBuffer.wrap(baos.getBuf(), 0, baos.getCount());
-
 		// Do the actual work
-		parseData(buf);
+		parseData(stream);
 
 		return getContent();
 	}
 
-	private void copy(InputStream stream, ByteArrayOutputStream2 output) throws IOException {
-		final byte[] buffer = new byte[1024 * 4];
-		int n = 0;
-		while (-1 != (n = stream.read(buffer))) {
-			output.write(buffer, 0, n);
+	/**
+	 * Parses a MAT-file one top-level element at a time, as it arrives from
+	 * <code>stream</code>.  Only the matrices which pass the filter are
+	 * buffered, everything else is discarded as it is read.
+	 */
+	private void parseData(InputStream stream) throws IOException {
+		//read in file header, and push back whatever followed it
+		byte[] headerBytes = new byte[128];
+		int headerLength = readFully(stream, headerBytes, 0, headerBytes.length);
+		ByteBuffer headerBuf = ByteBuffer.wrap(headerBytes, 0, headerLength);
+		readHeader(headerBuf);
+		PushbackInputStream pis = new PushbackInputStream(stream, headerBytes.length);
+		pis.unread(headerBytes, headerBuf.position(), headerBuf.remaining());
+
+		byte[] tag = new byte[8];
+		while (readTag(pis, tag)) {
+			ByteBuffer tagBuf = ByteBuffer.wrap(tag).order(matFileHeader.getByteOrder());
+			int type = tagBuf.getInt();
+			long size = tagBuf.getInt() & 0xffffffffL;
+			BoundedInputStream element = new BoundedInputStream(pis, size);
+			switch (type) {
+			case MatDataTypes.miCOMPRESSED:
+				readCompressedMatrix(element, tag, size);
+				break;
+			case MatDataTypes.miMATRIX:
+				readStreamedMatrix(element, tag, size);
+				break;
+			default:
+				throw new MatlabIOException("Incorrect data tag: " + MatDataTypes.typeToString(type));
+			}
+			//skip whatever was not read, e.g. the checksum of the compressed data
+			element.drain();
+		}
+		resolveMCOS();
+	}
+
+	/**
+	 * Reads an 8-byte tag.
+	 *
+	 * @return false if the stream ended before the tag
+	 */
+	private static boolean readTag(InputStream stream, byte[] tag) throws IOException {
+		int length = readFully(stream, tag, 0, tag.length);
+		if (length == 0) {
+			return false;
+		} else if (length < tag.length) {
+			throw new EOFException("Unexpected end of stream inside a tag");
+		}
+		return true;
+	}
+
+	/**
+	 * Inflates the <code>miCOMPRESSED</code> data in <code>stream</code> and
+	 * reads the matrix in it.  The first 8 inflated bytes are the
+	 * <code>miMATRIX</code> tag, whose size lets the rest be inflated into a
+	 * buffer which is allocated once, with its exact size.
+	 * <p>
+	 * The zlib stream of a matrix which is kept is then inflated to its end,
+	 * so that its Adler-32 checksum is checked.
+	 *
+	 * @param tag scratch space for the tag, 8 bytes
+	 * @param compressedSize the size of the compressed data
+	 */
+	private void readCompressedMatrix(InputStream stream, byte[] tag, long compressedSize) throws IOException {
+		Inflater inflater = context.inflater();
+		InflaterInputStream iis = new InflaterInputStream(stream, inflater, INFLATER_BUFFER_SIZE);
+		try {
+			if (!readTag(iis, tag)) {
+				throw new MatlabIOException("Compressed element does not contain a matrix");
+			}
+			if (readStreamedMatrix(iis, tag, compressedSize * MAX_DEFLATE_RATIO)) {
+				while (iis.skip(INFLATER_BUFFER_SIZE) > 0) {}
+				if (iis.read() >= 0 || !inflater.finished()) {
+					throw new MatlabIOException("Compressed data does not end with its matrix");
+				}
+			}
+		} catch (ZipException e) {
+			throw new MatlabIOException("Could not decompress data: " + e.getMessage());
+		} finally {
+			context.release(inflater);
+		}
+	}
+
+	/**
+	 * Reads the matrix which follows the given <code>miMATRIX</code> tag.
+	 * When a filter is set, only the header of the matrix is read to check
+	 * it, and matrices which do not pass are left in the stream.
+	 * <p>
+	 * The buffer for the matrix is allocated with the size given by its tag,
+	 * but no larger than the stream can hold, so that a corrupt tag doesn't
+	 * allocate gigabytes; it grows if the stream does hold more.
+	 *
+	 * @param available the most bytes the stream can hold after the tag
+	 * @return false if the matrix was filtered out
+	 */
+	private boolean readStreamedMatrix(InputStream stream, byte[] tag, long available) throws IOException {
+		ByteBuffer tagBuf = ByteBuffer.wrap(tag).order(matFileHeader.getByteOrder());
+		if (tagBuf.getInt() != MatDataTypes.miMATRIX) {
+			throw new MatlabIOException("Incorrect data tag: " + MatDataTypes.typeToString(tagBuf.getInt(0)));
+		}
+		long size = tagBuf.getInt() & 0xffffffffL;
+		if (size > Integer.MAX_VALUE - tag.length) {
+			throw new MatlabIOException("Matrix is too large to be read into a single buffer: " + size + " bytes");
+		}
+		int length = tag.length + (int) size;
+		int capacity = (int) Math.min(length, tag.length + available);
+
+		byte[] bytes = new byte[filter.isEmpty() ? capacity : Math.min(capacity, PEEK_LENGTH)];
+		System.arraycopy(tag, 0, bytes, 0, tag.length);
+		int filled = tag.length + readFully(stream, bytes, tag.length, bytes.length - tag.length);
+		if (!filter.isEmpty()) {
+			MatVariableInfo info;
+			while ((info = parseVariableInfo(bytes, filled, matFileHeader, 0, size, false)) == null && filled == bytes.length && filled < length) {
+				bytes = Arrays.copyOf(bytes, (int) Math.min(length, 2L * bytes.length));
+				filled += readFully(stream, bytes, filled, bytes.length - filled);
+			}
+			if (info != null && !matchesFilter(info)) {
+				return false;
+			}
 		}
+		while (filled == bytes.length && filled < length) {
+			bytes = Arrays.copyOf(bytes, (int) Math.min(length, Math.max(capacity, 2L * bytes.length)));
+			filled += readFully(stream, bytes, filled, bytes.length - filled);
+		}
+		if (filled < length) {
+			throw new MatlabIOException("Matrix ended " + (length - filled) + " bytes before its expected size");
+		}
+
+		ByteBuffer buf = ByteBuffer.wrap(bytes);
+		buf.order(matFileHeader.getByteOrder());
+		readData(buf);
+		return true;
 	}
 
 	/**
@@ -690,8 +1087,8 @@ public class MatFileReader {
 	 * Reads data form byte buffer. Searches for either
 	 * <code>miCOMPRESSED</code> data or <code>miMATRIX</code> data.
 	 * 
-	 * Compressed data are inflated and the product is recursively passed back
-	 * to this same method.
+	 * Compressed data are inflated into a buffer of the exact size of the
+	 * matrix they hold, which is recursively passed back to this same method.
 	 * 
 	 * Modifies <code>buf</code> position.
 	 * 
@@ -709,42 +1106,10 @@ public class MatFileReader {
 			if (buf.remaining() < numOfBytes) {
 				throw new MatlabIOException("Compressed buffer length miscalculated!");
 			}
-			//instead of standard Inlater class instance I use an inflater input
-			//stream... gives a great boost to the performance
-			InflaterInputStream iis = new InflaterInputStream(new ByteBufferInputStream(buf, numOfBytes));
-
-			//process data decompression
-			byte[] result = new byte[1024];
-
-			HeapBufferDataOutputStream dos = new HeapBufferDataOutputStream();
-			int i;
-			try {
-				do {
-					i = iis.read(result, 0, result.length);
-					int len = Math.max(0, i);
-					dos.write(result, 0, len);
-				} while (i > 0);
-			} catch (EOFException eofe) {
-				System.out.println("EOFException detected!");
-			} catch (IOException e) {
-				throw new MatlabIOException("Could not decompress data: " + e);
-			} finally {
-				iis.close();
-				dos.flush();
-			}
-			//create a ByteBuffer from the deflated data
-			ByteBuffer out = dos.getByteBuffer();
-
-			//with proper byte ordering
-			out.order(matFileHeader.getByteOrder());
-
-			try {
-				readData(out);
-			} catch (IOException e) {
-				throw e;
-			} finally {
-				dos.close();
-			}
+			//inflate straight into a buffer of the size given by the inflated tag
+			int compressedEnd = buf.position() + numOfBytes;
+			readCompressedMatrix(new ByteBufferInputStream(buf, numOfBytes), new byte[8], numOfBytes);
+			buf.position(compressedEnd);
 			break;
 		case MatDataTypes.miMATRIX:
 			//read in the matrix
@@ -752,18 +1117,7 @@ public class MatFileReader {
 
 			MLArray element = readMatrix(buf, true);
 			if (element != null) {
-				// Sometimes a MAT file will contain more than one unnamed
-				// element.  This ensures that all of them will be accessible
-				// in the end result.
-				if (!data.containsKey(element.getName())) {
-					data.put(element.getName(), element);
-				}
-				if (element.getName() == MLArray.DEFAULT_NAME) {
-					// identity comparison is okay because we assigned it in the first place
-					int nextIndex = 0;
-					for (; data.containsKey("@" + nextIndex); nextIndex++) {}
-					data.put(MLArray.DEFAULT_NAME + nextIndex, element);
-				}
+				addArray(element);
 			} else {
 				int read = buf.position() - pos;
 				int toRead = tag.size - read;
@@ -780,6 +1134,51 @@ public class MatFileReader {
 		}
 	}
 
+	/** Adds a top-level array to the results. */
+	private void addArray(MLArray element) {
+		// Sometimes a MAT file will contain more than one unnamed
+		// element.  This ensures that all of them will be accessible
+		// in the end result.
+		if (!data.containsKey(element.getName())) {
+			data.put(element.getName(), element);
+		}
+		if (element.getName() == MLArray.DEFAULT_NAME) {
+			// identity comparison is okay because we assigned it in the first place
+			int nextIndex = 0;
+			for (; data.containsKey("@" + nextIndex); nextIndex++) {}
+			data.put(MLArray.DEFAULT_NAME + nextIndex, element);
+		}
+	}
+
+	/**
+	 * Inflates only the header of the compressed matrix at the position of
+	 * <code>buf</code> and tells whether it passes the filter.  Unnamed and
+	 * opaque arrays always pass, as they are named differently in the results
+	 * and are needed to resolve MCOS objects; <code>readMatrix</code> filters
+	 * them once they are inflated.
+	 * <p>
+	 * Does not modify <code>buf</code> position.
+	 */
+	private boolean matchesFilter(ByteBuffer buf, int numOfBytes) throws IOException {
+		Inflater inflater = context.inflater();
+		InflaterInputStream iis = new InflaterInputStream(new ByteBufferInputStream(buf.duplicate(), numOfBytes), inflater);
+		MatVariableInfo info;
+		try {
+			info = peekVariableInfo(iis, matFileHeader, 0, numOfBytes, true);
+		} finally {
+			context.release(inflater);
+		}
+		return matchesFilter(info);
+	}
+
+	/** Unnamed and opaque arrays always pass, see {@link #matchesFilter(ByteBuffer, int)}. */
+	private boolean matchesFilter(MatVariableInfo info) {
+		if (info.getType() == MLArray.mxOPAQUE_CLASS || info.getName().equals(MLArray.DEFAULT_NAME)) {
+			return true;
+		}
+		return filter.matches(info.getName());
+	}
+
 	/**
 	 * Reads miMATRIX from from input stream.
 	 * 
@@ -808,7 +1207,6 @@ public class MatFileReader {
 		//read flags
 		int[] flags = readFlags(buf);
 		int attributes = (flags.length != 0) ? flags[0] : 0;
-		int nzmax = (flags.length != 0) ? flags[1] : 0;
 		int type = attributes & 0xff;
 
 		//read Array dimension
@@ -844,72 +1242,57 @@ public class MatFileReader {
 				fieldNames[i] = zeroEndByteArrayToString(names);
 			}
 			buf.position(buf.position() + tag.padding);
-			//read fields
-			for (int index = 0; index < struct.getM() * struct.getN(); index++) {
-				for (int i = 0; i < numOfFields; i++) {
+			//read fields straight into the columns of the structure
+			MLArray[][] fieldValues = new MLArray[numOfFields][];
+			for (int i = 0; i < numOfFields; i++) {
+				fieldValues[i] = struct.addField(fieldNames[i]);
+			}
+			MLArray[] children = readChildren(buf, struct.getM() * struct.getN() * numOfFields);
+			for (int index = 0, child = 0; index < struct.getM() * struct.getN(); index++) {
+				for (int i = 0; i < numOfFields; i++, child++) {
 					//read matrix recursively
-					tag = new ISMatTag(buf);
-
-					MLArray array;
-					if (tag.size > 0) {
-						array = readMatrix(buf, false);
-					} else {
-						array = new MLEmptyArray();
-					}
+					MLArray array = children != null ? children[child] : readChild(buf);
 					array.name = fieldNames[i];
-					struct.setField(fieldNames[i], array, index);
+					fieldValues[i][index] = array;
 				}
 			}
+			leaveOnLastElement(struct, fieldNames, fieldValues);
 			mlArray = struct;
 			break;
 		case MLArray.mxCELL_CLASS:
-			MLCell cell = new MLCell(name, dims, type, attributes);
-			for (int i = 0; i < cell.getM() * cell.getN(); i++) {
-				tag = new ISMatTag(buf);
-				if (tag.size > 0) {
-					//read matrix recursively
-					MLArray cellmatrix = readMatrix(buf, false);
-					cell.set(cellmatrix, i);
-				} else {
-					cell.set(new MLEmptyArray(), i);
-				}
-			}
-			mlArray = cell;
+			mlArray = readCell(buf, name, dims, attributes);
 			break;
 		case MLArray.mxDOUBLE_CLASS:
 			mlArray = new MLDouble(name, dims, type, attributes);
 			//read real
 			tag = new ISMatTag(buf);
-			tag.readToByteBuffer(((MLNumericArray<?>) mlArray).getRealByteBuffer(), (MLNumericArray<?>) mlArray);
+			readPart(tag, (MLNumericArray<?>) mlArray, false);
 			//read complex
 			if (mlArray.isComplex()) {
 				tag = new ISMatTag(buf);
-				tag.readToByteBuffer(((MLNumericArray<?>) mlArray).getImaginaryByteBuffer(),
-						(MLNumericArray<?>) mlArray);
+				readPart(tag, (MLNumericArray<?>) mlArray, true);
 			}
 			break;
 		case MLArray.mxSINGLE_CLASS:
 			mlArray = new MLSingle(name, dims, type, attributes);
 			//read real
 			tag = new ISMatTag(buf);
-			tag.readToByteBuffer(((MLNumericArray<?>) mlArray).getRealByteBuffer(), (MLNumericArray<?>) mlArray);
+			readPart(tag, (MLNumericArray<?>) mlArray, false);
 			//read complex
 			if (mlArray.isComplex()) {
 				tag = new ISMatTag(buf);
-				tag.readToByteBuffer(((MLNumericArray<?>) mlArray).getImaginaryByteBuffer(),
-						(MLNumericArray<?>) mlArray);
+				readPart(tag, (MLNumericArray<?>) mlArray, true);
 			}
 			break;
 		case MLArray.mxUINT8_CLASS:
 			mlArray = new MLUInt8(name, dims, type, attributes);
 			//read real
 			tag = new ISMatTag(buf);
-			tag.readToByteBuffer(((MLNumericArray<?>) mlArray).getRealByteBuffer(), (MLNumericArray<?>) mlArray);
+			readPart(tag, (MLNumericArray<?>) mlArray, false);
 			//read complex
 			if (mlArray.isComplex()) {
 				tag = new ISMatTag(buf);
-				tag.readToByteBuffer(((MLNumericArray<?>) mlArray).getImaginaryByteBuffer(),
-						(MLNumericArray<?>) mlArray);
+				readPart(tag, (MLNumericArray<?>) mlArray, true);
 			}
 
 			// This might be the MCOS extra data.  If there is no name, set it as the current set of data.
@@ -922,84 +1305,77 @@ public class MatFileReader {
 			mlArray = new MLInt8(name, dims, type, attributes);
 			//read real
 			tag = new ISMatTag(buf);
-			tag.readToByteBuffer(((MLNumericArray<?>) mlArray).getRealByteBuffer(), (MLNumericArray<?>) mlArray);
+			readPart(tag, (MLNumericArray<?>) mlArray, false);
 			//read complex
 			if (mlArray.isComplex()) {
 				tag = new ISMatTag(buf);
-				tag.readToByteBuffer(((MLNumericArray<?>) mlArray).getImaginaryByteBuffer(),
-						(MLNumericArray<?>) mlArray);
+				readPart(tag, (MLNumericArray<?>) mlArray, true);
 			}
 			break;
 		case MLArray.mxINT16_CLASS:
 			mlArray = new MLInt16(name, dims, type, attributes);
 			//read real
 			tag = new ISMatTag(buf);
-			tag.readToByteBuffer(((MLNumericArray<?>) mlArray).getRealByteBuffer(), (MLNumericArray<?>) mlArray);
+			readPart(tag, (MLNumericArray<?>) mlArray, false);
 			//read complex
 			if (mlArray.isComplex()) {
 				tag = new ISMatTag(buf);
-				tag.readToByteBuffer(((MLNumericArray<?>) mlArray).getImaginaryByteBuffer(),
-						(MLNumericArray<?>) mlArray);
+				readPart(tag, (MLNumericArray<?>) mlArray, true);
 			}
 			break;
 		case MLArray.mxUINT16_CLASS:
 			mlArray = new MLUInt16(name, dims, type, attributes);
 			//read real
 			tag = new ISMatTag(buf);
-			tag.readToByteBuffer(((MLNumericArray<?>) mlArray).getRealByteBuffer(), (MLNumericArray<?>) mlArray);
+			readPart(tag, (MLNumericArray<?>) mlArray, false);
 			//read complex
 			if (mlArray.isComplex()) {
 				tag = new ISMatTag(buf);
-				tag.readToByteBuffer(((MLNumericArray<?>) mlArray).getImaginaryByteBuffer(),
-						(MLNumericArray<?>) mlArray);
+				readPart(tag, (MLNumericArray<?>) mlArray, true);
 			}
 			break;
 		case MLArray.mxINT32_CLASS:
 			mlArray = new MLInt32(name, dims, type, attributes);
 			//read real
 			tag = new ISMatTag(buf);
-			tag.readToByteBuffer(((MLNumericArray<?>) mlArray).getRealByteBuffer(), (MLNumericArray<?>) mlArray);
+			readPart(tag, (MLNumericArray<?>) mlArray, false);
 			//read complex
 			if (mlArray.isComplex()) {
 				tag = new ISMatTag(buf);
-				tag.readToByteBuffer(((MLNumericArray<?>) mlArray).getImaginaryByteBuffer(),
-						(MLNumericArray<?>) mlArray);
+				readPart(tag, (MLNumericArray<?>) mlArray, true);
 			}
 			break;
 		case MLArray.mxUINT32_CLASS:
 			mlArray = new MLUInt32(name, dims, type, attributes);
 			//read real
 			tag = new ISMatTag(buf);
-			tag.readToByteBuffer(((MLNumericArray<?>) mlArray).getRealByteBuffer(), (MLNumericArray<?>) mlArray);
+			readPart(tag, (MLNumericArray<?>) mlArray, false);
 			//read complex
 			if (mlArray.isComplex()) {
 				tag = new ISMatTag(buf);
-				tag.readToByteBuffer(((MLNumericArray<?>) mlArray).getImaginaryByteBuffer(),
-						(MLNumericArray<?>) mlArray);
+				readPart(tag, (MLNumericArray<?>) mlArray, true);
 			}
 			break;
 		case MLArray.mxINT64_CLASS:
 			mlArray = new MLInt64(name, dims, type, attributes);
 			//read real
 			tag = new ISMatTag(buf);
-			tag.readToByteBuffer(((MLNumericArray<?>) mlArray).getRealByteBuffer(), (MLNumericArray<?>) mlArray);
+			readPart(tag, (MLNumericArray<?>) mlArray, false);
 			//read complex
 			if (mlArray.isComplex()) {
 				tag = new ISMatTag(buf);
-				tag.readToByteBuffer(((MLNumericArray<?>) mlArray).getImaginaryByteBuffer(),
-						(MLNumericArray<?>) mlArray);
+				readPart(tag, (MLNumericArray<?>) mlArray, true);
 			}
 			break;
 		case MLArray.mxUINT64_CLASS:
 			mlArray = new MLUInt64(name, dims, type, attributes);
 			//read real
 			tag = new ISMatTag(buf);
-			tag.readToByteBuffer(((MLNumericArray<?>) mlArray).getRealByteBuffer(), (MLNumericArray<?>) mlArray);
+			readPart(tag, (MLNumericArray<?>) mlArray, false);
 			//read complex
 			if (mlArray.isComplex()) {
 				tag = new ISMatTag(buf);
-				tag.readToByteBuffer(((MLNumericArray<?>) mlArray).getImaginaryByteBuffer(),
-						(MLNumericArray<?>) mlArray);
+				readPart(tag, (MLNumericArray<?>) mlArray, true);
 			}
 			break;
 		case MLArray.mxCHAR_CLASS:
@@ -1007,58 +1383,26 @@ public class MatFileReader {
 
 			//read real
 			tag = new ISMatTag(buf);
-			//                char[] ac = tag.readToCharArray();
-			String str = tag.readToString(matFileHeader.getByteOrder());
-
-			for (int i = 0; i < str.length(); i++) {
-				mlchar.setChar(str.charAt(i), i);
-			}
+			tag.readToChars(mlchar.getCharArray(), matFileHeader.getByteOrder());
 			mlArray = mlchar;
 			break;
 		case MLArray.mxSPARSE_CLASS:
-			MLSparse sparse = new MLSparse(name, dims, attributes, nzmax);
 			//read ir (row indices)
 			tag = new ISMatTag(buf);
 			int[] ir = tag.readToIntArray();
-			//read jc (column count)
+			//read jc (column starts)
 			tag = new ISMatTag(buf);
 			int[] jc = tag.readToIntArray();
-
-			if (sparse.isComplex()) {
-				//read pr (real part)
-				tag = new ISMatTag(buf);
-				double[] ad1 = tag.readToDoubleArray();
-				int count = 0;
-				for (int column = 0; column < sparse.getN(); column++) {
-					while (count < jc[column + 1]) {
-						sparse.setReal(ad1[count], ir[count], column);
-						count++;
-					}
-				}
-
-				tag = new ISMatTag(buf);
-				double[] ad2 = tag.readToDoubleArray();
-
-				count = 0;
-				for (int column = 0; column < sparse.getN(); column++) {
-					while (count < jc[column + 1]) {
-						sparse.setImaginary(ad2[count], ir[count], column);
-						count++;
-					}
-				}
-			} else {
-				//read pi (real part)
+			//read pr (real part)
+			tag = new ISMatTag(buf);
+			double[] pr = tag.readToDoubleArray();
+			//read pi (imaginary part)
+			double[] pi = null;
+			if ((attributes & MLArray.mtFLAG_COMPLEX) != 0) {
 				tag = new ISMatTag(buf);
-				double[] ad1 = tag.readToDoubleArray();
-				int count = 0;
-				for (int column = 0; column < sparse.getN(); column++) {
-					while (count < jc[column + 1]) {
-						sparse.set(ad1[count], ir[count], column);
-						count++;
-					}
-				}
+				pi = tag.readToDoubleArray();
 			}
-			mlArray = sparse;
+			mlArray = new MLSparse(name, dims, attributes, ir, jc, pr, pi);
 			break;
 
 		case MLArray.mxOPAQUE_CLASS:
@@ -1161,7 +1505,11 @@ public class MatFileReader {
 				fieldNames[i] = zeroEndByteArrayToString(names);
 			}
 			buf.position(buf.position() + tag.padding);
-			//read fields
+			//read fields straight into the columns of the object
+			fieldValues = new MLArray[numOfFields][];
+			for (int i = 0; i < numOfFields; i++) {
+				fieldValues[i] = ((MLObject) mlArray).addField(fieldNames[i]);
+			}
 			for (int index = 0; index < mlArray.getM() * mlArray.getN(); index++) {
 				for (int i = 0; i < numOfFields; i++) {
 					//read matrix recursively
@@ -1174,9 +1522,10 @@ public class MatFileReader {
 						array = new MLEmptyArray();
 					}
 					array.name = fieldNames[i];
-					((MLObject) mlArray).setField(fieldNames[i], array, index);
+					fieldValues[i][index] = array;
 				}
 			}
+			leaveOnLastElement((MLObject) mlArray, fieldNames, fieldValues);
 			break;
 		default:
 			throw new MatlabIOException("Incorrect matlab array class: " + MLArray.typeToString(type));
@@ -1245,6 +1594,295 @@ public class MatFileReader {
 		return tag.readToString(header.getByteOrder());
 	}
 
+	/** Children of a cell or structure spanning fewer bytes than this are parsed sequentially. */
+	private static final int PARALLEL_CHILDREN_SIZE = 1 << 20;
+	/** Number of bytes initially read to find the flags, dimensions and name of a matrix. */
+	private static final int PEEK_LENGTH = 256;
+	/** Most bytes deflate inflates from one byte, which bounds the size of the matrix in a compressed element. */
+	private static final int MAX_DEFLATE_RATIO = 1032;
+	/** Size of the input buffer of the inflater of <code>miCOMPRESSED</code> elements. */
+	private static final int INFLATER_BUFFER_SIZE = 1 << 16;
+
+	/**
+	 * Reads the <code>miMATRIX</code> tag and the flags, dimensions and name
+	 * sub-elements from the start of a matrix, without reading its data.
+	 * <p>
+	 * Only as many bytes as needed are pulled from <code>matrix</code>,
+	 * which makes this cheap for an <code>InflaterInputStream</code>.
+	 *
+	 * @param matrix stream positioned at the <code>miMATRIX</code> tag
+	 * @param header header of the MAT-file
+	 * @param offset position of the top-level element in the file
+	 * @param size size of the top-level element, excluding its tag
+	 * @param compressed whether the top-level element is <code>miCOMPRESSED</code>
+	 * @throws IOException if the stream does not start with a matrix
+	 */
+	static MatVariableInfo peekVariableInfo(InputStream matrix, MatFileHeader header, long offset, long size, boolean compressed) throws IOException {
+		byte[] prefix = new byte[PEEK_LENGTH];
+		int length = 0;
+		while (true) {
+			length += readFully(matrix, prefix, length, prefix.length - length);
+			MatVariableInfo info = parseVariableInfo(prefix, length, header, offset, size, compressed);
+			if (info != null) {
+				return info;
+			}
+			if (length < prefix.length) {
+				throw new MatlabIOException("Matrix header is truncated at offset " + offset);
+			}
+			prefix = Arrays.copyOf(prefix, prefix.length * 2);
+		}
+	}
+
+	/**
+	 * Parses the <code>miMATRIX</code> tag and the flags, dimensions and name
+	 * sub-elements from the first <code>length</code> bytes of a matrix.
+	 *
+	 * @return the description, or null if more bytes are needed
+	 * @throws IOException if the bytes do not start with a matrix
+	 */
+	private static MatVariableInfo parseVariableInfo(byte[] prefix, int length, MatFileHeader header, long offset, long size, boolean compressed) throws IOException {
+		ByteBuffer buf = ByteBuffer.wrap(prefix, 0, length);
+		buf.order(header.getByteOrder());
+		try {
+			ISMatTag tag = new ISMatTag(buf);
+			if (tag.type != MatDataTypes.miMATRIX) {
+				throw new MatlabIOException("Incorrect data tag: " + tag);
+			}
+			int[] flags = readFlags(buf);
+			int[] dims = readDimension(buf);
+			String name = readName(buf, header);
+			if (flags.length != 0 && (flags[0] & MLArray.mtFLAG_TYPE) == MLArray.mxOPAQUE_CLASS) {
+				// opaque objects store the array name in place of the dimensions,
+				// and their dimensions are only known once the content is read
+				byte[] nn = new byte[dims.length];
+				for (int i = 0; i < dims.length; i++) {
+					nn[i] = (byte) dims[i];
+				}
+				name = new String(nn, MatDataTypes.CHARSET);
+				dims = new int[0];
+			}
+			if (name.length() == 0) {
+				name = MLArray.DEFAULT_NAME;
+			}
+			return new MatVariableInfo(name, flags.length != 0 ? flags[0] : 0, dims, offset, size, 8L + (tag.size & 0xffffffffL), compressed);
+		} catch (BufferUnderflowException e) {
+			// the header is longer than what we have read so far
+			return null;
+		} catch (IllegalArgumentException e) {
+			// padding was skipped past the end of what we have read so far
+			return null;
+		}
+	}
+
+	/**
+	 * Reads up to <code>len</code> bytes, stopping early only at the end of the stream.
+	 *
+	 * @return the number of bytes read
+	 */
+	static int readFully(InputStream stream, byte[] bytes, int off, int len) throws IOException {
+		int total = 0;
+		while (total < len) {
+			int n = stream.read(bytes, off + total, len - total);
+			if (n < 0) {
+				break;
+			}
+			total += n;
+		}
+		return total;
+	}
+
+	/** Reads a child element of a cell or structure, which is empty if its tag has no data. */
+	private MLArray readChild(ByteBuffer buf) throws IOException {
+		ISMatTag tag = new ISMatTag(buf);
+		return tag.size > 0 ? readMatrix(buf, false) : new MLEmptyArray();
+	}
+
+	/**
+	 * Reads the next <code>count</code> children of a cell or structure
+	 * concurrently, if there is an {@link #executor} and they span at least
+	 * {@link #PARALLEL_CHILDREN_SIZE} bytes; otherwise returns null without
+	 * reading anything.
+	 * <p>
+	 * The children are located by a pass over their tags, then split into
+	 * ranges of similar size.  Each range is parsed by a reader of its own
+	 * through a duplicate of <code>buf</code>, and its MCOS references are
+	 * merged once it is done.  The calling thread runs the ranges which no
+	 * pool thread has started yet, so nested cells cannot starve a bounded
+	 * executor.
+	 */
+	private MLArray[] readChildren(final ByteBuffer buf, int count) throws IOException {
+		if (executor == null || count < 2 || buf.remaining() < PARALLEL_CHILDREN_SIZE) {
+			return null;
+		}
+		final int[] starts = new int[count + 1];
+		int position = buf.position();
+		for (int i = 0; i < count; i++) {
+			if (buf.limit() - position < 8 || buf.getInt(position) != MatDataTypes.miMATRIX) {
+				return null;
+			}
+			int size = buf.getInt(position + 4);
+			if (size < 0 || size > buf.limit() - position - 8) {
+				return null;
+			}
+			starts[i] = position;
+			position += 8 + size;
+		}
+		starts[count] = position;
+		int total = position - starts[0];
+		if (total < PARALLEL_CHILDREN_SIZE) {
+			return null;
+		}
+
+		final MLArray[] children = new MLArray[count];
+		int taskSize = Math.max(PARALLEL_CHILDREN_SIZE / 4, total / (4 * Runtime.getRuntime().availableProcessors()));
+		List<FutureTask<MatFileReader>> tasks = new ArrayList<FutureTask<MatFileReader>>();
+		try {
+			for (int start = 0; start < count;) {
+				int end = start + 1;
+				while (end < count && starts[end] - starts[start] < taskSize) {
+					end++;
+				}
+				final int from = start;
+				final int to = end;
+				FutureTask<MatFileReader> task = new FutureTask<MatFileReader>(new Callable<MatFileReader>() {
+					@Override
+					public MatFileReader call() throws IOException {
+						MatFileReader reader = new MatFileReader(matType, context);
+						reader.matFileHeader = matFileHeader;
+						reader.filter = filter;
+						reader.zeroCopy = zeroCopy;
+						reader.cellStrings = cellStrings;
+						reader.executor = executor;
+						ByteBuffer duplicate = buf.duplicate();
+						duplicate.order(buf.order());
+						for (int i = from; i < to; i++) {
+							duplicate.position(starts[i]);
+							children[i] = reader.readChild(duplicate);
+						}
+						return reader;
+					}
+				});
+				tasks.add(task);
+				executor.execute(task);
+				start = end;
+			}
+			for (FutureTask<MatFileReader> task : tasks) {
+				// does nothing if a pool thread has started it already
+				task.run();
+				MatFileReader reader = getResult(task);
+				mcosToFind.addAll(reader.mcosToFind);
+				if (reader.mcosData != null) {
+					mcosData = reader.mcosData;
+				}
+			}
+		} finally {
+			for (FutureTask<MatFileReader> task : tasks) {
+				task.cancel(true);
+			}
+		}
+		buf.position(starts[count]);
+		return children;
+	}
+
+	/**
+	 * Moves the current structure pointer of a structure or object array
+	 * whose columns were filled directly onto its last element, where
+	 * setting every field with {@link MLStructureObjectBase#setField(String, MLArray, int)}
+	 * would have left it.
+	 */
+	private static void leaveOnLastElement(MLStructureObjectBase array, String[] fieldNames, MLArray[][] fieldValues) {
+		int last = array.getM() * array.getN() - 1;
+		if (fieldNames.length > 0 && last >= 0) {
+			array.setField(fieldNames[fieldNames.length - 1], fieldValues[fieldNames.length - 1][last], last);
+		}
+	}
+
+	/**
+	 * Reads the cells of a cell array.  With {@link #cellStrings}, as long as
+	 * every cell is a string (see {@link #isCellString(MLArray)}) only its
+	 * characters are kept, in a pool which becomes an {@link MLCellStr}; the
+	 * first other cell turns it into a plain {@link MLCell}.  Otherwise the
+	 * cells go straight into an {@link MLCell}.
+	 */
+	private MLCell readCell(ByteBuffer buf, String name, int[] dims, int attributes) throws IOException {
+		int count = 1;
+		for (int dim : dims) {
+			count *= dim;
+		}
+		MLCell cell = cellStrings ? null : new MLCell(name, dims, MLArray.mxCELL_CLASS, attributes);
+		char[] pool = null;
+		int[] offsets = null;
+		MLArray[] children = readChildren(buf, count);
+		for (int i = 0; i < count; i++) {
+			//read matrix recursively
+			MLArray cellmatrix;
+			if (children != null) {
+				cellmatrix = children[i];
+				children[i] = null;
+			} else {
+				cellmatrix = readChild(buf);
+			}
+			if (cell == null && isCellString(cellmatrix)) {
+				if (pool == null) {
+					pool = new char[64];
+					offsets = new int[count + 1];
+				}
+				int length = cellmatrix.getSize();
+				if (offsets[i] + length > pool.length) {
+					pool = Arrays.copyOf(pool, Math.max(offsets[i] + length, pool.length + (pool.length >> 1)));
+				}
+				System.arraycopy(((MLChar) cellmatrix).getCharArray(), 0, pool, offsets[i], length);
+				offsets[i + 1] = offsets[i] + length;
+				continue;
+			}
+			if (cell == null) {
+				cell = new MLCell(name, dims, MLArray.mxCELL_CLASS, attributes);
+				if (i > 0) {
+					MLCellStr strings = new MLCellStr(name, dims, attributes, pool, offsets);
+					for (int j = 0; j < i; j++) {
+						cell.set(strings.get(j), j);
+					}
+				}
+			}
+			cell.set(cellmatrix, i);
+		}
+		if (cell != null) {
+			return cell;
+		}
+		if (count == 0) {
+			return new MLCell(name, dims, MLArray.mxCELL_CLASS, attributes);
+		}
+		return new MLCellStr(name, dims, attributes, Arrays.copyOf(pool, offsets[count]), offsets);
+	}
+
+	/**
+	 * Tells whether a cell holds an unnamed 1 x N char row or 0 x 0 char
+	 * array, which {@link MLCellStr} gives back with the same dimensions.
+	 */
+	private static boolean isCellString(MLArray array) {
+		return array instanceof MLChar && array.getNDimensions() == 2
+				&& (array.getM() == 1 && array.getN() > 0 || array.getM() == 0 && array.getN() == 0)
+				&& MLArray.DEFAULT_NAME.equals(array.getName()) && (array.getFlags() & ~MLArray.mtFLAG_TYPE) == 0;
+	}
+
+	/**
+	 * Reads the real or imaginary part of a numeric array.  With
+	 * {@link #zeroCopy}, a part which is stored with the type of the array
+	 * is not copied: the array is backed by a slice of the buffer instead.
+	 */
+	private void readPart(ISMatTag tag, MLNumericArray<?> array, boolean imaginary) throws IOException {
+		if (zeroCopy && tag.isStoredAs(array) && tag.size == array.getSize() * array.getBytesAllocated()) {
+			ByteBuffer slice = tag.readToSlice();
+			if (imaginary) {
+				array.setImaginaryByteBuffer(slice);
+			} else {
+				array.setRealByteBuffer(slice);
+			}
+		} else {
+			tag.readToByteBuffer(imaginary ? array.getImaginaryByteBuffer() : array.getRealByteBuffer(), array);
+		}
+	}
+
 	/**
 	 * Reads MAT-file header.
 	 * 
@@ -1325,6 +1963,16 @@ public class MatFileReader {
 			mfis = new MatFileInputStream(buf, type);
 		}
 
+		public boolean isStoredAs(ByteStorageSupport<?> storage) {
+			return mfis.isStoredAs(storage);
+		}
+
+		public ByteBuffer readToSlice() throws IOException {
+			ByteBuffer slice = mfis.readToSlice(size);
+			mfis.skip(padding);
+			return slice;
+		}
+
 		public void readToByteBuffer(ByteBuffer buff, ByteStorageSupport<?> storage) throws IOException {
 			int elements = size / sizeOf();
 			mfis.readToByteBuffer(buff, elements, storage);
@@ -1350,10 +1998,7 @@ public class MatFileReader {
 			//allocate memory for array elements
 			int elements = size / sizeOf();
 			double[] ad = new double[elements];
-
-			for (int i = 0; i < elements; i++) {
-				ad[i] = mfis.readDouble();
-			}
+			mfis.readDoubles(ad);
 
 			//skip padding
 
@@ -1365,10 +2010,7 @@ public class MatFileReader {
 			//allocate memory for array elements
 			int elements = size / sizeOf();
 			int[] ai = new int[elements];
-
-			for (int i = 0; i < elements; i++) {
-				ai[i] = mfis.readInt();
-			}
+			mfis.readInts(ai);
 
 			//skip padding
 			mfis.skip(padding);
@@ -1388,6 +2030,39 @@ public class MatFileReader {
 			}
 		}
 
+		/**
+		 * Decodes character data straight into <code>dest</code>, ignoring
+		 * characters beyond its length.  <code>miUINT16</code> data, which
+		 * MATLAB writes for uncompressed char arrays, holds UTF-16 code units
+		 * and is copied as such.
+		 */
+		public void readToChars(char[] dest, ByteOrder byteOrder) throws IOException {
+			switch (type) {
+			case MatDataTypes.miUINT16:
+			case MatDataTypes.miINT16: {
+				CharBuffer units = readToSlice().order(byteOrder).asCharBuffer();
+				units.get(dest, 0, Math.min(dest.length, units.remaining()));
+				break;
+			}
+			case MatDataTypes.miINT8:
+			case MatDataTypes.miUINT8:
+			case MatDataTypes.miUTF8:
+			case MatDataTypes.miUTF16:
+			case MatDataTypes.miUTF32: {
+				CharsetDecoder decoder = Charset.forName(charset(byteOrder)).newDecoder()
+						.onMalformedInput(CodingErrorAction.REPLACE)
+						.onUnmappableCharacter(CodingErrorAction.REPLACE);
+				CharBuffer out = CharBuffer.wrap(dest);
+				decoder.decode(readToSlice(), out, true);
+				decoder.flush(out);
+				break;
+			}
+			default:
+				String str = readToString(byteOrder);
+				str.getChars(0, Math.min(dest.length, str.length()), dest, 0);
+			}
+		}
+
 		public String readToString(ByteOrder byteOrder) throws IOException {
 			byte[] bytes = readToByteArray();
 			return new String(bytes, charset(byteOrder));
@@ -5,25 +5,31 @@
  */
 package com.jmatio.io;
 
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.channels.WritableByteChannel;
 import java.util.Collection;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
 import java.util.zip.DataFormatException;
 import java.util.zip.Deflater;
 import java.util.zip.DeflaterOutputStream;
 
 import com.jmatio.common.MatDataTypes;
 import com.jmatio.types.MLArray;
-import com.jmatio.types.MLCell;
-import com.jmatio.types.MLChar;
 import com.jmatio.types.MLNumericArray;
-import com.jmatio.types.MLSparse;
-import com.jmatio.types.MLStructure;
 
 /**
  * MAT-file writer.
@@ -85,11 +91,63 @@ public class MatFileWriter {
 	}
 	//    private static final Logger logger = Logger.getLogger(MatFileWriter.class);
 
+	/**
+	 * Default bound on the size of the matrices compressed or waiting to be
+	 * written by {@link #write(File, Collection, ExecutorService)}.
+	 */
+	public static final long DEFAULT_MAX_BYTES_IN_FLIGHT = 256L << 20;
+
+	/**
+	 * Size from which a variable written with an executor is itself deflated
+	 * in parallel blocks, see {@link ParallelDeflaterOutputStream}.
+	 */
+	static final long PARALLEL_DEFLATE_SIZE = 4L * ParallelDeflaterOutputStream.BLOCK_SIZE;
+
+	/** Numeric arrays with less data than this are deflated without sampling. */
+	private static final int MIN_SAMPLED_SIZE = 1 << 16;
+	/** Size and number of the chunks sampled by adaptive options. */
+	private static final int SAMPLE_CHUNK_SIZE = 1 << 13;
+	private static final int SAMPLE_CHUNKS = 4;
+
+	/**
+	 * Source of the deflaters and buffers of compressed elements
+	 */
+	private final CompressionContext context;
+
+	/**
+	 * Whether and how the variables are compressed
+	 */
+	private final CompressionOptions options;
+
 	/**
 	 * Creates the new <code>{@link MatFileWriter}</code> instance
 	 */
 	public MatFileWriter() {
-		super();
+		this(CompressionContext.NONE);
+	}
+
+	/**
+	 * Creates the new <code>{@link MatFileWriter}</code> instance which takes
+	 * its deflaters and buffers from the given context, so that they are
+	 * reused across elements and files.
+	 *
+	 * @param context - the context to take the deflaters and buffers from
+	 */
+	public MatFileWriter(CompressionContext context) {
+		this(context, CompressionOptions.DEFAULT);
+	}
+
+	/**
+	 * Creates the new <code>{@link MatFileWriter}</code> instance which takes
+	 * its deflaters and buffers from the given context, and compresses the
+	 * variables as given by <code>options</code>.
+	 *
+	 * @param context - the context to take the deflaters and buffers from
+	 * @param options - the deflate level and strategy, or no compression
+	 */
+	public MatFileWriter(CompressionContext context, CompressionOptions options) {
+		this.context = context;
+		this.options = options;
 	}
 
 	/**
@@ -112,9 +170,9 @@ public class MatFileWriter {
 	 * @throws IOException
 	 * @throws DataFormatException
 	 */
-	@SuppressWarnings("resource")
 	public MatFileWriter(File file, Collection<MLArray> data) throws IOException {
-		this((new FileOutputStream(file)).getChannel(), data);
+		this();
+		write(file, data);
 	}
 
 	/**
@@ -127,6 +185,7 @@ public class MatFileWriter {
 	 * @throws IOException
 	 */
 	public MatFileWriter(WritableByteChannel channel, Collection<MLArray> data) throws IOException {
+		this();
 		write(channel, data);
 	}
 
@@ -161,7 +220,7 @@ public class MatFileWriter {
 		FileOutputStream fos = new FileOutputStream(file);
 
 		try {
-			write(fos.getChannel(), data);
+			write(fos.getChannel(), data, null, DEFAULT_MAX_BYTES_IN_FLIGHT, true);
 		} catch (IOException e) {
 			throw e;
 		} finally {
@@ -169,6 +228,62 @@ public class MatFileWriter {
 		}
 	}
 
+	/**
+	 * Writes <code>MLArrays</code> into <code>File</code>, compressing the
+	 * variables concurrently, with at most
+	 * {@link #DEFAULT_MAX_BYTES_IN_FLIGHT} bytes of matrices in flight.
+	 *
+	 * @see #write(File, Collection, ExecutorService, long)
+	 */
+	public synchronized void write(File file, Collection<MLArray> data, ExecutorService executor)
+			throws IOException {
+		write(file, data, executor, DEFAULT_MAX_BYTES_IN_FLIGHT);
+	}
+
+	/**
+	 * Writes <code>MLArrays</code> into <code>File</code>, compressing the
+	 * variables concurrently.
+	 * <p>
+	 * Every variable is deflated into a buffer by a task run on
+	 * <code>executor</code>, and the buffers are written in the original
+	 * order.  A new task is only started while the matrices being compressed
+	 * or waiting to be written take at most <code>maxBytesInFlight</code>
+	 * bytes before compression.  The calling thread runs the tasks which
+	 * haven't been started when it needs their result.  The executor is not
+	 * shut down.
+	 * <p>
+	 * A variable of 4 MB or more is instead cut into blocks which are
+	 * deflated concurrently, and still written as a single standard
+	 * <code>miCOMPRESSED</code> element; its compressed bytes differ slightly
+	 * from a sequential write.  This needs Java 7 or later; older JVMs
+	 * compress such a variable in one task.
+	 * <p>
+	 * With {@link CompressionOptions#UNCOMPRESSED} there is nothing to
+	 * compress, and the variables are written on the calling thread, as are
+	 * the variables which adaptive options store uncompressed.
+	 *
+	 * @param file
+	 *            the MAT-file to which data is written
+	 * @param data
+	 *            the collection of <code>{@link MLArray}</code> objects
+	 * @param executor
+	 *            runs the compression tasks, or null to compress on the calling thread
+	 * @param maxBytesInFlight
+	 *            the maximum size of the matrices compressed or buffered at a time
+	 * @throws IOException
+	 *             if error occurred during MAT-file writing
+	 */
+	public synchronized void write(File file, Collection<MLArray> data, ExecutorService executor, long maxBytesInFlight)
+			throws IOException {
+		FileOutputStream fos = new FileOutputStream(file);
+
+		try {
+			write(fos.getChannel(), data, executor, maxBytesInFlight, true);
+		} finally {
+			fos.close();
+		}
+	}
+
 	/**
 	 * Writes <code>MLArrays</code> into <code>WritableByteChannel</code>.
 	 *
@@ -181,38 +296,295 @@ public class MatFileWriter {
 	 */
 	private synchronized void write(WritableByteChannel channel,
 			Collection<MLArray> data) throws IOException {
+		write(channel, data, null, DEFAULT_MAX_BYTES_IN_FLIGHT, false);
+	}
+
+	/**
+	 * @param inPlace whether <code>channel</code> is a <code>FileChannel</code>
+	 *            opened by this writer, so that the tags of the compressed
+	 *            variables can be filled in after their data; the position of
+	 *            a channel given by the caller, e.g. in append mode, can't be
+	 *            relied on
+	 */
+	private synchronized void write(WritableByteChannel channel,
+			Collection<MLArray> data, ExecutorService executor, long maxBytesInFlight, boolean inPlace) throws IOException {
 		try {
 			//write header
 			writeHeader(channel);
 
 			//write data
+			if (executor == null || !options.isCompressed()) {
+				for (MLArray matrix : data) {
+					writeMatrix(channel, new MatrixSerializer(matrix), context, options, inPlace);
+				}
+			} else {
+				writeConcurrently(channel, data, executor, maxBytesInFlight, inPlace);
+			}
+		} catch (IOException e) {
+			throw e;
+		} finally {
+			channel.close();
+		}
+	}
+
+	/** Compresses the variables on the executor and writes them in order. */
+	private void writeConcurrently(WritableByteChannel channel, Collection<MLArray> data,
+			ExecutorService executor, long maxBytesInFlight, boolean inPlace) throws IOException {
+		LinkedList<CompressionTask> pending = new LinkedList<CompressionTask>();
+		long inFlight = 0;
+		try {
 			for (MLArray matrix : data) {
-				//compress data to save storage
-				Deflater compresser = new Deflater();
+				MatrixSerializer serializer = new MatrixSerializer(matrix);
+				if (!shouldCompress(serializer, context, options)) {
+					while (!pending.isEmpty()) {
+						writeNext(channel, pending);
+					}
+					inFlight = 0;
+					serializer.writeTo(channel);
+					continue;
+				}
+				if (serializer.getSize() >= PARALLEL_DEFLATE_SIZE && ParallelDeflaterOutputStream.isSupported()) {
+					while (!pending.isEmpty()) {
+						writeNext(channel, pending);
+					}
+					inFlight = 0;
+					writeCompressed(channel, serializer, context, options, executor, maxBytesInFlight, inPlace);
+					continue;
+				}
+				while (!pending.isEmpty() && inFlight + serializer.getSize() > maxBytesInFlight) {
+					inFlight -= writeNext(channel, pending);
+				}
+				CompressionTask task = new CompressionTask(serializer, context, options);
+				pending.add(task);
+				inFlight += task.size;
+				executor.execute(task);
+			}
+			while (!pending.isEmpty()) {
+				writeNext(channel, pending);
+			}
+		} finally {
+			for (CompressionTask task : pending) {
+				task.cancel(false);
+			}
+		}
+	}
 
-				ByteArrayOutputStream2 compressed = new ByteArrayOutputStream2();
-				DataOutputStream dout = new DataOutputStream(new DeflaterOutputStream(compressed, compresser));
+	/** Waits for the first pending variable, helping with it if it hasn't started, and writes it. */
+	private long writeNext(WritableByteChannel channel, LinkedList<CompressionTask> pending) throws IOException {
+		CompressionTask task = pending.removeFirst();
+		task.run();
+		ByteArrayOutputStream2 compressed;
+		try {
+			compressed = task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for a variable to be compressed");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new MatlabIOException("Could not compress variable: " + cause);
+		}
+		try {
+			writeCompressed(channel, compressed);
+		} finally {
+			context.release(compressed);
+		}
+		return task.size;
+	}
 
-				writeMatrix(dout, matrix);
-				dout.flush();
-				dout.close();
+	/** Deflates a matrix into a scratch buffer of the context. */
+	private static final class CompressionTask extends FutureTask<ByteArrayOutputStream2> {
+		/** Size of the matrix before compression. */
+		final long size;
 
-				//write COMPRESSED tag and compressed data into output channel
+		CompressionTask(final MatrixSerializer matrix, final CompressionContext context, final CompressionOptions options) {
+			super(new Callable<ByteArrayOutputStream2>() {
+				@Override
+				public ByteArrayOutputStream2 call() throws IOException {
+					return compress(matrix, context, options);
+				}
+			});
+			this.size = matrix.getSize();
+		}
+	}
 
-				int compressedSize = compressed.getCount();
-				ByteBuffer buf = ByteBuffer.allocateDirect(2 * 4 /* Int size */ + compressedSize);
-				buf.putInt(MatDataTypes.miCOMPRESSED);
+	/**
+	 * Writes the matrix as an <code>miCOMPRESSED</code> element, or as an
+	 * <code>miMATRIX</code> element if the options don't compress it.
+	 *
+	 * @param inPlace whether <code>channel</code> is a <code>FileChannel</code> opened by the writer, see {@link #writeCompressed}
+	 */
+	static void writeMatrix(WritableByteChannel channel, MatrixSerializer matrix, CompressionContext context, CompressionOptions options, boolean inPlace) throws IOException {
+		if (shouldCompress(matrix, context, options)) {
+			writeCompressed(channel, matrix, context, options, null, 0, inPlace);
+		} else {
+			matrix.writeTo(channel);
+		}
+	}
 
-				buf.putInt(compressedSize);
-				buf.put(compressed.getBuf(), 0, compressedSize);
+	/**
+	 * Returns true if the matrix is to be deflated.  Adaptive options sample
+	 * a large numeric array and tell their listener what they decided.
+	 */
+	private static boolean shouldCompress(MatrixSerializer matrix, CompressionContext context, CompressionOptions options) {
+		if (!options.isAdaptive()) {
+			return options.isCompressed();
+		}
+		double ratio = sampleRatio(matrix.getArray(), context, options);
+		// a variable which wasn't sampled is deflated
+		boolean compress = !(ratio > options.getMaxRatio());
+		CompressionOptions.Listener listener = options.getListener();
+		if (listener != null) {
+			listener.decided(matrix.getArray().getName(), matrix.getSize(), ratio, compress);
+		}
+		return compress;
+	}
 
-				buf.flip();
-				channel.write(buf);
+	/**
+	 * Deflates chunks spread evenly over the real data of a numeric array,
+	 * and returns the ratio of their compressed to their original size, or
+	 * <code>NaN</code> for other or small arrays.
+	 */
+	private static double sampleRatio(MLArray array, CompressionContext context, CompressionOptions options) {
+		if (!(array instanceof MLNumericArray) || array.isSparse()) {
+			return Double.NaN;
+		}
+		ByteBuffer data = ((MLNumericArray<?>) array).getRealByteBuffer();
+		int size = data.limit();
+		if (size < MIN_SAMPLED_SIZE) {
+			return Double.NaN;
+		}
+		byte[] sample = new byte[SAMPLE_CHUNK_SIZE * SAMPLE_CHUNKS];
+		for (int i = 0; i < SAMPLE_CHUNKS; i++) {
+			ByteBuffer chunk = data.duplicate();
+			// whole elements, the last chunk ending at the end of the data
+			chunk.position((int) ((long) (size - SAMPLE_CHUNK_SIZE) * i / (SAMPLE_CHUNKS - 1)) & ~7);
+			chunk.get(sample, i * SAMPLE_CHUNK_SIZE, SAMPLE_CHUNK_SIZE);
+		}
+		Deflater deflater = context.deflater(options.getLevel(), options.getStrategy());
+		try {
+			deflater.setInput(sample);
+			deflater.finish();
+			byte[] buffer = new byte[SAMPLE_CHUNK_SIZE];
+			while (!deflater.finished()) {
+				deflater.deflate(buffer);
+			}
+			return (double) deflater.getBytesWritten() / sample.length;
+		} finally {
+			context.release(deflater);
+		}
+	}
+
+	/**
+	 * Writes the matrix as an <code>miCOMPRESSED</code> element, deflating
+	 * it in parallel blocks on <code>executor</code> unless it is null.
+	 * <p>
+	 * The matrix is serialized in one pass into the deflater.  A file channel
+	 * opened by the writer receives the compressed data straight away, after
+	 * a placeholder tag which is filled in once the compressed size is known.
+	 * Other channels, including file channels given by the caller, which may
+	 * be in append mode, get it from a scratch buffer of the context.
+	 */
+	private static void writeCompressed(WritableByteChannel channel, MatrixSerializer matrix, CompressionContext context,
+			CompressionOptions options, ExecutorService executor, long maxBytesInFlight, boolean inPlace) throws IOException {
+		if (!inPlace || !(channel instanceof FileChannel)) {
+			ByteArrayOutputStream2 compressed = compress(matrix, context, options, executor, maxBytesInFlight);
+			try {
+				writeCompressed(channel, compressed);
+			} finally {
+				context.release(compressed);
 			}
+			return;
+		}
+		FileChannel file = (FileChannel) channel;
+		long start = file.position();
+		file.position(start + 8);
+		OutputStream out = new BufferedOutputStream(Channels.newOutputStream(file), 1 << 16);
+		deflate(matrix, out, context, options, executor, maxBytesInFlight);
+		// not closed, which would close the channel
+		out.flush();
+
+		long compressedSize = file.position() - start - 8;
+		if (compressedSize > 0xffffffffL) {
+			throw new MatlabIOException("Compressed matrix takes " + compressedSize + " bytes, more than a MAT-file element can hold");
+		}
+		ByteBuffer tag = ByteBuffer.allocate(8);
+		tag.putInt(MatDataTypes.miCOMPRESSED);
+		tag.putInt((int) compressedSize);
+		tag.flip();
+		while (tag.hasRemaining()) {
+			file.write(tag, start + tag.position());
+		}
+	}
+
+	/** Deflates the matrix into a scratch buffer of the context, to be released by the caller. */
+	static ByteArrayOutputStream2 compress(MatrixSerializer matrix, CompressionContext context, CompressionOptions options) throws IOException {
+		return compress(matrix, context, options, null, 0);
+	}
+
+	private static ByteArrayOutputStream2 compress(MatrixSerializer matrix, CompressionContext context,
+			CompressionOptions options, ExecutorService executor, long maxBytesInFlight) throws IOException {
+		ByteArrayOutputStream2 compressed = context.buffer();
+		try {
+			deflate(matrix, compressed, context, options, executor, maxBytesInFlight);
+			return compressed;
 		} catch (IOException e) {
+			context.release(compressed);
+			throw e;
+		} catch (RuntimeException e) {
+			context.release(compressed);
 			throw e;
+		}
+	}
+
+	/**
+	 * Writes the matrix as a zlib stream into <code>out</code>, which is not
+	 * closed.  With an executor the matrix is deflated in parallel blocks,
+	 * otherwise with a deflater of the context.
+	 */
+	private static void deflate(MatrixSerializer matrix, OutputStream out, CompressionContext context,
+			CompressionOptions options, ExecutorService executor, long maxBytesInFlight) throws IOException {
+		if (executor != null) {
+			ParallelDeflaterOutputStream deflater = new ParallelDeflaterOutputStream(out, executor,
+					options.getLevel(), options.getStrategy(), maxBytesInFlight);
+			matrix.writeTo(new DataOutputStream(deflater));
+			deflater.finish();
+			return;
+		}
+		Deflater compresser = context.deflater(options.getLevel(), options.getStrategy());
+		try {
+			DeflaterOutputStream deflater = new DeflaterOutputStream(out, compresser, 1 << 16);
+			matrix.writeTo(new DataOutputStream(deflater));
+			deflater.finish();
 		} finally {
-			channel.close();
+			context.release(compresser);
+		}
+	}
+
+	/**
+	 * Writes the <code>miCOMPRESSED</code> tag and the compressed data in
+	 * <code>compressed</code> into the channel, without copying the data.
+	 */
+	static void writeCompressed(WritableByteChannel channel, ByteArrayOutputStream2 compressed) throws IOException {
+		int compressedSize = compressed.getCount();
+		ByteBuffer tag = ByteBuffer.allocate(2 * 4 /* Int size */);
+		tag.putInt(MatDataTypes.miCOMPRESSED);
+		tag.putInt(compressedSize);
+		tag.flip();
+		writeFully(channel, tag);
+		writeFully(channel, ByteBuffer.wrap(compressed.getBuf(), 0, compressedSize));
+	}
+
+	/** Writes all the remaining bytes of <code>buf</code> into the channel. */
+	static void writeFully(WritableByteChannel channel, ByteBuffer buf) throws IOException {
+		while (buf.hasRemaining()) {
+			channel.write(buf);
 		}
 	}
 
@@ -248,279 +620,4 @@ public class MatFileWriter {
 		buf.flip();
 		channel.write(buf);
 	}
-
-	/**
-	 * Writes MATRIX into <code>OutputStream</code>.
-	 *
-	 * @param os - <code>OutputStream</code>
-	 * @param array - a <code>MLArray</code>
-	 * @throws IOException
-	 */
-	private void writeMatrix(DataOutputStream output, MLArray array) throws IOException {
-		OSArrayTag tag;
-		ByteArrayOutputStream buffer;
-		DataOutputStream bufferDOS;
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		DataOutputStream dos = new DataOutputStream(baos);
-
-		//flags
-		writeFlags(dos, array);
-
-		//dimensions
-		writeDimensions(dos, array);
-
-		//array name
-		writeName(dos, array);
-
-		switch (array.getType()) {
-		case MLArray.mxCHAR_CLASS:
-			//write char data
-			buffer = new ByteArrayOutputStream();
-			bufferDOS = new DataOutputStream(buffer);
-			Character[] ac = ((MLChar) array).exportChar();
-			for (int i = 0; i < ac.length; i++) {
-				String temp = new StringBuffer().append(ac[i].charValue()).toString();
-				bufferDOS.write(temp.getBytes("UTF-8"));
-			}
-			tag = new OSArrayTag(MatDataTypes.miUTF8, buffer.toByteArray());
-			tag.writeTo(dos);
-
-			break;
-		case MLArray.mxDOUBLE_CLASS:
-
-			tag = new OSArrayTag(MatDataTypes.miDOUBLE,
-					((MLNumericArray<?>) array).getRealByteBuffer());
-			tag.writeTo(dos);
-
-			//write real imaginary
-			if (array.isComplex()) {
-				tag = new OSArrayTag(MatDataTypes.miDOUBLE,
-						((MLNumericArray<?>) array).getImaginaryByteBuffer());
-				tag.writeTo(dos);
-			}
-			break;
-		case MLArray.mxSINGLE_CLASS:
-
-			tag = new OSArrayTag(MatDataTypes.miSINGLE,
-					((MLNumericArray<?>) array).getRealByteBuffer());
-			tag.writeTo(dos);
-
-			//write real imaginary
-			if (array.isComplex()) {
-				tag = new OSArrayTag(MatDataTypes.miSINGLE,
-						((MLNumericArray<?>) array).getImaginaryByteBuffer());
-				tag.writeTo(dos);
-			}
-			break;
-		case MLArray.mxUINT8_CLASS:
-
-			tag = new OSArrayTag(MatDataTypes.miUINT8,
-					((MLNumericArray<?>) array).getRealByteBuffer());
-			tag.writeTo(dos);
-
-			//write real imaginary
-			if (array.isComplex()) {
-				tag = new OSArrayTag(MatDataTypes.miUINT8,
-						((MLNumericArray<?>) array).getImaginaryByteBuffer());
-				tag.writeTo(dos);
-			}
-			break;
-		case MLArray.mxINT8_CLASS:
-
-			tag = new OSArrayTag(MatDataTypes.miINT8,
-					((MLNumericArray<?>) array).getRealByteBuffer());
-			tag.writeTo(dos);
-
-			//write real imaginary
-			if (array.isComplex()) {
-				tag = new OSArrayTag(MatDataTypes.miINT8,
-						((MLNumericArray<?>) array).getImaginaryByteBuffer());
-				tag.writeTo(dos);
-			}
-			break;
-		case MLArray.mxINT16_CLASS:
-
-			tag = new OSArrayTag(MatDataTypes.miINT16,
-					((MLNumericArray<?>) array).getRealByteBuffer());
-			tag.writeTo(dos);
-
-			//write real imaginary
-			if (array.isComplex()) {
-				tag = new OSArrayTag(MatDataTypes.miINT16,
-						((MLNumericArray<?>) array).getImaginaryByteBuffer());
-				tag.writeTo(dos);
-			}
-			break;
-		case MLArray.mxINT32_CLASS:
-			tag = new OSArrayTag(MatDataTypes.miINT32,
-					((MLNumericArray<?>) array).getRealByteBuffer());
-			tag.writeTo(dos);
-
-			if (array.isComplex()) {
-				tag = new OSArrayTag(MatDataTypes.miINT32,
-						((MLNumericArray<?>) array).getImaginaryByteBuffer());
-				tag.writeTo(dos);
-			}
-			break;
-		case MLArray.mxINT64_CLASS:
-
-			tag = new OSArrayTag(MatDataTypes.miINT64,
-					((MLNumericArray<?>) array).getRealByteBuffer());
-			tag.writeTo(dos);
-
-			//write real imaginary
-			if (array.isComplex()) {
-				tag = new OSArrayTag(MatDataTypes.miINT64,
-						((MLNumericArray<?>) array).getImaginaryByteBuffer());
-				tag.writeTo(dos);
-			}
-			break;
-		case MLArray.mxUINT64_CLASS:
-
-			tag = new OSArrayTag(MatDataTypes.miUINT64,
-					((MLNumericArray<?>) array).getRealByteBuffer());
-			tag.writeTo(dos);
-
-			//write real imaginary
-			if (array.isComplex()) {
-				tag = new OSArrayTag(MatDataTypes.miUINT64,
-						((MLNumericArray<?>) array).getImaginaryByteBuffer());
-				tag.writeTo(dos);
-			}
-			break;
-		case MLArray.mxSTRUCT_CLASS:
-			//field name length
-			int itag = 4 << 16 | MatDataTypes.miINT32 & 0xffff;
-			dos.writeInt(itag);
-			dos.writeInt(((MLStructure) array).getMaxFieldLenth());
-
-			//get field names
-			tag = new OSArrayTag(MatDataTypes.miINT8, ((MLStructure) array).getKeySetToByteArray());
-			tag.writeTo(dos);
-
-			for (MLArray a : ((MLStructure) array).getAllFields()) {
-				writeMatrix(dos, a);
-			}
-			break;
-		case MLArray.mxCELL_CLASS:
-			for (MLArray a : ((MLCell) array).cells()) {
-				writeMatrix(dos, a);
-			}
-			break;
-		case MLArray.mxSPARSE_CLASS:
-			int[] ai;
-			//write ir
-
-			buffer = new ByteArrayOutputStream();
-			bufferDOS = new DataOutputStream(buffer);
-			ai = ((MLSparse) array).getIR();
-			for (int i : ai) {
-				bufferDOS.writeInt(i);
-			}
-			tag = new OSArrayTag(MatDataTypes.miINT32, buffer.toByteArray());
-			tag.writeTo(dos);
-			//write jc
-			buffer = new ByteArrayOutputStream();
-			bufferDOS = new DataOutputStream(buffer);
-			ai = ((MLSparse) array).getJC();
-			for (int i : ai) {
-				bufferDOS.writeInt(i);
-			}
-			tag = new OSArrayTag(MatDataTypes.miINT32, buffer.toByteArray());
-			tag.writeTo(dos);
-			//write real
-			buffer = new ByteArrayOutputStream();
-			bufferDOS = new DataOutputStream(buffer);
-
-			Double[] ad = ((MLSparse) array).exportReal();
-
-			for (int i = 0; i < ad.length; i++) {
-				bufferDOS.writeDouble(ad[i].doubleValue());
-			}
-
-			tag = new OSArrayTag(MatDataTypes.miDOUBLE, buffer.toByteArray());
-			tag.writeTo(dos);
-			//write real imaginary
-			if (array.isComplex()) {
-				buffer = new ByteArrayOutputStream();
-				bufferDOS = new DataOutputStream(buffer);
-				ad = ((MLSparse) array).exportImaginary();
-				for (int i = 0; i < ad.length; i++) {
-					bufferDOS.writeDouble(ad[i].doubleValue());
-				}
-				tag = new OSArrayTag(MatDataTypes.miDOUBLE, buffer.toByteArray());
-				tag.writeTo(dos);
-			}
-			break;
-		default:
-			throw new MatlabIOException("Cannot write matrix of type: " + MLArray.typeToString(array.getType()));
-
-		}
-
-		//write matrix
-		output.writeInt(MatDataTypes.miMATRIX); //matrix tag
-		output.writeInt(baos.size()); //size of matrix
-		output.write(baos.toByteArray()); //matrix data
-	}
-
-	/**
-	 * Writes MATRIX flags into <code>OutputStream</code>.
-	 *
-	 * @param os - <code>OutputStream</code>
-	 * @param array - a <code>MLArray</code>
-	 * @throws IOException
-	 */
-	private void writeFlags(DataOutputStream os, MLArray array) throws IOException {
-		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-		DataOutputStream bufferDOS = new DataOutputStream(buffer);
-
-		bufferDOS.writeInt(array.getFlags());
-
-		if (array.isSparse()) {
-			bufferDOS.writeInt(((MLSparse) array).getMaxNZ());
-		} else {
-			bufferDOS.writeInt(0);
-		}
-		OSArrayTag tag = new OSArrayTag(MatDataTypes.miUINT32, buffer.toByteArray());
-		tag.writeTo(os);
-
-	}
-
-	/**
-	 * Writes MATRIX dimensions into <code>OutputStream</code>.
-	 *
-	 * @param os - <code>OutputStream</code>
-	 * @param array - a <code>MLArray</code>
-	 * @throws IOException
-	 */
-	private void writeDimensions(DataOutputStream os, MLArray array) throws IOException {
-		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-		DataOutputStream bufferDOS = new DataOutputStream(buffer);
-
-		int[] dims = array.getDimensions();
-		for (int i = 0; i < dims.length; i++) {
-			bufferDOS.writeInt(dims[i]);
-		}
-		OSArrayTag tag = new OSArrayTag(MatDataTypes.miINT32, buffer.toByteArray());
-		tag.writeTo(os);
-
-	}
-
-	/**
-	 * Writes MATRIX name into <code>OutputStream</code>.
-	 *
-	 * @param os - <code>OutputStream</code>
-	 * @param array - a <code>MLArray</code>
-	 * @throws IOException
-	 */
-	private void writeName(DataOutputStream os, MLArray array) throws IOException {
-		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-		DataOutputStream bufferDOS = new DataOutputStream(buffer);
-
-		byte[] nameByteArray = array.getNameToByteArray();
-		bufferDOS.write(nameByteArray);
-		OSArrayTag tag = new OSArrayTag(MatDataTypes.miINT8, buffer.toByteArray());
-		tag.writeTo(os);
-	}
-
 }
@@ -0,0 +1,109 @@
+/*
+ * Code licensed under new-style BSD (see LICENSE).
+ * All code up to tags/original: Copyright (c) 2006, Wojciech Gradkowski
+ * All code after tags/original: Copyright (c) 2015, DiffPlug
+ */
+package com.jmatio.io;
+
+import java.util.Arrays;
+
+import com.jmatio.types.MLArray;
+
+/**
+ * Describes a top-level variable of a MAT-file without holding its data.
+ * <p>
+ * Only the array flags, dimensions and name sub-elements are read to create
+ * it, so the description is cheap to obtain even for huge compressed
+ * variables.
+ *
+ * @see MatFileLazyReader
+ * @see MatFileLazyReader#scan(java.io.File)
+ */
+public class MatVariableInfo {
+	private final String name;
+	private final int flags;
+	private final int[] dims;
+	private final long offset;
+	private final long size;
+	private final long matrixSize;
+	private final boolean compressed;
+
+	MatVariableInfo(String name, int flags, int[] dims, long offset, long size, long matrixSize, boolean compressed) {
+		this.name = name;
+		this.flags = flags;
+		this.dims = dims;
+		this.offset = offset;
+		this.size = size;
+		this.matrixSize = matrixSize;
+		this.compressed = compressed;
+	}
+
+	/** Returns the variable name, {@link MLArray#DEFAULT_NAME} for unnamed variables. */
+	public String getName() {
+		return name;
+	}
+
+	/** Returns the array class, one of the <code>MLArray.mx*_CLASS</code> constants. */
+	public int getType() {
+		return flags & MLArray.mtFLAG_TYPE;
+	}
+
+	/** Returns the raw array flags (class and attributes). */
+	public int getFlags() {
+		return flags;
+	}
+
+	/** Returns true if the array has an imaginary part. */
+	public boolean isComplex() {
+		return (flags & MLArray.mtFLAG_COMPLEX) == MLArray.mtFLAG_COMPLEX;
+	}
+
+	/** Returns true if the variable was saved as a global variable. */
+	public boolean isGlobal() {
+		return (flags & MLArray.mtFLAG_GLOBAL) == MLArray.mtFLAG_GLOBAL;
+	}
+
+	/** Returns true if the array is logical. */
+	public boolean isLogical() {
+		return (flags & MLArray.mtFLAG_LOGICAL) == MLArray.mtFLAG_LOGICAL;
+	}
+
+	/** Returns true if the array is sparse. */
+	public boolean isSparse() {
+		return getType() == MLArray.mxSPARSE_CLASS;
+	}
+
+	/** Returns the array dimensions, empty for opaque objects whose dimensions are stored in their content. */
+	public int[] getDimensions() {
+		return Arrays.copyOf(dims, dims.length);
+	}
+
+	/** Returns the position of the element's tag in the file. */
+	public long getOffset() {
+		return offset;
+	}
+
+	/** Returns the size of the element's data in the file, excluding its 8-byte tag. */
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * Returns the size of the <code>miMATRIX</code> element, including its
+	 * tag, once inflated.  For uncompressed variables this is the size of the
+	 * element in the file.
+	 */
+	public long getUncompressedSize() {
+		return matrixSize;
+	}
+
+	/** Returns true if the variable is stored as a <code>miCOMPRESSED</code> element. */
+	public boolean isCompressed() {
+		return compressed;
+	}
+
+	@Override
+	public String toString() {
+		return "[" + name + " " + MLArray.typeToString(getType()) + " " + Arrays.toString(dims) + " at " + offset + ", " + (8 + size) + " bytes]";
+	}
+}
@@ -0,0 +1,418 @@
+/*
+ * Code licensed under new-style BSD (see LICENSE).
+ * All code up to tags/original: Copyright (c) 2006, Wojciech Gradkowski
+ * All code after tags/original: Copyright (c) 2015, DiffPlug
+ */
+package com.jmatio.io;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+
+import com.jmatio.common.MatDataTypes;
+import com.jmatio.io.stream.ByteBuffers;
+import com.jmatio.types.MLArray;
+import com.jmatio.types.MLCell;
+import com.jmatio.types.MLCellStr;
+import com.jmatio.types.MLChar;
+import com.jmatio.types.MLNumericArray;
+import com.jmatio.types.MLSparse;
+import com.jmatio.types.MLStructure;
+
+/**
+ * Writes an <code>MLArray</code> as an <code>miMATRIX</code> element in two
+ * passes, shared by {@link MatFileWriter} and {@link MatFileIncrementalWriter}.
+ * <p>
+ * The constructor computes the size of every nested <code>miMATRIX</code>
+ * bottom-up, without encoding any data.  {@link #writeTo(DataOutputStream)}
+ * then streams the tags and data of the whole tree in one pass, so a cell or
+ * structure is never copied through an intermediate buffer, however deeply
+ * it is nested.  {@link #writeTo(WritableByteChannel)} writes the element
+ * uncompressed, with the data of large numeric arrays going from their
+ * buffers to the channel.
+ */
+class MatrixSerializer {
+	/** Size of the chunks char data is encoded in. */
+	private static final int ENCODE_BUFFER_SIZE = 8192;
+	/** Numeric data from this size on bypasses the stream when writing to a channel. */
+	private static final int DIRECT_WRITE_SIZE = 1 << 14;
+	/** Size of the chunks numeric data is swapped to big-endian in. */
+	private static final int SWAP_BUFFER_SIZE = 1 << 16;
+
+	private final MLArray array;
+	/** Sizes of the nested matrices, without their tags, in the order they are written. */
+	private long[] sizes = new long[16];
+	private int count;
+	private int next;
+	/** The channel numeric data is written to directly, or null. */
+	private WritableByteChannel channel;
+	private ByteBuffer swapBuffer;
+
+	/**
+	 * Computes the sizes of the matrices of <code>array</code>.
+	 *
+	 * @throws MatlabIOException if the array can't be written, or a matrix is larger than an element can hold
+	 */
+	MatrixSerializer(MLArray array) throws MatlabIOException {
+		this.array = array;
+		computeSize(array);
+	}
+
+	/** Returns the array which is written. */
+	MLArray getArray() {
+		return array;
+	}
+
+	/** Returns the size of the element, including its tag. */
+	long getSize() {
+		return 8 + sizes[0];
+	}
+
+	/** Writes the element, which can be done once. */
+	void writeTo(DataOutputStream dos) throws IOException {
+		if (next != 0) {
+			throw new IllegalStateException("Matrix " + array.getName() + " was already written");
+		}
+		writeMatrix(dos, array);
+	}
+
+	/**
+	 * Writes the element into the channel, which can be done once.  The data
+	 * of large numeric arrays is written from their buffers rather than
+	 * through a stream: as it is if it is big-endian, otherwise swapped in
+	 * chunks.
+	 */
+	void writeTo(WritableByteChannel channel) throws IOException {
+		DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+		this.channel = channel;
+		try {
+			writeTo(dos);
+			// not closed, which would close the channel
+			dos.flush();
+		} finally {
+			this.channel = null;
+		}
+	}
+
+	/** Returns the size of a data element holding <code>dataSize</code> bytes, including its tag and padding. */
+	static long elementSize(long dataSize) {
+		return dataSize > 0 && dataSize <= 4 ? 8 : 8 + ((dataSize + 7) & ~7L);
+	}
+
+	/** Returns the <code>mi*</code> type numeric data of the given class is written as. */
+	private static int dataType(int arrayType) throws MatlabIOException {
+		switch (arrayType) {
+		case MLArray.mxDOUBLE_CLASS:
+			return MatDataTypes.miDOUBLE;
+		case MLArray.mxSINGLE_CLASS:
+			return MatDataTypes.miSINGLE;
+		case MLArray.mxINT8_CLASS:
+			return MatDataTypes.miINT8;
+		case MLArray.mxUINT8_CLASS:
+			return MatDataTypes.miUINT8;
+		case MLArray.mxINT16_CLASS:
+			return MatDataTypes.miINT16;
+		case MLArray.mxUINT16_CLASS:
+			return MatDataTypes.miUINT16;
+		case MLArray.mxINT32_CLASS:
+			return MatDataTypes.miINT32;
+		case MLArray.mxUINT32_CLASS:
+			return MatDataTypes.miUINT32;
+		case MLArray.mxINT64_CLASS:
+			return MatDataTypes.miINT64;
+		case MLArray.mxUINT64_CLASS:
+			return MatDataTypes.miUINT64;
+		default:
+			throw new MatlabIOException("Cannot write matrix of type: " + MLArray.typeToString(arrayType));
+		}
+	}
+
+	/** Computes the size of the matrix, and of the matrices it contains. */
+	private long computeSize(MLArray array) throws MatlabIOException {
+		if (count == sizes.length) {
+			sizes = Arrays.copyOf(sizes, count * 2);
+		}
+		int slot = count++;
+
+		// flags, dimensions and name
+		long size = 16 + elementSize(4L * array.getDimensions().length) + elementSize(array.getNameToByteArray().length);
+		switch (array.getType()) {
+		case MLArray.mxCHAR_CLASS:
+			char[] chars = ((MLChar) array).getCharArray();
+			size += elementSize(utf8Length(chars, 0, chars.length));
+			break;
+		case MLArray.mxSTRUCT_CLASS:
+			MLStructure struct = (MLStructure) array;
+			size += 8 + elementSize((long) struct.getMaxFieldLenth() * struct.getFieldCount());
+			for (MLArray field : struct.getAllFields()) {
+				size += 8 + computeSize(field);
+			}
+			break;
+		case MLArray.mxCELL_CLASS:
+			if (array instanceof MLCellStr) {
+				MLCellStr cell = (MLCellStr) array;
+				for (int i = 0; i < cell.getSize(); i++) {
+					size += 8 + cellStrSize(utf8Length(cell.getCharPool(), cell.getOffsets()[i], cell.getLength(i)));
+				}
+				break;
+			}
+			for (MLArray a : ((MLCell) array).cells()) {
+				size += 8 + computeSize(a);
+			}
+			break;
+		case MLArray.mxSPARSE_CLASS:
+			MLSparse sparse = (MLSparse) array;
+			size += elementSize(4L * sparse.getIRBuffer().remaining());
+			size += elementSize(4L * sparse.getJCBuffer().remaining());
+			size += elementSize(8L * sparse.getPRBuffer().remaining());
+			if (array.isComplex()) {
+				size += elementSize(8L * sparse.getPIBuffer().remaining());
+			}
+			break;
+		default:
+			dataType(array.getType());
+			if (!(array instanceof MLNumericArray)) {
+				// an MLEmptyArray, written as an empty real part
+				size += elementSize(0);
+				break;
+			}
+			MLNumericArray<?> numeric = (MLNumericArray<?>) array;
+			size += elementSize(numeric.getRealByteBuffer().limit());
+			if (array.isComplex()) {
+				size += elementSize(numeric.getImaginaryByteBuffer().limit());
+			}
+			break;
+		}
+		if (size > Integer.MAX_VALUE) {
+			throw new MatlabIOException("Matrix " + array.getName() + " takes " + size + " bytes, more than a MAT-file element can hold");
+		}
+		sizes[slot] = size;
+		return size;
+	}
+
+	/** Returns the size of a matrix of a <code>MLCellStr</code> entry without its tag, whose string takes <code>encodedSize</code> bytes. */
+	private static long cellStrSize(long encodedSize) {
+		// flags, dimensions, empty name and data
+		return 16 + 16 + 8 + elementSize(encodedSize);
+	}
+
+	/**
+	 * Returns the number of bytes the characters take in UTF-8, with unpaired
+	 * surrogates replaced by <code>'?'</code> as the encoder does.
+	 */
+	static long utf8Length(char[] chars, int offset, int length) {
+		long size = 0;
+		int end = offset + length;
+		for (int i = offset; i < end; i++) {
+			char c = chars[i];
+			if (c < 0x80) {
+				size++;
+			} else if (c < 0x800) {
+				size += 2;
+			} else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(chars[i + 1])) {
+				size += 4;
+				i++;
+			} else if (Character.isHighSurrogate(c) || Character.isLowSurrogate(c)) {
+				size++;
+			} else {
+				size += 3;
+			}
+		}
+		return size;
+	}
+
+	private void writeMatrix(DataOutputStream dos, MLArray array) throws IOException {
+		dos.writeInt(MatDataTypes.miMATRIX);
+		dos.writeInt((int) sizes[next++]);
+
+		//flags
+		dos.writeInt(MatDataTypes.miUINT32);
+		dos.writeInt(8);
+		dos.writeInt(array.getFlags());
+		dos.writeInt(array.isSparse() ? ((MLSparse) array).getMaxNZ() : 0);
+
+		//dimensions
+		int[] dims = array.getDimensions();
+		dos.writeInt(MatDataTypes.miINT32);
+		dos.writeInt(4 * dims.length);
+		for (int dim : dims) {
+			dos.writeInt(dim);
+		}
+		if (dims.length % 2 != 0) {
+			dos.writeInt(0);
+		}
+
+		//array name
+		new OSArrayTag(MatDataTypes.miINT8, array.getNameToByteArray()).writeTo(dos);
+
+		switch (array.getType()) {
+		case MLArray.mxCHAR_CLASS:
+			char[] chars = ((MLChar) array).getCharArray();
+			writeChars(dos, chars, 0, chars.length, newEncoder(), null);
+			break;
+		case MLArray.mxSTRUCT_CLASS:
+			MLStructure struct = (MLStructure) array;
+			//field name length
+			dos.writeInt(4 << 16 | MatDataTypes.miINT32 & 0xffff);
+			dos.writeInt(struct.getMaxFieldLenth());
+			//field names
+			new OSArrayTag(MatDataTypes.miINT8, struct.getKeySetToByteArray()).writeTo(dos);
+			for (MLArray field : struct.getAllFields()) {
+				writeMatrix(dos, field);
+			}
+			break;
+		case MLArray.mxCELL_CLASS:
+			if (array instanceof MLCellStr) {
+				writeCellStr(dos, (MLCellStr) array);
+				break;
+			}
+			for (MLArray a : ((MLCell) array).cells()) {
+				writeMatrix(dos, a);
+			}
+			break;
+		case MLArray.mxSPARSE_CLASS:
+			//write ir, jc, real and imaginary straight from the CSC arrays
+			MLSparse sparse = (MLSparse) array;
+			new OSArrayTag(sparse.getIRBuffer()).writeTo(dos);
+			new OSArrayTag(sparse.getJCBuffer()).writeTo(dos);
+			new OSArrayTag(sparse.getPRBuffer()).writeTo(dos);
+			if (array.isComplex()) {
+				new OSArrayTag(sparse.getPIBuffer()).writeTo(dos);
+			}
+			break;
+		default:
+			int type = dataType(array.getType());
+			if (!(array instanceof MLNumericArray)) {
+				new OSArrayTag(type, new byte[0]).writeTo(dos);
+				break;
+			}
+			MLNumericArray<?> numeric = (MLNumericArray<?>) array;
+			writeNumeric(dos, type, numeric.getRealByteBuffer());
+			if (array.isComplex()) {
+				writeNumeric(dos, type, numeric.getImaginaryByteBuffer());
+			}
+			break;
+		}
+	}
+
+	/** Writes numeric data, straight into the channel if there is one and the data is large. */
+	private void writeNumeric(DataOutputStream dos, int type, ByteBuffer data) throws IOException {
+		int size = data.limit();
+		if (channel == null || size < DIRECT_WRITE_SIZE) {
+			new OSArrayTag(type, data).writeTo(dos);
+			return;
+		}
+		dos.writeInt(type);
+		dos.writeInt(size);
+		dos.flush();
+
+		int width = MatDataTypes.sizeOf(type);
+		ByteOrder order = data.order();
+		ByteBuffer source = data.duplicate();
+		source.order(order);
+		source.rewind();
+		if (width == 1 || order == ByteOrder.BIG_ENDIAN) {
+			MatFileWriter.writeFully(channel, source);
+		} else {
+			if (swapBuffer == null) {
+				swapBuffer = ByteBuffer.allocate(SWAP_BUFFER_SIZE);
+			}
+			while (source.hasRemaining()) {
+				ByteBuffer chunk = source.slice().order(order);
+				chunk.limit(Math.min(chunk.remaining(), SWAP_BUFFER_SIZE));
+				source.position(source.position() + chunk.limit());
+				swapBuffer.clear();
+				ByteBuffers.copy(chunk, swapBuffer, width);
+				swapBuffer.flip();
+				MatFileWriter.writeFully(channel, swapBuffer);
+			}
+		}
+		dos.write(new byte[(int) (elementSize(size) - 8 - size)]);
+	}
+
+	/**
+	 * Writes the cells of a {@link MLCellStr} as unnamed char arrays, encoding
+	 * each string straight from the pool.
+	 */
+	private void writeCellStr(DataOutputStream dos, MLCellStr cell) throws IOException {
+		char[] pool = cell.getCharPool();
+		int[] offsets = cell.getOffsets();
+		CharsetEncoder encoder = newEncoder();
+		ByteBuffer buffer = ByteBuffer.allocate(ENCODE_BUFFER_SIZE);
+		for (int i = 0; i < cell.getSize(); i++) {
+			int length = cell.getLength(i);
+			dos.writeInt(MatDataTypes.miMATRIX);
+			dos.writeInt((int) cellStrSize(utf8Length(pool, offsets[i], length)));
+			dos.writeInt(MatDataTypes.miUINT32);
+			dos.writeInt(8);
+			dos.writeInt(MLArray.mxCHAR_CLASS);
+			dos.writeInt(0);
+			dos.writeInt(MatDataTypes.miINT32);
+			dos.writeInt(8);
+			dos.writeInt(length == 0 ? 0 : 1);
+			dos.writeInt(length);
+			dos.writeInt(MatDataTypes.miINT8);
+			dos.writeInt(0);
+			writeChars(dos, pool, offsets[i], length, encoder, buffer);
+		}
+	}
+
+	private static CharsetEncoder newEncoder() {
+		return Charset.forName("UTF-8").newEncoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	}
+
+	/**
+	 * Writes the characters as an <code>miUTF8</code> element, encoding them
+	 * in chunks.  The size in the tag is computed up front.
+	 */
+	private static void writeChars(DataOutputStream dos, char[] chars, int offset, int length, CharsetEncoder encoder, ByteBuffer buffer) throws IOException {
+		long size = utf8Length(chars, offset, length);
+		if (buffer == null) {
+			buffer = ByteBuffer.allocate((int) Math.min(size + 4, ENCODE_BUFFER_SIZE));
+		}
+		if (size > 0 && size <= 4) {
+			// small data element format
+			dos.writeShort((int) size);
+			dos.writeShort(MatDataTypes.miUTF8);
+		} else {
+			dos.writeInt(MatDataTypes.miUTF8);
+			dos.writeInt((int) size);
+		}
+		encoder.reset();
+		CharBuffer in = CharBuffer.wrap(chars, offset, length);
+		long written = 0;
+		boolean flushed = false;
+		while (!flushed) {
+			buffer.clear();
+			CoderResult result = encoder.encode(in, buffer, true);
+			if (result.isUnderflow()) {
+				flushed = encoder.flush(buffer).isUnderflow();
+			}
+			buffer.flip();
+			dos.write(buffer.array(), 0, buffer.limit());
+			written += buffer.limit();
+		}
+		if (written != size) {
+			throw new IllegalStateException("Encoded " + written + " bytes instead of " + size);
+		}
+		int padding = (int) (elementSize(size) - 8 - size);
+		if (size > 0 && size <= 4) {
+			padding = 4 - (int) size;
+		}
+		for (int i = 0; i < padding; i++) {
+			dos.write(0);
+		}
+	}
+}
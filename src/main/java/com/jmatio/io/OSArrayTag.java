@@ -7,7 +7,14 @@ package com.jmatio.io;
 
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.Buffer;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+
+import com.jmatio.common.MatDataTypes;
+import com.jmatio.io.stream.ByteBuffers;
 
 /**
  * Tiny class that represents MAT-file TAG 
@@ -15,6 +22,8 @@ import java.nio.ByteBuffer;
  */
 class OSArrayTag extends MatTag {
 	private ByteBuffer data;
+	/** Typed values to write instead of <code>data</code>, an <code>IntBuffer</code> or a <code>DoubleBuffer</code>. */
+	private Buffer values;
 
 	/**
 	 * Creates TAG and stets its <code>size</code> as size of byte array
@@ -38,6 +47,26 @@ class OSArrayTag extends MatTag {
 		data.rewind();
 	}
 
+	/**
+	 * Creates an <code>miINT32</code> TAG holding the remaining values of
+	 * <code>values</code>, which are converted to bytes in chunks while
+	 * writing rather than copied up front.
+	 */
+	public OSArrayTag(IntBuffer values) {
+		super(MatDataTypes.miINT32, values.remaining() * 4);
+		this.values = values;
+	}
+
+	/**
+	 * Creates an <code>miDOUBLE</code> TAG holding the remaining values of
+	 * <code>values</code>, which are converted to bytes in chunks while
+	 * writing rather than copied up front.
+	 */
+	public OSArrayTag(DoubleBuffer values) {
+		super(MatDataTypes.miDOUBLE, values.remaining() * 8);
+		this.values = values;
+	}
+
 	/**
 	 * Writes tag and data to <code>DataOutputStream</code>. Wites padding if neccesary.
 	 * 
@@ -51,24 +80,64 @@ class OSArrayTag extends MatTag {
 			// Use small data element format (Page 1-10 in "MATLAB 7 MAT-File Format", September 2010 revision)
 			os.writeShort(size);
 			os.writeShort(type);
-			padding = getPadding(data.limit(), true);
+			padding = getPadding(size, true);
 		} else {
 			os.writeInt(type);
 			os.writeInt(size);
-			padding = getPadding(data.limit(), false);
+			padding = getPadding(size, false);
+		}
+
+		if (values != null) {
+			writeValues(os);
+		} else {
+			writeData(os);
+		}
+
+		if (padding > 0) {
+			os.write(new byte[padding]);
 		}
+	}
 
+	/** Writes <code>data</code>, swapping it to big-endian if needed. */
+	private void writeData(DataOutputStream os) throws IOException {
 		int maxBuffSize = 1024;
 		int writeBuffSize = data.remaining() < maxBuffSize ? data.remaining() : maxBuffSize;
 		byte[] tmp = new byte[writeBuffSize];
+		// MAT-files are written big-endian, numeric arrays are stored in native order
+		boolean swap = sizeOf() > 1 && data.order() != ByteOrder.BIG_ENDIAN;
+		ByteBuffer tmpBuf = ByteBuffer.wrap(tmp);
 		while (data.remaining() > 0) {
 			int length = data.remaining() > tmp.length ? tmp.length : data.remaining();
-			data.get(tmp, 0, length);
+			if (swap) {
+				ByteBuffer chunk = data.slice().order(data.order());
+				chunk.limit(length);
+				tmpBuf.clear();
+				ByteBuffers.copy(chunk, tmpBuf, sizeOf());
+				data.position(data.position() + length);
+			} else {
+				data.get(tmp, 0, length);
+			}
 			os.write(tmp, 0, length);
 		}
+	}
 
-		if (padding > 0) {
-			os.write(new byte[padding]);
+	/** Writes <code>values</code> in big-endian chunks, through typed views of a byte buffer. */
+	private void writeValues(DataOutputStream os) throws IOException {
+		ByteBuffer tmpBuf = ByteBuffer.allocate(Math.min(size, 8192));
+		int width = sizeOf();
+		while (values.hasRemaining()) {
+			int count = Math.min(values.remaining(), tmpBuf.capacity() / width);
+			if (values instanceof IntBuffer) {
+				IntBuffer chunk = ((IntBuffer) values).slice();
+				chunk.limit(count);
+				tmpBuf.asIntBuffer().put(chunk);
+			} else {
+				DoubleBuffer chunk = ((DoubleBuffer) values).slice();
+				chunk.limit(count);
+				tmpBuf.asDoubleBuffer().put(chunk);
+			}
+			values.position(values.position() + count);
+			os.write(tmpBuf.array(), 0, count * width);
 		}
 	}
 }
@@ -0,0 +1,318 @@
+/*
+ * Code licensed under new-style BSD (see LICENSE).
+ * All code up to tags/original: Copyright (c) 2006, Wojciech Gradkowski
+ * All code after tags/original: Copyright (c) 2015, DiffPlug
+ */
+package com.jmatio.io;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.zip.Adler32;
+import java.util.zip.Deflater;
+
+/**
+ * Output stream which writes a zlib stream (RFC 1950) whose blocks of input
+ * are deflated concurrently, like <code>pigz</code>.
+ * <p>
+ * The input is cut into blocks of {@link #BLOCK_SIZE} bytes.  Each block is
+ * deflated on its own as raw deflate data, with the last 32 KB of the
+ * previous block as its dictionary, and ends with a sync flush so that the
+ * blocks can be concatenated.  The Adler-32 checksums of the blocks are
+ * combined in order.  The result is one standard zlib stream, which any
+ * inflater reads.
+ * <p>
+ * A sync flush needs <code>Deflater.deflate(byte[], int, int, int)</code>,
+ * which is only available from Java 7 on, see {@link #isSupported()}.
+ */
+class ParallelDeflaterOutputStream extends OutputStream {
+	/** Size of the blocks of input deflated by a task. */
+	static final int BLOCK_SIZE = 1 << 20;
+	private static final int DICTIONARY_SIZE = 1 << 15;
+	/** <code>Deflater.SYNC_FLUSH</code> */
+	private static final int SYNC_FLUSH = 2;
+	/** <code>Deflater.deflate(byte[], int, int, int)</code>, or null before Java 7. */
+	private static final Method DEFLATE_WITH_FLUSH;
+
+	static {
+		Method method;
+		try {
+			method = Deflater.class.getMethod("deflate", byte[].class, int.class, int.class, int.class);
+		} catch (NoSuchMethodException e) {
+			method = null;
+		}
+		DEFLATE_WITH_FLUSH = method;
+	}
+
+	/** Returns true if this JVM can sync flush a deflater, which this stream needs. */
+	static boolean isSupported() {
+		return DEFLATE_WITH_FLUSH != null;
+	}
+
+	private final OutputStream out;
+	private final ExecutorService executor;
+	private final int level;
+	private final int strategy;
+	private final int maxPending;
+	private final LinkedList<FutureTask<Block>> pending = new LinkedList<FutureTask<Block>>();
+
+	private byte[] block = new byte[BLOCK_SIZE];
+	private int count;
+	/** The last bytes of the previous block, or null for the first block. */
+	private byte[] dictionary;
+	private long adler = 1;
+	private boolean finished;
+
+	/**
+	 * Creates a stream which deflates its blocks on the given executor.
+	 *
+	 * @param out the stream to write the zlib stream to
+	 * @param executor runs the deflating tasks
+	 * @param level the compression level, 0-9 or <code>Deflater.DEFAULT_COMPRESSION</code>
+	 * @param strategy the compression strategy of the deflaters
+	 * @param maxBytesInFlight the maximum size of the blocks being deflated or waiting to be written
+	 */
+	ParallelDeflaterOutputStream(OutputStream out, ExecutorService executor, int level, int strategy, long maxBytesInFlight) throws IOException {
+		if (!isSupported()) {
+			throw new UnsupportedOperationException("Parallel deflate needs Java 7 or later");
+		}
+		this.out = out;
+		this.executor = executor;
+		this.level = level;
+		this.strategy = strategy;
+		this.maxPending = (int) Math.max(2, Math.min(Integer.MAX_VALUE, maxBytesInFlight / BLOCK_SIZE));
+		writeHeader();
+	}
+
+	/** Writes the 2-byte zlib header, with the level hint zlib would give. */
+	private void writeHeader() throws IOException {
+		int flevel;
+		if (level == 0 || level == 1) {
+			flevel = 0;
+		} else if (level >= 2 && level <= 5) {
+			flevel = 1;
+		} else if (level == Deflater.DEFAULT_COMPRESSION || level == 6) {
+			flevel = 2;
+		} else {
+			flevel = 3;
+		}
+		// deflate with a 32 KB window, and the check bits
+		int header = 0x78 << 8 | flevel << 6;
+		header += 31 - header % 31;
+		out.write(header >> 8);
+		out.write(header & 0xff);
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if (count == block.length) {
+			submit(false);
+		}
+		block[count++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			if (count == block.length) {
+				submit(false);
+			}
+			int length = Math.min(len, block.length - count);
+			System.arraycopy(b, off, block, count, length);
+			count += length;
+			off += length;
+			len -= length;
+		}
+	}
+
+	/**
+	 * Deflates the remaining input and writes the checksum, without closing
+	 * the underlying stream.
+	 */
+	void finish() throws IOException {
+		if (finished) {
+			return;
+		}
+		try {
+			submit(true);
+			while (!pending.isEmpty()) {
+				writeNext();
+			}
+			out.write((int) (adler >>> 24));
+			out.write((int) (adler >>> 16));
+			out.write((int) (adler >>> 8));
+			out.write((int) adler);
+			finished = true;
+		} finally {
+			if (!finished) {
+				abort();
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		finish();
+		out.close();
+	}
+
+	/** Hands the current block to a task, first writing out blocks if too many are in flight. */
+	private void submit(final boolean last) throws IOException {
+		try {
+			while (pending.size() >= maxPending) {
+				writeNext();
+			}
+		} catch (IOException e) {
+			abort();
+			throw e;
+		}
+		final byte[] input = block;
+		final int length = count;
+		final byte[] preset = dictionary;
+		if (!last) {
+			int dictionaryLength = Math.min(length, DICTIONARY_SIZE);
+			dictionary = Arrays.copyOfRange(input, length - dictionaryLength, length);
+			block = new byte[BLOCK_SIZE];
+			count = 0;
+		}
+		FutureTask<Block> task = new FutureTask<Block>(new Callable<Block>() {
+			@Override
+			public Block call() {
+				return deflate(input, length, preset, last);
+			}
+		});
+		pending.add(task);
+		executor.execute(task);
+	}
+
+	/** Waits for the oldest block, helping with it if it hasn't started, and writes it. */
+	private void writeNext() throws IOException {
+		FutureTask<Block> task = pending.removeFirst();
+		task.run();
+		Block result;
+		try {
+			result = task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for a block to be compressed");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new MatlabIOException("Could not compress block: " + cause);
+		}
+		out.write(result.data, 0, result.length);
+		adler = combine(adler, result.adler, result.inputLength);
+	}
+
+	private void abort() {
+		for (FutureTask<Block> task : pending) {
+			task.cancel(false);
+		}
+		pending.clear();
+	}
+
+	/** Deflates a block as raw deflate data, ending with a sync flush unless it is the last one. */
+	private Block deflate(byte[] input, int length, byte[] preset, boolean last) {
+		Adler32 checksum = new Adler32();
+		checksum.update(input, 0, length);
+		Deflater deflater = new Deflater(level, true);
+		try {
+			deflater.setStrategy(strategy);
+			if (preset != null) {
+				deflater.setDictionary(preset);
+			}
+			deflater.setInput(input, 0, length);
+			byte[] output = new byte[length + (length >> 8) + 64];
+			int size = 0;
+			if (last) {
+				deflater.finish();
+				while (!deflater.finished()) {
+					if (size == output.length) {
+						output = Arrays.copyOf(output, output.length * 2);
+					}
+					size += deflater.deflate(output, size, output.length - size);
+				}
+			} else {
+				// a full output buffer means there may be more to flush
+				int n;
+				do {
+					if (size == output.length) {
+						output = Arrays.copyOf(output, output.length * 2);
+					}
+					n = deflateWithSyncFlush(deflater, output, size, output.length - size);
+					size += n;
+				} while (size == output.length);
+			}
+			return new Block(output, size, checksum.getValue(), length);
+		} finally {
+			deflater.end();
+		}
+	}
+
+	private static int deflateWithSyncFlush(Deflater deflater, byte[] output, int offset, int length) {
+		try {
+			return (Integer) DEFLATE_WITH_FLUSH.invoke(deflater, output, offset, length, SYNC_FLUSH);
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException(e);
+		} catch (InvocationTargetException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new IllegalStateException(cause);
+		}
+	}
+
+	/**
+	 * Returns the Adler-32 checksum of two pieces of data, given the checksum
+	 * of each and the length of the second, as zlib's <code>adler32_combine</code>.
+	 */
+	static long combine(long adler1, long adler2, long length2) {
+		final long base = 65521;
+		long remainder = length2 % base;
+		long sum1 = adler1 & 0xffff;
+		long sum2 = remainder * sum1 % base;
+		sum1 += (adler2 & 0xffff) + base - 1;
+		sum2 += (adler1 >> 16 & 0xffff) + (adler2 >> 16 & 0xffff) + base - remainder;
+		if (sum1 >= base) {
+			sum1 -= base;
+		}
+		if (sum1 >= base) {
+			sum1 -= base;
+		}
+		if (sum2 >= base << 1) {
+			sum2 -= base << 1;
+		}
+		if (sum2 >= base) {
+			sum2 -= base;
+		}
+		return sum1 | sum2 << 16;
+	}
+
+	/** A deflated block. */
+	private static final class Block {
+		final byte[] data;
+		final int length;
+		final long adler;
+		final int inputLength;
+
+		Block(byte[] data, int length, long adler, int inputLength) {
+			this.data = data;
+			this.length = length;
+			this.adler = adler;
+			this.inputLength = inputLength;
+		}
+	}
+}
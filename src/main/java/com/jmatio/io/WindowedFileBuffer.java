@@ -0,0 +1,180 @@
+/*
+ * Code licensed under new-style BSD (see LICENSE).
+ * All code up to tags/original: Copyright (c) 2006, Wojciech Gradkowski
+ * All code after tags/original: Copyright (c) 2015, DiffPlug
+ */
+package com.jmatio.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Gives access to a file of any size through windows of at most
+ * <code>windowSize</code> bytes, so that files larger than 2 GB can be
+ * read with each of the <code>MatFileReader</code> allocation policies.
+ * <p>
+ * A window starts at the position which was requested and slides forward when
+ * a request does not fit in it anymore.  A single request which is larger than
+ * the window size gets a window of its own size.
+ * <p>
+ * Buffers returned by {@link #window(long, int)} are only valid until the next
+ * call, as direct and mapped windows are released when the window slides.
+ */
+class WindowedFileBuffer {
+	/** Default window size, 1 GB. */
+	static final int DEFAULT_WINDOW_SIZE = 1 << 30;
+	/** Size of the direct buffer used to read heap windows, see {@link #readHeap(ByteBuffer, long, int)}. */
+	private static final int DIRECT_BUFFER_LIMIT = 1 << 25;
+
+	private final FileChannel channel;
+	private final int policy;
+	private final int windowSize;
+	private final long fileSize;
+
+	/** The current window, null until the first request. */
+	private ByteBuffer window;
+	/** The file position of the start of the current window. */
+	private long windowStart;
+
+	WindowedFileBuffer(FileChannel channel, int policy) throws IOException {
+		this(channel, policy, DEFAULT_WINDOW_SIZE);
+	}
+
+	WindowedFileBuffer(FileChannel channel, int policy, int windowSize) throws IOException {
+		switch (policy) {
+		case MatFileReader.MEMORY_MAPPED_FILE:
+		case MatFileReader.DIRECT_BYTE_BUFFER:
+		case MatFileReader.HEAP_BYTE_BUFFER:
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown file allocation policy");
+		}
+		this.channel = channel;
+		this.policy = policy;
+		this.windowSize = windowSize;
+		this.fileSize = channel.size();
+	}
+
+	/** Returns the size of the file. */
+	long size() {
+		return fileSize;
+	}
+
+	/**
+	 * Returns a buffer positioned at the given file position, whose limit is
+	 * <code>length</code> bytes further.
+	 *
+	 * @throws EOFException if the file ends before <code>position + length</code>
+	 */
+	ByteBuffer window(long position, int length) throws IOException {
+		if (position + length > fileSize) {
+			throw new EOFException("Requested " + length + " bytes at offset " + position + ", but the file ends at " + fileSize);
+		}
+		if (window == null || position < windowStart || position + length > windowStart + window.limit()) {
+			slide(position, (int) Math.max(length, Math.min(windowSize, fileSize - position)));
+		}
+		ByteBuffer buf = window.duplicate();
+		int offset = (int) (position - windowStart);
+		buf.limit(offset + length);
+		buf.position(offset);
+		return buf;
+	}
+
+	/** Replaces the current window with one of <code>length</code> bytes at <code>position</code>. */
+	private void slide(long position, int length) throws IOException {
+		ByteBuffer previous = window;
+		window = null;
+		switch (policy) {
+		case MatFileReader.MEMORY_MAPPED_FILE:
+			release(previous);
+			window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+			break;
+		case MatFileReader.DIRECT_BYTE_BUFFER:
+			if (previous != null && previous.capacity() >= length) {
+				previous.clear();
+				previous.limit(length);
+				window = previous;
+			} else {
+				release(previous);
+				window = ByteBuffer.allocateDirect(length);
+			}
+			readFully(window, position);
+			break;
+		case MatFileReader.HEAP_BYTE_BUFFER:
+			window = readHeap(previous, position, length);
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown file allocation policy");
+		}
+		windowStart = position;
+	}
+
+	/**
+	 * Reads a heap window, reusing the previous one if it is large enough.
+	 * <p>
+	 * <code>FileChannel.read</code> couldn't be used directly (at least under
+	 * MS Windows) since it is implemented in a suboptimal way.  It allocates
+	 * its own _direct_ buffer of exactly the same size as the buffer passed
+	 * as parameter, reads data into it and only afterwards moves data into the
+	 * buffer passed as parameter, which ends up in an OutOfMemoryError.
+	 */
+	private ByteBuffer readHeap(ByteBuffer previous, long position, int length) throws IOException {
+		ByteBuffer buf;
+		if (previous != null && previous.capacity() >= length) {
+			buf = previous;
+			buf.clear();
+		} else {
+			buf = ByteBuffer.allocate(length);
+		}
+		if (length > DIRECT_BUFFER_LIMIT) {
+			ByteBuffer tempByteBuffer = ByteBuffer.allocateDirect(DIRECT_BUFFER_LIMIT);
+			try {
+				for (int offset = 0; offset < length; offset += DIRECT_BUFFER_LIMIT) {
+					tempByteBuffer.clear();
+					tempByteBuffer.limit(Math.min(DIRECT_BUFFER_LIMIT, length - offset));
+					readFully(tempByteBuffer, position + offset);
+					buf.put(tempByteBuffer);
+				}
+			} finally {
+				Unsafe9R.invokeCleaner(tempByteBuffer);
+			}
+		} else {
+			buf.limit(length);
+			readFully(buf, position);
+		}
+		buf.rewind();
+		buf.limit(length);
+		return buf;
+	}
+
+	/** Fills the remaining bytes of <code>buf</code> from the given file position, then rewinds it. */
+	private void readFully(ByteBuffer buf, long position) throws IOException {
+		int start = buf.position();
+		while (buf.hasRemaining()) {
+			if (channel.read(buf, position + buf.position() - start) < 0) {
+				throw new EOFException("Unexpected end of file at offset " + (position + buf.position() - start));
+			}
+		}
+		buf.position(start);
+	}
+
+	/** Releases the current window. */
+	void close() {
+		release(window);
+		window = null;
+	}
+
+	/**
+	 * Forcefully unmaps memory mapped buffer or direct buffer. This is a
+	 * workaround for <a href="http://bugs.sun.com/bugdatabase/view_bug.do?bug_id=4724038">#4724038</a>.
+	 * Note that subsequent accesses to the buffer will crash the runtime, so it may
+	 * only be applied to internal buffers.
+	 */
+	private static void release(ByteBuffer buf) {
+		if (buf != null && buf.isDirect()) {
+			Unsafe9R.invokeCleaner(buf);
+		}
+	}
+}
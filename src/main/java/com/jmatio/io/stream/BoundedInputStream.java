@@ -0,0 +1,93 @@
+/*
+ * Code licensed under new-style BSD (see LICENSE).
+ * All code up to tags/original: Copyright (c) 2006, Wojciech Gradkowski
+ * All code after tags/original: Copyright (c) 2015, DiffPlug
+ */
+package com.jmatio.io.stream;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An <code>InputStream</code> which exposes at most <code>limit</code> bytes
+ * of the underlying stream. Used to keep an <code>InflaterInputStream</code>
+ * from reading past the end of a <code>miCOMPRESSED</code> element.
+ * <p>
+ * Closing this stream does not close the underlying stream.
+ */
+public class BoundedInputStream extends FilterInputStream {
+	private long remaining;
+
+	public BoundedInputStream(InputStream in, long limit) {
+		super(in);
+		this.remaining = limit;
+	}
+
+	/** Returns the number of bytes which can still be read from this stream. */
+	public long remaining() {
+		return remaining;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (remaining <= 0) {
+			return -1;
+		}
+		int b = in.read();
+		if (b < 0) {
+			throw new EOFException("Stream ended " + remaining + " bytes before the expected end of the element");
+		}
+		remaining--;
+		return b;
+	}
+
+	@Override
+	public int read(byte[] bytes, int off, int len) throws IOException {
+		if (remaining <= 0) {
+			return -1;
+		}
+		int n = in.read(bytes, off, (int) Math.min(len, remaining));
+		if (n < 0) {
+			throw new EOFException("Stream ended " + remaining + " bytes before the expected end of the element");
+		}
+		remaining -= n;
+		return n;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		long skipped = in.skip(Math.min(n, remaining));
+		remaining -= skipped;
+		return skipped;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return (int) Math.min(in.available(), remaining);
+	}
+
+	/** Reads and discards everything up to the limit of this stream. */
+	public void drain() throws IOException {
+		byte[] tmp = new byte[4096];
+		while (remaining > 0) {
+			long skipped = in.skip(remaining);
+			if (skipped > 0) {
+				remaining -= skipped;
+			} else if (read(tmp, 0, tmp.length) < 0) {
+				return;
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		// the underlying stream is owned by the caller
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+}
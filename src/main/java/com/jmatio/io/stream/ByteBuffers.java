@@ -0,0 +1,51 @@
+/*
+ * Code licensed under new-style BSD (see LICENSE).
+ * All code up to tags/original: Copyright (c) 2006, Wojciech Gradkowski
+ * All code after tags/original: Copyright (c) 2015, DiffPlug
+ */
+package com.jmatio.io.stream;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Bulk operations on <code>ByteBuffer</code>s holding numeric elements.
+ */
+public class ByteBuffers {
+	private ByteBuffers() {}
+
+	/**
+	 * Copies the remaining bytes of <code>src</code> to <code>dest</code>,
+	 * converting elements of <code>width</code> bytes from the byte order of
+	 * <code>src</code> to the byte order of <code>dest</code>.
+	 * <p>
+	 * If both buffers have the same order this is a plain memory copy,
+	 * otherwise the bytes are swapped in bulk through typed views.  The
+	 * positions of both buffers are advanced.
+	 *
+	 * @param src the source buffer
+	 * @param dest the destination buffer
+	 * @param width the size of an element in bytes, 1, 2, 4 or 8
+	 */
+	public static void copy(ByteBuffer src, ByteBuffer dest, int width) {
+		int length = src.remaining();
+		if (width == 1 || src.order().equals(dest.order())) {
+			dest.put(src);
+			return;
+		}
+		switch (width) {
+		case 2:
+			dest.asShortBuffer().put(src.asShortBuffer());
+			break;
+		case 4:
+			dest.asIntBuffer().put(src.asIntBuffer());
+			break;
+		case 8:
+			dest.asLongBuffer().put(src.asLongBuffer());
+			break;
+		default:
+			throw new IllegalArgumentException("Unsupported element width: " + width);
+		}
+		src.position(src.position() + length);
+		dest.position(dest.position() + length);
+	}
+}
@@ -168,116 +168,80 @@ public class MatFileInputStream {
 		int bytesAllocated = storage.getBytesAllocated();
 		int size = elements * storage.getBytesAllocated();
 
-		//direct buffer copy
-		if (MatDataTypes.sizeOf(type) == bytesAllocated && buf.order().equals(dest.order())) {
-			int bufMaxSize = 1024;
-			int bufSize = Math.min(buf.remaining(), bufMaxSize);
+		//direct buffer copy, swapping the bytes in bulk if the orders differ
+		if (isStoredAs(storage)) {
 			int bufPos = buf.position();
-
-			byte[] tmp = new byte[bufSize];
-
-			while (dest.remaining() > 0) {
-				int length = Math.min(dest.remaining(), tmp.length);
-				buf.get(tmp, 0, length);
-				dest.put(tmp, 0, length);
-			}
+			ByteBuffer src = buf.slice().order(buf.order());
+			src.limit(Math.min(size, dest.remaining()));
+			ByteBuffers.copy(src, dest, bytesAllocated);
 			buf.position(bufPos + size);
 		} else {
 			//because Matlab writes data not respectively to the declared
 			//matrix type, the reading is not straight forward (as above)
-			Class<?> clazz = storage.getStorageClazz();
-			while (dest.remaining() > 0) {
-				if (clazz.equals(Double.class)) {
-					dest.putDouble(readDouble());
-				} else if (clazz.equals(Byte.class)) {
-					dest.put(readByte());
-				} else if (clazz.equals(Integer.class)) {
-					dest.putInt(readInt());
-				} else if (clazz.equals(Long.class)) {
-					dest.putLong(readLong());
-				} else if (clazz.equals(Float.class)) {
-					dest.putFloat(readFloat());
-				} else if (clazz.equals(Short.class)) {
-					dest.putShort(readShort());
-				} else {
-					throw new RuntimeException("Not supported buffer reader for " + clazz);
-				}
-			}
+			int count = Math.min(elements, dest.remaining() / bytesAllocated);
+			int bufPos = buf.position();
+			NumericConversion.convert(buf, type, dest, storage.getStorageClazz(), count);
+			buf.position(bufPos + elements * MatDataTypes.sizeOf(type));
 		}
 		dest.rewind();
 		return dest;
 	}
 
-	private float readFloat() {
-		switch (type) {
-		case MatDataTypes.miUINT8:
-			return (float) (buf.get() & 0xFF);
-		case MatDataTypes.miINT8:
-			return (float) buf.get();
-		case MatDataTypes.miUINT16:
-			return (float) (buf.getShort() & 0xFFFF);
-		case MatDataTypes.miINT16:
-			return (float) buf.getShort();
-		case MatDataTypes.miUINT32:
-			return (float) buf.getInt();
-		case MatDataTypes.miINT32:
-			return (float) buf.getInt();
-		case MatDataTypes.miSINGLE:
-			return (float) buf.getFloat();
-		case MatDataTypes.miDOUBLE:
-			return (float) buf.getDouble();
-		default:
-			throw new IllegalArgumentException("Unknown data type: " + type);
-		}
+	/**
+	 * Tells whether the data in the stream has the same representation as
+	 * the elements of <code>storage</code>, byte order aside, so that it can
+	 * be used without conversion.
+	 */
+	public boolean isStoredAs(ByteStorageSupport<?> storage) {
+		return MatDataTypes.sizeOf(type) == storage.getBytesAllocated() && isFloatingPoint(type) == isFloatingPoint(storage.getStorageClazz());
 	}
 
-	private short readShort() {
-		switch (type) {
-		case MatDataTypes.miUINT8:
-			return (short) (buf.get() & 0xFF);
-		case MatDataTypes.miINT8:
-			return (short) buf.get();
-		case MatDataTypes.miUINT16:
-			return (short) (buf.getShort() & 0xFFFF);
-		case MatDataTypes.miINT16:
-			return (short) buf.getShort();
-		case MatDataTypes.miUINT32:
-			return (short) buf.getInt();
-		case MatDataTypes.miINT32:
-			return (short) buf.getInt();
-		case MatDataTypes.miUINT64:
-			return (short) buf.getLong();
-		case MatDataTypes.miINT64:
-			return (short) buf.getLong();
-		case MatDataTypes.miDOUBLE:
-			return (short) buf.getDouble();
-		default:
-			throw new IllegalArgumentException("Unknown data type: " + type);
+	/**
+	 * Returns the next <code>length</code> bytes of the stream as a buffer
+	 * sharing its content, in the byte order of the stream, and skips them.
+	 */
+	public ByteBuffer readToSlice(int length) throws IOException {
+		ByteBuffer slice = buf.slice();
+		slice.limit(length);
+		buf.position(buf.position() + length);
+		return slice.slice().order(buf.order());
+	}
+
+	private static boolean isFloatingPoint(int type) {
+		return type == MatDataTypes.miDOUBLE || type == MatDataTypes.miSINGLE;
+	}
+
+	private static boolean isFloatingPoint(Class<?> clazz) {
+		return clazz.equals(Double.class) || clazz.equals(Float.class);
+	}
+
+	/**
+	 * Reads <code>dest.length</code> values into <code>dest</code>, in bulk
+	 * if they are stored as 32-bit integers.
+	 */
+	public void readInts(int[] dest) throws IOException {
+		if (type == MatDataTypes.miINT32 || type == MatDataTypes.miUINT32) {
+			buf.asIntBuffer().get(dest);
+			buf.position(buf.position() + dest.length * 4);
+		} else {
+			for (int i = 0; i < dest.length; i++) {
+				dest[i] = readInt();
+			}
 		}
 	}
 
-	private long readLong() {
-		switch (type) {
-		case MatDataTypes.miUINT8:
-			return (long) (buf.get() & 0xFF);
-		case MatDataTypes.miINT8:
-			return (long) buf.get();
-		case MatDataTypes.miUINT16:
-			return (long) (buf.getShort() & 0xFFFF);
-		case MatDataTypes.miINT16:
-			return (long) buf.getShort();
-		case MatDataTypes.miUINT32:
-			return (long) buf.getInt();
-		case MatDataTypes.miINT32:
-			return (long) buf.getInt();
-		case MatDataTypes.miUINT64:
-			return (long) buf.getLong();
-		case MatDataTypes.miINT64:
-			return (long) buf.getLong();
-		case MatDataTypes.miDOUBLE:
-			return (long) buf.getDouble();
-		default:
-			throw new IllegalArgumentException("Unknown data type: " + type);
+	/**
+	 * Reads <code>dest.length</code> values into <code>dest</code>, in bulk
+	 * if they are stored as doubles.
+	 */
+	public void readDoubles(double[] dest) throws IOException {
+		if (type == MatDataTypes.miDOUBLE) {
+			buf.asDoubleBuffer().get(dest);
+			buf.position(buf.position() + dest.length * 8);
+		} else {
+			for (int i = 0; i < dest.length; i++) {
+				dest[i] = readDouble();
+			}
 		}
 	}
 
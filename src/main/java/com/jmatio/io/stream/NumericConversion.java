@@ -0,0 +1,233 @@
+/*
+ * Code licensed under new-style BSD (see LICENSE).
+ * All code up to tags/original: Copyright (c) 2006, Wojciech Gradkowski
+ * All code after tags/original: Copyright (c) 2015, DiffPlug
+ */
+package com.jmatio.io.stream;
+
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.ShortBuffer;
+
+import com.jmatio.common.MatDataTypes;
+
+/**
+ * Block conversion of numeric data stored on disk as one MAT-file type into
+ * array storage of another type, e.g. a <code>double</code> matrix which
+ * MATLAB wrote as <code>miUINT8</code>.
+ * <p>
+ * The conversion is picked once per data element rather than once per
+ * value.  Blocks of values are read through a typed view of the source into
+ * a <code>long[]</code> (integer types) or <code>double[]</code>
+ * (floating point types) and written from there through a typed view of the
+ * destination, so each inner loop is a plain array loop of a single type pair.
+ */
+class NumericConversion {
+	private static final int BLOCK_SIZE = 1024;
+
+	private NumericConversion() {}
+
+	/**
+	 * Converts <code>count</code> values of the given MAT-file type from
+	 * <code>src</code> into <code>dest</code>, stored as <code>clazz</code>.
+	 * The positions of both buffers are advanced.
+	 *
+	 * @throws IllegalArgumentException if the type or the storage class is not numeric
+	 */
+	static void convert(ByteBuffer src, int type, ByteBuffer dest, Class<?> clazz, int count) {
+		int srcWidth = MatDataTypes.sizeOf(type);
+		int destWidth = storageWidth(clazz);
+		ByteBuffer in = src.slice().order(src.order());
+		in.limit(count * srcWidth);
+		ByteBuffer out = dest.slice().order(dest.order());
+		out.limit(count * destWidth);
+
+		switch (type) {
+		case MatDataTypes.miSINGLE:
+		case MatDataTypes.miDOUBLE:
+			double[] doubles = new double[Math.min(count, BLOCK_SIZE)];
+			for (int done = 0; done < count; done += doubles.length) {
+				int length = Math.min(doubles.length, count - done);
+				readDoubles(in, type, doubles, length);
+				writeDoubles(out, clazz, doubles, length);
+			}
+			break;
+		case MatDataTypes.miINT8:
+		case MatDataTypes.miUINT8:
+		case MatDataTypes.miINT16:
+		case MatDataTypes.miUINT16:
+		case MatDataTypes.miINT32:
+		case MatDataTypes.miUINT32:
+		case MatDataTypes.miINT64:
+		case MatDataTypes.miUINT64:
+			long[] longs = new long[Math.min(count, BLOCK_SIZE)];
+			for (int done = 0; done < count; done += longs.length) {
+				int length = Math.min(longs.length, count - done);
+				readLongs(in, type, longs, length);
+				writeLongs(out, clazz, longs, length, type == MatDataTypes.miUINT64);
+			}
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown data type: " + type);
+		}
+		src.position(src.position() + count * srcWidth);
+		dest.position(dest.position() + count * destWidth);
+	}
+
+	private static int storageWidth(Class<?> clazz) {
+		if (clazz.equals(Double.class) || clazz.equals(Long.class)) {
+			return 8;
+		} else if (clazz.equals(Float.class) || clazz.equals(Integer.class)) {
+			return 4;
+		} else if (clazz.equals(Short.class)) {
+			return 2;
+		} else if (clazz.equals(Byte.class)) {
+			return 1;
+		}
+		throw new IllegalArgumentException("Not supported buffer reader for " + clazz);
+	}
+
+	/** Reads a block of integer values, widened to long. */
+	private static void readLongs(ByteBuffer in, int type, long[] values, int length) {
+		switch (type) {
+		case MatDataTypes.miINT8:
+			for (int i = 0; i < length; i++) {
+				values[i] = in.get();
+			}
+			break;
+		case MatDataTypes.miUINT8:
+			for (int i = 0; i < length; i++) {
+				values[i] = in.get() & 0xFF;
+			}
+			break;
+		case MatDataTypes.miINT16: {
+			ShortBuffer view = in.asShortBuffer();
+			for (int i = 0; i < length; i++) {
+				values[i] = view.get(i);
+			}
+			break;
+		}
+		case MatDataTypes.miUINT16: {
+			ShortBuffer view = in.asShortBuffer();
+			for (int i = 0; i < length; i++) {
+				values[i] = view.get(i) & 0xFFFF;
+			}
+			break;
+		}
+		case MatDataTypes.miINT32: {
+			IntBuffer view = in.asIntBuffer();
+			for (int i = 0; i < length; i++) {
+				values[i] = view.get(i);
+			}
+			break;
+		}
+		case MatDataTypes.miUINT32: {
+			IntBuffer view = in.asIntBuffer();
+			for (int i = 0; i < length; i++) {
+				values[i] = view.get(i) & 0xFFFFFFFFL;
+			}
+			break;
+		}
+		default: {
+			// miINT64 and miUINT64, whose unsigned values are only reinterpreted when written
+			LongBuffer view = in.asLongBuffer();
+			view.get(values, 0, length);
+			break;
+		}
+		}
+		if (type != MatDataTypes.miINT8 && type != MatDataTypes.miUINT8) {
+			in.position(in.position() + length * MatDataTypes.sizeOf(type));
+		}
+	}
+
+	/** Reads a block of floating point values, widened to double. */
+	private static void readDoubles(ByteBuffer in, int type, double[] values, int length) {
+		if (type == MatDataTypes.miSINGLE) {
+			FloatBuffer view = in.asFloatBuffer();
+			for (int i = 0; i < length; i++) {
+				values[i] = view.get(i);
+			}
+			in.position(in.position() + length * 4);
+		} else {
+			DoubleBuffer view = in.asDoubleBuffer();
+			view.get(values, 0, length);
+			in.position(in.position() + length * 8);
+		}
+	}
+
+	/** Writes a block of integer values, narrowing them with Java's casts. */
+	private static void writeLongs(ByteBuffer out, Class<?> clazz, long[] values, int length, boolean unsigned64) {
+		if (clazz.equals(Double.class)) {
+			DoubleBuffer view = out.asDoubleBuffer();
+			for (int i = 0; i < length; i++) {
+				view.put(i, unsigned64 ? unsignedToDouble(values[i]) : (double) values[i]);
+			}
+		} else if (clazz.equals(Float.class)) {
+			FloatBuffer view = out.asFloatBuffer();
+			for (int i = 0; i < length; i++) {
+				view.put(i, unsigned64 ? (float) unsignedToDouble(values[i]) : (float) values[i]);
+			}
+		} else if (clazz.equals(Long.class)) {
+			out.asLongBuffer().put(values, 0, length);
+		} else if (clazz.equals(Integer.class)) {
+			IntBuffer view = out.asIntBuffer();
+			for (int i = 0; i < length; i++) {
+				view.put(i, (int) values[i]);
+			}
+		} else if (clazz.equals(Short.class)) {
+			ShortBuffer view = out.asShortBuffer();
+			for (int i = 0; i < length; i++) {
+				view.put(i, (short) values[i]);
+			}
+		} else {
+			for (int i = 0; i < length; i++) {
+				out.put(out.position() + i, (byte) values[i]);
+			}
+		}
+		out.position(out.position() + length * storageWidth(clazz));
+	}
+
+	/** Writes a block of floating point values, narrowing them with Java's casts. */
+	private static void writeDoubles(ByteBuffer out, Class<?> clazz, double[] values, int length) {
+		if (clazz.equals(Double.class)) {
+			out.asDoubleBuffer().put(values, 0, length);
+		} else if (clazz.equals(Float.class)) {
+			FloatBuffer view = out.asFloatBuffer();
+			for (int i = 0; i < length; i++) {
+				view.put(i, (float) values[i]);
+			}
+		} else if (clazz.equals(Long.class)) {
+			LongBuffer view = out.asLongBuffer();
+			for (int i = 0; i < length; i++) {
+				view.put(i, (long) values[i]);
+			}
+		} else if (clazz.equals(Integer.class)) {
+			IntBuffer view = out.asIntBuffer();
+			for (int i = 0; i < length; i++) {
+				view.put(i, (int) values[i]);
+			}
+		} else if (clazz.equals(Short.class)) {
+			ShortBuffer view = out.asShortBuffer();
+			for (int i = 0; i < length; i++) {
+				view.put(i, (short) values[i]);
+			}
+		} else {
+			for (int i = 0; i < length; i++) {
+				out.put(out.position() + i, (byte) values[i]);
+			}
+		}
+		out.position(out.position() + length * storageWidth(clazz));
+	}
+
+	/** Converts the bits of an unsigned 64-bit integer to the nearest double. */
+	private static double unsignedToDouble(long value) {
+		if (value >= 0) {
+			return (double) value;
+		}
+		// halve it, keeping the lowest bit so that rounding stays correct
+		return (double) ((value >>> 1) | (value & 1)) * 2.0;
+	}
+}
@@ -7,6 +7,14 @@ package com.jmatio.types;
 
 import java.util.ArrayList;
 
+/**
+ * Cell array, whose cells can hold any {@link MLArray}.
+ * <p>
+ * A reader asked to read cell arrays of strings compactly returns them as
+ * the subclass {@link MLCellStr}, which only holds strings and whose
+ * {@link #cells()} can't be modified; such readers should not be used for
+ * read-modify-write code.
+ */
 public class MLCell extends MLArray {
 	private ArrayList<MLArray> cells;
 
@@ -24,6 +32,12 @@ public class MLCell extends MLArray {
 		}
 	}
 
+	/** For subclasses which keep their cells elsewhere. */
+	MLCell(String name, int[] dims, int attributes, ArrayList<MLArray> cells) {
+		super(name, dims, MLArray.mxCELL_CLASS, attributes);
+		this.cells = cells;
+	}
+
 	public void set(MLArray value, int m, int n) {
 		cells.set(getIndex(m, n), value);
 	}
@@ -0,0 +1,379 @@
+/*
+ * Code licensed under new-style BSD (see LICENSE).
+ * All code up to tags/original: Copyright (c) 2006, Wojciech Gradkowski
+ * All code after tags/original: Copyright (c) 2015, DiffPlug
+ */
+package com.jmatio.types;
+
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+
+/**
+ * Cell array of strings, MATLAB's <code>cellstr</code>, stored as one shared
+ * character pool and the offsets of the strings in it instead of one
+ * {@link MLChar} per cell.
+ * <p>
+ * The reader returns this class for cell arrays whose cells are all unnamed
+ * 1 x N char rows or 0 x 0 char arrays when asked to, see
+ * <code>MatFileReader.setCellStrings(boolean)</code>.  Unlike the cells of
+ * an {@link MLCell}:
+ * <ul>
+ * <li>{@link #get(int)} builds a new {@link MLChar} on every call, so
+ * changes to it are not kept; use {@link #set(String, int)} instead, and
+ * {@link #getString(int)} or {@link #getCharSequence(int)} to read the
+ * strings without building arrays.  Empty strings are returned and written
+ * as 0 x 0 char arrays.</li>
+ * <li>{@link #cells()} returns a read-only snapshot, whose mutators throw an
+ * <code>UnsupportedOperationException</code>.  Java 8's
+ * <code>removeIf</code>, <code>replaceAll</code> and <code>sort</code> make
+ * the snapshot throw when it is next read.</li>
+ * <li>Only strings can be stored: setting a cell to anything else throws an
+ * <code>IllegalArgumentException</code>.</li>
+ * <li>{@link #equals(Object)} compares the strings of another
+ * <code>MLCellStr</code>, while an <code>MLCell</code> is only equal to
+ * itself.</li>
+ * </ul>
+ */
+public class MLCellStr extends MLCell {
+	private char[] pool;
+	private int[] offsets;
+
+	/**
+	 * Creates a column of strings.
+	 * 
+	 * @param name - array name
+	 * @param values - the strings
+	 */
+	public MLCellStr(String name, String[] values) {
+		this(name, new int[]{values.length, 1}, values);
+	}
+
+	/**
+	 * Creates a cell array of strings of the given dimensions.
+	 * 
+	 * @param name - array name
+	 * @param dims - array dimensions
+	 * @param values - the strings, column-major
+	 */
+	public MLCellStr(String name, int[] dims, String[] values) {
+		super(name, dims, 0, null);
+		checkCount(values.length);
+		offsets = new int[values.length + 1];
+		for (int i = 0; i < values.length; i++) {
+			offsets[i + 1] = offsets[i] + values[i].length();
+		}
+		pool = new char[offsets[values.length]];
+		for (int i = 0; i < values.length; i++) {
+			values[i].getChars(0, values[i].length(), pool, offsets[i]);
+		}
+	}
+
+	/**
+	 * Creates a cell array of strings from a character pool.  String
+	 * <code>i</code> is <code>pool[offsets[i]]</code> to
+	 * <code>pool[offsets[i + 1] - 1]</code>.  Both arrays are used as they are.
+	 * 
+	 * @param name - array name
+	 * @param dims - array dimensions
+	 * @param attributes - array flags
+	 * @param pool - characters of all the strings, one after the other
+	 * @param offsets - start of every string in <code>pool</code>, followed by the end of the last one
+	 */
+	@SuppressFBWarnings(value = {"EI_EXPOSE_REP2"}, justification = "This code is unlikely to be used in a security-sensitive environment.")
+	public MLCellStr(String name, int[] dims, int attributes, char[] pool, int[] offsets) {
+		super(name, dims, attributes, null);
+		checkCount(offsets.length - 1);
+		if (offsets[0] != 0 || offsets[offsets.length - 1] > pool.length) {
+			throw new IllegalArgumentException("Offsets " + offsets[0] + ".." + offsets[offsets.length - 1] + " do not fit a pool of " + pool.length);
+		}
+		this.pool = pool;
+		this.offsets = offsets;
+	}
+
+	private void checkCount(int count) {
+		if (count != getSize()) {
+			throw new IllegalArgumentException(count + " strings given for " + getSize() + " cells");
+		}
+	}
+
+	/** Returns the string in cell <code>index</code>. */
+	public String getString(int index) {
+		return new String(pool, offsets[index], offsets[index + 1] - offsets[index]);
+	}
+
+	/** Returns the string in cell (m, n). */
+	public String getString(int m, int n) {
+		return getString(getIndex(m, n));
+	}
+
+	/** Returns all the strings, column-major. */
+	public String[] getStrings() {
+		String[] result = new String[getSize()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = getString(i);
+		}
+		return result;
+	}
+
+	/** Returns a view of the string in cell <code>index</code>, which does not copy its characters. */
+	public CharSequence getCharSequence(int index) {
+		return CharBuffer.wrap(pool, offsets[index], offsets[index + 1] - offsets[index]).asReadOnlyBuffer();
+	}
+
+	/** Returns the length of the string in cell <code>index</code>. */
+	public int getLength(int index) {
+		return offsets[index + 1] - offsets[index];
+	}
+
+	/** Returns the character pool; see {@link #getOffsets()}.  This is the backing array. */
+	@SuppressFBWarnings(value = {"EI_EXPOSE_REP"}, justification = "This code is unlikely to be used in a security-sensitive environment.")
+	public char[] getCharPool() {
+		return pool;
+	}
+
+	/** Returns the start of every string in the pool, followed by the end of the last one.  This is the backing array. */
+	@SuppressFBWarnings(value = {"EI_EXPOSE_REP"}, justification = "This code is unlikely to be used in a security-sensitive environment.")
+	public int[] getOffsets() {
+		return offsets;
+	}
+
+	/**
+	 * Replaces the string in cell <code>index</code>.  The pool is copied,
+	 * so this takes time proportional to its size.
+	 */
+	public void set(String value, int index) {
+		int start = offsets[index];
+		int end = offsets[index + 1];
+		int shift = value.length() - (end - start);
+		char[] newPool = new char[offsets[offsets.length - 1] + shift];
+		System.arraycopy(pool, 0, newPool, 0, start);
+		value.getChars(0, value.length(), newPool, start);
+		System.arraycopy(pool, end, newPool, end + shift, offsets[offsets.length - 1] - end);
+		for (int i = index + 1; i < offsets.length; i++) {
+			offsets[i] += shift;
+		}
+		pool = newPool;
+	}
+
+	@Override
+	public void set(MLArray value, int m, int n) {
+		set(value, getIndex(m, n));
+	}
+
+	/**
+	 * Sets a cell to the string held by a char row vector or an empty char array.
+	 * 
+	 * @throws IllegalArgumentException if <code>value</code> is not such an array
+	 */
+	@Override
+	public void set(MLArray value, int index) {
+		if (!(value instanceof MLChar) || value.getNDimensions() != 2 || (value.getM() != 1 && value.getSize() != 0)) {
+			throw new IllegalArgumentException("Only char row vectors can be stored in an MLCellStr, use an MLCell instead");
+		}
+		set(value.getSize() == 0 ? "" : ((MLChar) value).getRow(0).toString(), index);
+	}
+
+	@Override
+	public MLArray get(int m, int n) {
+		return get(getIndex(m, n));
+	}
+
+	/** Returns a new {@link MLChar} holding the string in cell <code>index</code>. */
+	@Override
+	public MLArray get(int index) {
+		int length = getLength(index);
+		if (length == 0) {
+			return new MLChar("", new int[]{0, 0}, MLArray.mxCHAR_CLASS, 0);
+		}
+		MLChar value = new MLChar("", new int[]{1, length}, MLArray.mxCHAR_CLASS, 0);
+		System.arraycopy(pool, offsets[index], value.chars, 0, length);
+		return value;
+	}
+
+	/**
+	 * Returns the cells as new {@link MLChar}s, in a list which can't be
+	 * modified: use {@link #set(String, int)} to change a string.
+	 */
+	@Override
+	public ArrayList<MLArray> cells() {
+		MLArray[] result = new MLArray[getSize()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = get(i);
+		}
+		return new ReadOnlyCells(Arrays.asList(result));
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (o instanceof MLCellStr) {
+			MLCellStr other = (MLCellStr) o;
+			if (!Arrays.equals(getDimensions(), other.getDimensions()) || !Arrays.equals(offsets, other.offsets)) {
+				return false;
+			}
+			int length = offsets[offsets.length - 1];
+			for (int i = 0; i < length; i++) {
+				if (pool[i] != other.pool[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+		return false;
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(offsets);
+	}
+
+	/**
+	 * A snapshot of the cells whose mutators throw, since changes to it would
+	 * be lost.  The bulk mutators which <code>ArrayList</code> gained in Java 8
+	 * (<code>removeIf</code>, <code>replaceAll</code> and <code>sort</code>)
+	 * can't be overridden by code built for Java 6, so once one of them has
+	 * changed the snapshot, reading it throws instead.
+	 */
+	private static final class ReadOnlyCells extends ArrayList<MLArray> {
+		private static final long serialVersionUID = 1L;
+
+		private final int expectedModCount;
+
+		ReadOnlyCells(Collection<MLArray> cells) {
+			super(cells);
+			expectedModCount = modCount;
+		}
+
+		private static UnsupportedOperationException readOnly() {
+			return new UnsupportedOperationException("The cells of an MLCellStr can't be modified, use MLCellStr.set(String, int) or an MLCell instead");
+		}
+
+		private void checkUnmodified() {
+			if (modCount != expectedModCount) {
+				throw readOnly();
+			}
+		}
+
+		@Override
+		public int size() {
+			checkUnmodified();
+			return super.size();
+		}
+
+		@Override
+		public MLArray get(int index) {
+			checkUnmodified();
+			return super.get(index);
+		}
+
+		@Override
+		public Iterator<MLArray> iterator() {
+			checkUnmodified();
+			return super.iterator();
+		}
+
+		@Override
+		public ListIterator<MLArray> listIterator(int index) {
+			checkUnmodified();
+			return super.listIterator(index);
+		}
+
+		@Override
+		public ListIterator<MLArray> listIterator() {
+			checkUnmodified();
+			return super.listIterator();
+		}
+
+		@Override
+		public Object[] toArray() {
+			checkUnmodified();
+			return super.toArray();
+		}
+
+		@Override
+		public <T> T[] toArray(T[] a) {
+			checkUnmodified();
+			return super.toArray(a);
+		}
+
+		@Override
+		public MLArray set(int index, MLArray element) {
+			throw readOnly();
+		}
+
+		@Override
+		public boolean add(MLArray e) {
+			throw readOnly();
+		}
+
+		@Override
+		public void add(int index, MLArray element) {
+			throw readOnly();
+		}
+
+		@Override
+		public boolean addAll(Collection<? extends MLArray> c) {
+			throw readOnly();
+		}
+
+		@Override
+		public boolean addAll(int index, Collection<? extends MLArray> c) {
+			throw readOnly();
+		}
+
+		@Override
+		public MLArray remove(int index) {
+			throw readOnly();
+		}
+
+		@Override
+		public boolean remove(Object o) {
+			throw readOnly();
+		}
+
+		@Override
+		public boolean removeAll(Collection<?> c) {
+			throw readOnly();
+		}
+
+		@Override
+		public boolean retainAll(Collection<?> c) {
+			throw readOnly();
+		}
+
+		@Override
+		public void clear() {
+			throw readOnly();
+		}
+
+		@Override
+		public List<MLArray> subList(int fromIndex, int toIndex) {
+			checkUnmodified();
+			return Collections.unmodifiableList(super.subList(fromIndex, toIndex));
+		}
+	}
+
+	@Override
+	public String contentToString() {
+		StringBuffer sb = new StringBuffer();
+		sb.append(name + " = \n");
+
+		for (int m = 0; m < getM(); m++) {
+			sb.append("\t");
+			for (int n = 0; n < getN(); n++) {
+				sb.append("'");
+				sb.append(pool, offsets[getIndex(m, n)], getLength(getIndex(m, n)));
+				sb.append("'\t");
+			}
+			sb.append("\n");
+		}
+		return sb.toString();
+	}
+}
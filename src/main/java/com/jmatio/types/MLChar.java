@@ -9,8 +9,13 @@ import java.util.Arrays;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 
+/**
+ * Character matrix, stored column-major in a <code>char[]</code> like the
+ * numeric arrays.  Each row is usually one string, padded with blanks to the
+ * width of the matrix.
+ */
 public class MLChar extends MLArray {
-	Character[] chars;
+	char[] chars;
 
 	/**
 	 * Creates the 1 x {@link String#length()} {@link MLChar} from the given
@@ -73,7 +78,7 @@ public class MLChar extends MLArray {
 
 	public MLChar(String name, int[] dims, int type, int attributes) {
 		super(name, dims, type, attributes);
-		chars = new Character[getM() * getN()];
+		chars = new char[getM() * getN()];
 	}
 
 	public void setChar(char ch, int index) {
@@ -85,10 +90,7 @@ public class MLChar extends MLArray {
 	 * @param value the String value
 	 */
 	public void set(String value) {
-		char[] cha = value.toCharArray();
-		for (int i = 0; i < getN() && i < value.length(); i++) {
-			setChar(cha[i], i);
-		}
+		value.getChars(0, Math.min(getN(), value.length()), chars, 0);
 	}
 
 	/** 
@@ -99,12 +101,12 @@ public class MLChar extends MLArray {
 	 */
 	public void set(String value, int idx) {
 		int rowOffset = getM();
-		for (int i = 0; i < getN(); i++) {
-			if (i < value.length()) {
-				setChar(value.charAt(i), idx + (rowOffset * i));
-			} else {
-				setChar(' ', idx + (rowOffset * i));
-			}
+		int length = Math.min(getN(), value.length());
+		for (int i = 0; i < length; i++) {
+			chars[idx + (rowOffset * i)] = value.charAt(i);
+		}
+		for (int i = length; i < getN(); i++) {
+			chars[idx + (rowOffset * i)] = ' ';
 		}
 	}
 
@@ -112,8 +114,26 @@ public class MLChar extends MLArray {
 		return chars[getIndex(m, n)];
 	}
 
-	@SuppressFBWarnings(value = {"EI_EXPOSE_REP"}, justification = "This code is unlikely to be used in a security-sensitive environment.")
+	/**
+	 * Returns a boxed copy of the characters, column-major.
+	 * 
+	 * @deprecated boxes every character; use {@link #getCharArray()}
+	 */
+	@Deprecated
 	public Character[] exportChar() {
+		Character[] result = new Character[chars.length];
+		for (int i = 0; i < chars.length; i++) {
+			result[i] = chars[i];
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the characters, column-major.  This is the backing array, so
+	 * changes to it are visible in the matrix.
+	 */
+	@SuppressFBWarnings(value = {"EI_EXPOSE_REP"}, justification = "This code is unlikely to be used in a security-sensitive environment.")
+	public char[] getCharArray() {
 		return chars;
 	}
 
@@ -138,13 +158,94 @@ public class MLChar extends MLArray {
 	 * @return - <code>String</code>
 	 */
 	public String getString(int m) {
-		StringBuffer charbuff = new StringBuffer();
+		return new String(row(m)).trim();
+	}
+
+	/**
+	 * Gets all rows of the character matrix as trimmed <code>String</code>s,
+	 * like {@link #getString(int)}.
+	 * 
+	 * @return - one <code>String</code> per row
+	 */
+	public String[] getStrings() {
+		String[] result = new String[getM()];
+		char[] row = new char[getN()];
+		for (int m = 0; m < result.length; m++) {
+			copyRow(m, row);
+			result[m] = new String(row).trim();
+		}
+		return result;
+	}
+
+	/**
+	 * Gets a view of the m-th row, including its padding, which reads the
+	 * characters of the matrix without copying them.
+	 * 
+	 * @param m - row number
+	 * @return - <code>CharSequence</code> of {@link #getN()} characters
+	 */
+	public CharSequence getRow(int m) {
+		if (m < 0 || m >= getM()) {
+			throw new IndexOutOfBoundsException("Row " + m + " of " + getM());
+		}
+		return new Row(m, 0, getN());
+	}
+
+	private char[] row(int m) {
+		char[] row = new char[getN()];
+		copyRow(m, row);
+		return row;
+	}
+
+	/** Copies the m-th row into <code>dest</code>; the rows are strided by <code>M</code>. */
+	private void copyRow(int m, char[] dest) {
+		int rowOffset = getM();
+		for (int n = 0, index = m; n < dest.length; n++, index += rowOffset) {
+			dest[n] = chars[index];
+		}
+	}
 
-		for (int n = 0; n < getN(); n++) {
-			charbuff.append(getChar(m, n));
+	/** Strided view of (part of) a row. */
+	private class Row implements CharSequence {
+		private final int m;
+		private final int start;
+		private final int length;
+
+		Row(int m, int start, int length) {
+			this.m = m;
+			this.start = start;
+			this.length = length;
+		}
+
+		@Override
+		public int length() {
+			return length;
+		}
+
+		@Override
+		public char charAt(int index) {
+			if (index < 0 || index >= length) {
+				throw new IndexOutOfBoundsException("Index " + index + " of " + length);
+			}
+			return chars[m + (start + index) * getM()];
 		}
 
-		return charbuff.toString().trim();
+		@Override
+		public CharSequence subSequence(int from, int to) {
+			if (from < 0 || to > length || from > to) {
+				throw new IndexOutOfBoundsException("Range " + from + ".." + to + " of " + length);
+			}
+			return new Row(m, start + from, to - from);
+		}
+
+		@Override
+		public String toString() {
+			char[] result = new char[length];
+			for (int i = 0; i < length; i++) {
+				result[i] = chars[m + (start + i) * getM()];
+			}
+			return new String(result);
+		}
 	}
 
 	public String contentToString() {
@@ -153,13 +254,9 @@ public class MLChar extends MLArray {
 
 		for (int m = 0; m < getM(); m++) {
 			sb.append("\t");
-			StringBuffer charbuff = new StringBuffer();
-			charbuff.append("'");
-			for (int n = 0; n < getN(); n++) {
-				charbuff.append(getChar(m, n));
-			}
-			charbuff.append("'");
-			sb.append(charbuff);
+			sb.append("'");
+			sb.append(row(m));
+			sb.append("'");
 			sb.append("\n");
 		}
 		return sb.toString();
@@ -154,6 +154,16 @@ public class MLDouble extends MLNumericArray<Double> {
 		return Double.class;
 	}
 
+	@Override
+	protected Double _get(ByteBuffer buffer, int index) {
+		return buffer.getDouble(index * getBytesAllocated());
+	}
+
+	@Override
+	protected void _set(ByteBuffer buffer, Double value, int index) {
+		buffer.putDouble(index * getBytesAllocated(), value);
+	}
+
 	@Override
 	protected Double zero() {
 		return Zeros.DOUBLE;
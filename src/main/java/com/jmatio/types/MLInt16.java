@@ -153,6 +153,16 @@ public class MLInt16 extends MLNumericArray<Short> {
 		return Short.class;
 	}
 
+	@Override
+	protected Short _get(ByteBuffer buffer, int index) {
+		return buffer.getShort(index * getBytesAllocated());
+	}
+
+	@Override
+	protected void _set(ByteBuffer buffer, Short value, int index) {
+		buffer.putShort(index * getBytesAllocated(), value);
+	}
+
 	@Override
 	protected Short zero() {
 		return Zeros.SHORT;
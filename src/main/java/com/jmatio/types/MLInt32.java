@@ -148,6 +148,16 @@ public class MLInt32 extends MLNumericArray<Integer> {
 		return buff.array();
 	}
 
+	@Override
+	protected Integer _get(ByteBuffer buffer, int index) {
+		return buffer.getInt(index * getBytesAllocated());
+	}
+
+	@Override
+	protected void _set(ByteBuffer buffer, Integer value, int index) {
+		buffer.putInt(index * getBytesAllocated(), value);
+	}
+
 	@Override
 	protected Integer zero() {
 		return Zeros.INTEGER;
@@ -153,6 +153,16 @@ public class MLInt64 extends MLNumericArray<Long> {
 		return buff.array();
 	}
 
+	@Override
+	protected Long _get(ByteBuffer buffer, int index) {
+		return buffer.getLong(index * getBytesAllocated());
+	}
+
+	@Override
+	protected void _set(ByteBuffer buffer, Long value, int index) {
+		buffer.putLong(index * getBytesAllocated(), value);
+	}
+
 	@Override
 	protected Long zero() {
 		return Zeros.LONG;
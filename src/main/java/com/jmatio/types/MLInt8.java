@@ -154,6 +154,11 @@ public class MLInt8 extends MLNumericArray<Byte> {
 		return buffer.get(index);
 	}
 
+	@Override
+	protected void _set(ByteBuffer buffer, Byte value, int index) {
+		buffer.put(index, value);
+	}
+
 	@Override
 	protected Byte zero() {
 		return Zeros.BYTE;
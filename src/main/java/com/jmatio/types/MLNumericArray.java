@@ -6,8 +6,11 @@
 package com.jmatio.types;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Arrays;
 
+import com.jmatio.io.stream.ByteBuffers;
+
 /**
  * Abstract class for numeric arrays.
  * 
@@ -40,14 +43,40 @@ public abstract class MLNumericArray<T extends Number> extends MLArray implement
 		allocate();
 	}
 
+	/**
+	 * Prepares the array for use.  The backing buffers are only allocated
+	 * when they are first used, so that a reader can give the array buffers
+	 * of its own with {@link #setRealByteBuffer(ByteBuffer)} instead.
+	 */
 	protected void allocate() {
-		real = ByteBuffer.allocate(getSize() * getBytesAllocated());
-		if (isComplex()) {
-			imaginary = ByteBuffer.allocate(getSize() * getBytesAllocated());
-		}
 		bytes = new byte[getBytesAllocated()];
 	}
 
+	/**
+	 * Allocates a backing buffer.  It uses the platform's native byte order,
+	 * so that data in the same order is copied in bulk while reading, see
+	 * {@link #getRealByteBuffer()}.
+	 */
+	private ByteBuffer allocateBuffer() {
+		return ByteBuffer.allocate(getSize() * getBytesAllocated()).order(ByteOrder.nativeOrder());
+	}
+
+	/** Returns the buffer backing the real part, allocating it if needed. */
+	private ByteBuffer real() {
+		if (real == null) {
+			real = allocateBuffer();
+		}
+		return real;
+	}
+
+	/** Returns the buffer backing the imaginary part, allocating it if needed, or null for non-complex arrays. */
+	private ByteBuffer imaginary() {
+		if (imaginary == null && isComplex()) {
+			imaginary = allocateBuffer();
+		}
+		return imaginary;
+	}
+
 	/** Returns the value of "zero" for this type of array. */
 	protected abstract T zero();
 
@@ -70,7 +99,7 @@ public abstract class MLNumericArray<T extends Number> extends MLArray implement
 
 	/** Gets a single real array element. */
 	public T getReal(int index) {
-		return _get(real, index);
+		return _get(real(), index);
 	}
 
 	/** Gets a single real array element. */
@@ -85,7 +114,7 @@ public abstract class MLNumericArray<T extends Number> extends MLArray implement
 
 	/** Sets a single real array element. */
 	public void setReal(T value, int index) {
-		_set(real, value, index);
+		_set(real(), value, index);
 	}
 
 	/** Sets a single real array element. */
@@ -103,13 +132,15 @@ public abstract class MLNumericArray<T extends Number> extends MLArray implement
 		if (vector.length != getSize()) {
 			throw new IllegalArgumentException("Matrix dimensions do not match. " + getSize() + " not " + vector.length);
 		}
-		System.arraycopy(vector, 0, real, 0, vector.length);
+		for (int i = 0; i < vector.length; i++) {
+			setReal(vector[i], i);
+		}
 	}
 
 	/** Sets a single imaginary array element. */
 	public void setImaginary(T value, int index) {
 		assertComplex();
-		_set(imaginary, value, index);
+		_set(imaginary(), value, index);
 	}
 
 	/** Sets a single imaginary array element. */
@@ -125,7 +156,7 @@ public abstract class MLNumericArray<T extends Number> extends MLArray implement
 	/** Returns the imaginary value at the given index, always 0 for non-complex arrays. */
 	public T getImaginary(int index) {
 		if (isComplex()) {
-			return _get(imaginary, index);
+			return _get(imaginary(), index);
 		} else {
 			return zero();
 		}
@@ -182,43 +213,115 @@ public abstract class MLNumericArray<T extends Number> extends MLArray implement
 		if (vector.length != getSize()) {
 			throw new IllegalArgumentException("Matrix dimensions do not match. " + getSize() + " not " + vector.length);
 		}
-		System.arraycopy(vector, 0, real, 0, vector.length);
+		for (int i = 0; i < vector.length; i++) {
+			setReal(vector[i], i);
+		}
 	}
 
 	private int getByteOffset(int index) {
 		return index * getBytesAllocated();
 	}
 
+	/**
+	 * Gets an element from a backing buffer.  Subclasses override this with
+	 * a typed absolute get, this implementation goes through the big-endian
+	 * {@link #buldFromBytes(byte[])}.
+	 */
 	protected T _get(ByteBuffer buffer, int index) {
 		buffer.position(getByteOffset(index));
 		buffer.get(bytes, 0, bytes.length);
+		if (buffer.order() != ByteOrder.BIG_ENDIAN) {
+			reverse(bytes);
+		}
 		return buldFromBytes(bytes);
 	}
 
+	/**
+	 * Sets an element of a backing buffer.  Subclasses override this with
+	 * a typed absolute put, this implementation goes through the big-endian
+	 * {@link #getByteArray(Number)}.
+	 */
 	protected void _set(ByteBuffer buffer, T value, int index) {
+		byte[] valueBytes = getByteArray(value);
+		if (buffer.order() != ByteOrder.BIG_ENDIAN) {
+			reverse(valueBytes);
+		}
 		buffer.position(getByteOffset(index));
-		buffer.put(getByteArray(value));
+		buffer.put(valueBytes);
 	}
 
+	private static void reverse(byte[] bytes) {
+		for (int i = 0, j = bytes.length - 1; i < j; i++, j--) {
+			byte tmp = bytes[i];
+			bytes[i] = bytes[j];
+			bytes[j] = tmp;
+		}
+	}
+
+	/**
+	 * Copies the imaginary part from the given buffer, converting the elements
+	 * from the byte order of <code>buff</code>.
+	 */
 	public void putImaginaryByteBuffer(ByteBuffer buff) {
 		if (!isComplex()) {
 			throw new RuntimeException("Array is not complex");
 		}
+		ByteBuffer imaginary = imaginary();
 		imaginary.rewind();
-		imaginary.put(buff);
+		ByteBuffers.copy(buff, imaginary, getBytesAllocated());
 	}
 
+	/**
+	 * Returns the buffer backing the imaginary part, in the platform's native
+	 * byte order unless it was given with {@link #setImaginaryByteBuffer(ByteBuffer)}.
+	 */
 	public ByteBuffer getImaginaryByteBuffer() {
-		return imaginary;
+		return imaginary();
 	}
 
+	/**
+	 * Makes the given buffer back the imaginary part, without copying it.
+	 * The buffer keeps its byte order, and may be read-only, e.g. a region of
+	 * a memory mapped MAT-file, in which case the array can't be modified.
+	 */
+	public void setImaginaryByteBuffer(ByteBuffer buff) {
+		assertComplex();
+		checkLength(buff);
+		imaginary = buff;
+	}
+
+	/**
+	 * Copies the real part from the given buffer, converting the elements
+	 * from the byte order of <code>buff</code>.
+	 */
 	public void putRealByteBuffer(ByteBuffer buff) {
+		ByteBuffer real = real();
 		real.rewind();
-		real.put(buff);
+		ByteBuffers.copy(buff, real, getBytesAllocated());
 	}
 
+	/**
+	 * Returns the buffer backing the real part, in the platform's native
+	 * byte order unless it was given with {@link #setRealByteBuffer(ByteBuffer)}.
+	 */
 	public ByteBuffer getRealByteBuffer() {
-		return real;
+		return real();
+	}
+
+	/**
+	 * Makes the given buffer back the real part, without copying it.  The
+	 * buffer keeps its byte order, and may be read-only, e.g. a region of a
+	 * memory mapped MAT-file, in which case the array can't be modified.
+	 */
+	public void setRealByteBuffer(ByteBuffer buff) {
+		checkLength(buff);
+		real = buff;
+	}
+
+	private void checkLength(ByteBuffer buff) {
+		if (buff.capacity() != getSize() * getBytesAllocated()) {
+			throw new IllegalArgumentException("Buffer holds " + buff.capacity() + " bytes, but the array needs " + getSize() * getBytesAllocated());
+		}
 	}
 
 	@Override
@@ -247,10 +350,11 @@ public abstract class MLNumericArray<T extends Number> extends MLArray implement
 	@Override
 	public boolean equals(Object o) {
 		if (o instanceof MLNumericArray) {
-			boolean result = directByteBufferEquals(real, ((MLNumericArray<?>) o).real)
+			int width = getBytesAllocated();
+			boolean result = directByteBufferEquals(real(), ((MLNumericArray<?>) o).real(), width)
 					&& Arrays.equals(dims, ((MLNumericArray<?>) o).dims);
 			if (isComplex() && result) {
-				result &= directByteBufferEquals(imaginary, ((MLNumericArray<?>) o).imaginary);
+				result &= directByteBufferEquals(imaginary(), ((MLNumericArray<?>) o).imaginary(), width);
 			}
 			return result;
 		}
@@ -259,21 +363,24 @@ public abstract class MLNumericArray<T extends Number> extends MLArray implement
 
 	@Override
 	public int hashCode() {
+		int width = getBytesAllocated();
+		int result = 31 * contentHashCode(real(), width) + Arrays.hashCode(dims);
 		if (isComplex()) {
-			return Arrays.hashCode(new Object[]{real, dims, imaginary});
-		} else {
-			return Arrays.hashCode(new Object[]{real, dims});
+			result = 31 * result + contentHashCode(imaginary(), width);
 		}
+		return result;
 	}
 
 	/**
-	 * Equals implementation for direct <code>ByteBuffer</code>
+	 * Equals implementation for direct <code>ByteBuffer</code>.  Buffers in
+	 * different byte orders are compared element by element.
 	 * 
 	 * @param buffa the source buffer to be compared
 	 * @param buffb the destination buffer to be compared
+	 * @param width the size of an element in bytes
 	 * @return <code>true</code> if buffers are equal in terms of content
 	 */
-	private static boolean directByteBufferEquals(ByteBuffer buffa, ByteBuffer buffb) {
+	private static boolean directByteBufferEquals(ByteBuffer buffa, ByteBuffer buffb, int width) {
 		if (buffa == buffb) {
 			return true;
 		}
@@ -282,17 +389,14 @@ public abstract class MLNumericArray<T extends Number> extends MLArray implement
 			return false;
 		}
 
-		buffa.rewind();
-		buffb.rewind();
+		int length = buffa.limit();
 
-		int length = buffa.remaining();
-
-		if (buffb.remaining() != length) {
+		if (buffb.limit() != length) {
 			return false;
 		}
 
 		for (int i = 0; i < length; i++) {
-			if (buffa.get() != buffb.get()) {
+			if (bigEndianByte(buffa, i, width) != bigEndianByte(buffb, i, width)) {
 				return false;
 			}
 		}
@@ -300,6 +404,24 @@ public abstract class MLNumericArray<T extends Number> extends MLArray implement
 		return true;
 	}
 
+	/** Hash code of the content of a buffer which doesn't depend on its byte order. */
+	private static int contentHashCode(ByteBuffer buff, int width) {
+		int result = 1;
+		for (int i = 0; i < buff.limit(); i++) {
+			result = 31 * result + bigEndianByte(buff, i, width);
+		}
+		return result;
+	}
+
+	/** Returns the byte at <code>index</code> as if the buffer was big-endian. */
+	private static byte bigEndianByte(ByteBuffer buff, int index, int width) {
+		if (width == 1 || buff.order() == ByteOrder.BIG_ENDIAN) {
+			return buff.get(index);
+		}
+		int offset = index % width;
+		return buff.get(index - offset + width - 1 - offset);
+	}
+
 	public void dispose() {
 		if (real != null) {
 			real.clear();
@@ -7,8 +7,6 @@ package com.jmatio.types;
 
 import java.util.Map;
 
-import com.jmatio.common.DeterministicKeyMap;
-
 /**
  * This class represents Matlab's Object object (object array).
  * 
@@ -30,15 +28,17 @@ public class MLObject extends MLStructureObjectBase {
 	}
 
 	public void setFields(int i, Map<String, MLArray> structure) {
-		keys.addAll(structure.keySet());
-		mlStructArray.put(i, new DeterministicKeyMap<String, MLArray>(keys, structure));
+		for (Map.Entry<String, MLArray> field : structure.entrySet()) {
+			put(field.getKey(), field.getValue(), i);
+		}
 	}
 
 	/** Only used by {@link com.jmatio.io.MLObjectPlaceholder}. */
 	protected void copyFrom(MLObject obj) {
 		this.className = obj.className;
 		this.keys = obj.keys;
-		this.mlStructArray = obj.mlStructArray;
+		this.columns = obj.columns;
+		this.ordinals = obj.ordinals;
 		this.currentIndex = obj.currentIndex;
 	}
 }
@@ -45,6 +45,16 @@ public class MLSingle extends MLNumericArray<Float> {
 		return Float.class;
 	}
 
+	@Override
+	protected Float _get(ByteBuffer buffer, int index) {
+		return buffer.getFloat(index * getBytesAllocated());
+	}
+
+	@Override
+	protected void _set(ByteBuffer buffer, Float value, int index) {
+		buffer.putFloat(index * getBytesAllocated(), value);
+	}
+
 	@Override
 	protected Float zero() {
 		return Zeros.FLOAT;
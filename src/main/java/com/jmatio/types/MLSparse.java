@@ -6,17 +6,31 @@
 package com.jmatio.types;
 
 import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
 import java.util.Arrays;
-import java.util.SortedMap;
-import java.util.SortedSet;
-import java.util.TreeMap;
-import java.util.TreeSet;
 
+/**
+ * Sparse double array, stored in compressed sparse column (CSC) form exactly
+ * as in MAT-files: <tt>ir</tt> holds the row index of every nonzero,
+ * <tt>jc</tt> where every column starts in <tt>ir</tt>, and <tt>pr</tt> and
+ * <tt>pi</tt> the real and imaginary values.
+ * <p>
+ * Looking up an element is a binary search in its column.  Setting an element
+ * which isn't stored yet shifts the elements of all following columns, so
+ * large arrays should be built column by column, or in one go from the CSC
+ * arrays with {@link #MLSparse(String, int[], int, int[], int[], double[], double[])}.
+ */
 public class MLSparse extends MLNumericArray<Double> {
 	int nzmax;
-	private SortedSet<IndexMN> indexSet;
-	private SortedMap<IndexMN, Double> real;
-	private SortedMap<IndexMN, Double> imaginary;
+	/** Row indices of the nonzero elements, sorted within each column. */
+	private int[] ir;
+	/** Start of every column in <code>ir</code>, <code>jc[N]</code> is the number of nonzero elements. */
+	private int[] jc;
+	/** Real parts of the nonzero elements. */
+	private double[] pr;
+	/** Imaginary parts of the nonzero elements, null for non-complex arrays. */
+	private double[] pi;
 
 	/**
 	 * @param name
@@ -27,86 +41,147 @@ public class MLSparse extends MLNumericArray<Double> {
 	public MLSparse(String name, int[] dims, int attributes, int nzmax) {
 		super(name, dims, MLArray.mxSPARSE_CLASS, attributes);
 		this.nzmax = nzmax;
+		int capacity = Math.max(nzmax, 0);
+		ir = new int[capacity];
+		jc = new int[getN() + 1];
+		pr = new double[capacity];
+		pi = isComplex() ? new double[capacity] : null;
+	}
+
+	/**
+	 * Creates a sparse array from its CSC arrays, which are used without
+	 * copying.  The row indices must be sorted within each column.
+	 *
+	 * @param name - array name
+	 * @param dims - array dimensions
+	 * @param attributes - array flags, with <code>mtFLAG_COMPLEX</code> if <code>pi</code> is given
+	 * @param ir - row indices of the nonzero elements, at least <code>jc[N]</code> of them
+	 * @param jc - start of every column in <code>ir</code>, N+1 elements
+	 * @param pr - real parts of the nonzero elements
+	 * @param pi - imaginary parts of the nonzero elements, or null for non-complex arrays
+	 */
+	public MLSparse(String name, int[] dims, int attributes, int[] ir, int[] jc, double[] pr, double[] pi) {
+		super(name, dims, MLArray.mxSPARSE_CLASS, attributes);
+		if (jc.length != getN() + 1) {
+			throw new IllegalArgumentException("jc must hold " + (getN() + 1) + " column starts, not " + jc.length);
+		}
+		int nnz = jc[getN()];
+		if (ir.length < nnz || pr.length < nnz || (isComplex() && (pi == null || pi.length < nnz))) {
+			throw new IllegalArgumentException("The arrays hold fewer than the " + nnz + " nonzero elements given by jc");
+		}
+		this.nzmax = Math.max(ir.length, nnz);
+		this.ir = ir;
+		this.jc = jc;
+		this.pr = pr;
+		this.pi = isComplex() ? pi : null;
 	}
 
 	@Override
 	protected void allocate() {
-		indexSet = new TreeSet<IndexMN>();
-		real = new TreeMap<IndexMN, Double>();
-		if (isComplex()) {
-			imaginary = new TreeMap<IndexMN, Double>();
-		} else {
-			imaginary = null;
-		}
+		// the CSC arrays are allocated by the constructors
 	}
 
 	/**
 	 * Gets maximum number of non-zero values
-	 * 
+	 *
 	 * @return
 	 */
 	public int getMaxNZ() {
-		return nzmax;
+		return Math.max(nzmax, getNonZeroCount());
+	}
+
+	/** Returns the number of stored elements, <tt>jc[N]</tt>. */
+	public int getNonZeroCount() {
+		return jc[getN()];
 	}
 
 	/**
 	 * Gets row indices
-	 * 
+	 *
 	 * <tt>ir</tt> points to an integer array of length nzmax containing the row indices of
 	 * the corresponding elements in <tt>pr</tt> and <tt>pi</tt>.
 	 */
 	public int[] getIR() {
-		int[] ir = new int[nzmax];
-		int i = 0;
-		for (IndexMN index : indexSet) {
-			ir[i++] = index.m;
-		}
-		return ir;
+		int[] result = new int[getMaxNZ()];
+		System.arraycopy(ir, 0, result, 0, getNonZeroCount());
+		return result;
 	}
 
 	/**
 	 * Gets column indices
-	 * 
+	 *
 	 * <tt>ic</tt> points to an integer array of length nzmax containing the column indices of
 	 * the corresponding elements in <tt>pr</tt> and <tt>pi</tt>.
 	 */
 	public int[] getIC() {
-		int[] ic = new int[nzmax];
-		int i = 0;
-		for (IndexMN index : indexSet) {
-			ic[i++] = index.n;
+		int[] ic = new int[getMaxNZ()];
+		for (int column = 0; column < getN(); column++) {
+			Arrays.fill(ic, jc[column], jc[column + 1], column);
 		}
 		return ic;
 	}
 
 	/**
-	 * Gets column indices. 
-	 * 
+	 * Gets column indices.
+	 *
 	 * <tt>jc</tt> points to an integer array of length N+1 that contains column index information.
 	 * For j, in the range <tt>0&lt;=j&lt;=N</tt>, <tt>jc[j]</tt> is the index in ir and <tt>pr</tt> (and <tt>pi</tt>
-	 * if it exists) of the first nonzero entry in the jth column and <tt>jc[j+1]?????????1</tt> index
+	 * if it exists) of the first nonzero entry in the jth column and <tt>jc[j+1]-1</tt> index
 	 * of the last nonzero entry. As a result, <tt>jc[N]</tt> is also equal to nnz, the number
 	 * of nonzero entries in the matrix. If nnz is less than nzmax, then more nonzero
 	 * entries can be inserted in the array without allocating additional storage
-	 * 
+	 *
 	 * @return
 	 */
 	public int[] getJC() {
-		int[] jc = new int[getN() + 1];
-		// jc[j] is the number of nonzero elements in all preceeding columns
-		for (IndexMN index : indexSet) {
-			for (int column = index.n + 1; column < jc.length; column++) {
-				jc[column]++;
+		return jc.clone();
+	}
+
+	/**
+	 * Returns the index in <tt>ir</tt> of the element (m, n), or if it isn't
+	 * stored <code>-(insertion point) - 1</code>.
+	 */
+	private int find(int m, int n) {
+		if (m < 0 || m >= getM() || n < 0 || n >= getN()) {
+			throw new IndexOutOfBoundsException("(" + m + "," + n + ") is outside of the " + getM() + "x" + getN() + " array");
+		}
+		return Arrays.binarySearch(ir, jc[n], jc[n + 1], m);
+	}
+
+	/** Returns the index in <tt>ir</tt> of the element (m, n), inserting it with a zero value if needed. */
+	private int findOrInsert(int m, int n) {
+		int i = find(m, n);
+		if (i >= 0) {
+			return i;
+		}
+		i = -i - 1;
+		int nnz = getNonZeroCount();
+		if (nnz == ir.length) {
+			int capacity = Math.max(8, nnz + (nnz >> 1));
+			ir = Arrays.copyOf(ir, capacity);
+			pr = Arrays.copyOf(pr, capacity);
+			if (pi != null) {
+				pi = Arrays.copyOf(pi, capacity);
 			}
 		}
-		return jc;
+		System.arraycopy(ir, i, ir, i + 1, nnz - i);
+		System.arraycopy(pr, i, pr, i + 1, nnz - i);
+		if (pi != null) {
+			System.arraycopy(pi, i, pi, i + 1, nnz - i);
+			pi[i] = 0;
+		}
+		ir[i] = m;
+		pr[i] = 0;
+		for (int column = n + 1; column < jc.length; column++) {
+			jc[column]++;
+		}
+		return i;
 	}
 
 	@Override
 	public Double getReal(int m, int n) {
-		IndexMN i = new IndexMN(m, n);
-		Double result = real.get(i);
-		return result == null ? Zeros.DOUBLE : result;
+		int i = find(m, n);
+		return i < 0 ? Zeros.DOUBLE : pr[i];
 	}
 
 	@Override
@@ -117,9 +192,9 @@ public class MLSparse extends MLNumericArray<Double> {
 
 	@Override
 	public void setReal(Double value, int m, int n) {
-		IndexMN i = new IndexMN(m, n);
-		indexSet.add(i);
-		real.put(i, value);
+		// findOrInsert may grow the arrays, so it must run before they are read
+		int i = findOrInsert(m, n);
+		pr[i] = value;
 	}
 
 	@Override
@@ -131,9 +206,8 @@ public class MLSparse extends MLNumericArray<Double> {
 	@Override
 	public void setImaginary(Double value, int m, int n) {
 		assertComplex();
-		IndexMN i = new IndexMN(m, n);
-		indexSet.add(i);
-		imaginary.put(i, value);
+		int i = findOrInsert(m, n);
+		pi[i] = value;
 	}
 
 	@Override
@@ -144,9 +218,11 @@ public class MLSparse extends MLNumericArray<Double> {
 
 	@Override
 	public Double getImaginary(int m, int n) {
-		IndexMN i = new IndexMN(m, n);
-		Double result = imaginary.get(i);
-		return result == null ? Zeros.DOUBLE : result;
+		if (pi == null) {
+			return Zeros.DOUBLE;
+		}
+		int i = find(m, n);
+		return i < 0 ? Zeros.DOUBLE : pi[i];
 	}
 
 	@Override
@@ -157,9 +233,7 @@ public class MLSparse extends MLNumericArray<Double> {
 
 	@Override
 	public void set(Double value, int m, int n) {
-		IndexMN i = new IndexMN(m, n);
-		indexSet.add(i);
-		real.put(i, value);
+		setReal(value, m, n);
 	}
 
 	@Override
@@ -170,9 +244,7 @@ public class MLSparse extends MLNumericArray<Double> {
 
 	@Override
 	public Double get(int m, int n) {
-		IndexMN i = new IndexMN(m, n);
-		Double result = real.get(i);
-		return result == null ? Zeros.DOUBLE : result;
+		return getReal(m, n);
 	}
 
 	@Override
@@ -187,15 +259,9 @@ public class MLSparse extends MLNumericArray<Double> {
 	 * @return real part
 	 */
 	public Double[] exportReal() {
-		Double[] ad = new Double[indexSet.size()];
-		int i = 0;
-		for (IndexMN index : indexSet) {
-			if (real.containsKey(index)) {
-				ad[i] = real.get(index);
-			} else {
-				ad[i] = Zeros.DOUBLE;
-			}
-			i++;
+		Double[] ad = new Double[getNonZeroCount()];
+		for (int i = 0; i < ad.length; i++) {
+			ad[i] = pr[i];
 		}
 		return ad;
 	}
@@ -206,93 +272,151 @@ public class MLSparse extends MLNumericArray<Double> {
 	 * @return
 	 */
 	public Double[] exportImaginary() {
-		Double[] ad = new Double[indexSet.size()];
-		int i = 0;
-		for (IndexMN index : indexSet) {
-			if (imaginary.containsKey(index)) {
-				ad[i] = imaginary.get(index);
-			} else {
-				ad[i] = Zeros.DOUBLE;
-			}
-			i++;
+		Double[] ad = new Double[getNonZeroCount()];
+		for (int i = 0; i < ad.length; i++) {
+			ad[i] = pi == null ? Zeros.DOUBLE : pi[i];
 		}
 		return ad;
 	}
 
-	/* (non-Javadoc)
-	 * @see com.paradigmdesigner.matlab.types.MLArray#contentToString()
+	/** Returns a copy of the real parts of the nonzero elements, <tt>pr</tt>. */
+	public double[] getPR() {
+		return Arrays.copyOf(pr, getNonZeroCount());
+	}
+
+	/** Returns a copy of the imaginary parts of the nonzero elements, <tt>pi</tt>. */
+	public double[] getPI() {
+		assertComplex();
+		return Arrays.copyOf(pi, getNonZeroCount());
+	}
+
+	/**
+	 * Returns a read-only view of <tt>ir</tt>, holding {@link #getMaxNZ()}
+	 * row indices like {@link #getIR()}, without copying it.
 	 */
-	@Override
-	public String contentToString() {
-		StringBuffer sb = new StringBuffer();
-		sb.append(name + " = \n");
+	public IntBuffer getIRBuffer() {
+		return IntBuffer.wrap(ir, 0, getMaxNZ()).slice().asReadOnlyBuffer();
+	}
 
-		for (IndexMN i : indexSet) {
-			sb.append("\t(");
-			sb.append(i.m + "," + i.n);
-			sb.append(")");
-			sb.append("\t" + getReal(i.m, i.n));
-			if (isComplex()) {
-				sb.append("+" + getImaginary(i.m, i.n));
-			}
-			sb.append("\n");
+	/** Returns a read-only view of <tt>jc</tt>, without copying it. */
+	public IntBuffer getJCBuffer() {
+		return IntBuffer.wrap(jc).asReadOnlyBuffer();
+	}
 
-		}
+	/** Returns a read-only view of <tt>pr</tt>, holding the nonzero values, without copying it. */
+	public DoubleBuffer getPRBuffer() {
+		return DoubleBuffer.wrap(pr, 0, getNonZeroCount()).slice().asReadOnlyBuffer();
+	}
 
-		return sb.toString();
+	/** Returns a read-only view of <tt>pi</tt>, holding the nonzero values, without copying it. */
+	public DoubleBuffer getPIBuffer() {
+		assertComplex();
+		return DoubleBuffer.wrap(pi, 0, getNonZeroCount()).slice().asReadOnlyBuffer();
 	}
 
 	/**
-	 * Matrix index (m,n)
-	 * 
-	 * @author Wojciech Gradkowski <wgradkowski@gmail.com>
+	 * Not supported: a sparse array has no dense buffer of its elements.  Use
+	 * {@link #getPRBuffer()} and {@link #getIRBuffer()}.
+	 *
+	 * @throws UnsupportedOperationException always
 	 */
-	private class IndexMN implements Comparable<IndexMN> {
-		int m;
-		int n;
+	@Override
+	public ByteBuffer getRealByteBuffer() {
+		throw dense();
+	}
 
-		public IndexMN(int m, int n) {
-			this.m = m;
-			this.n = n;
-		}
+	/**
+	 * Not supported: a sparse array has no dense buffer of its elements.  Use
+	 * {@link #getPIBuffer()} and {@link #getIRBuffer()}.
+	 *
+	 * @throws UnsupportedOperationException always
+	 */
+	@Override
+	public ByteBuffer getImaginaryByteBuffer() {
+		throw dense();
+	}
+
+	/** Not supported, see {@link #getRealByteBuffer()}. */
+	@Override
+	public void setRealByteBuffer(ByteBuffer buff) {
+		throw dense();
+	}
+
+	/** Not supported, see {@link #getImaginaryByteBuffer()}. */
+	@Override
+	public void setImaginaryByteBuffer(ByteBuffer buff) {
+		throw dense();
+	}
+
+	/** Not supported, see {@link #getRealByteBuffer()}. */
+	@Override
+	public void putRealByteBuffer(ByteBuffer buff) {
+		throw dense();
+	}
 
-		/* (non-Javadoc)
-		 * @see java.lang.Comparable#compareTo(java.lang.Object)
-		 */
-		@Override
-		public int compareTo(IndexMN anOtherIndex) {
-			return getIndex(m, n) - getIndex(anOtherIndex.m, anOtherIndex.n);
+	/** Not supported, see {@link #getImaginaryByteBuffer()}. */
+	@Override
+	public void putImaginaryByteBuffer(ByteBuffer buff) {
+		throw dense();
+	}
+
+	private static UnsupportedOperationException dense() {
+		return new UnsupportedOperationException("MLSparse has no dense byte buffer, use its CSC buffers");
+	}
+
+	/** Sparse arrays are equal if they have the same dimensions and values, explicitly stored zeros aside. */
+	@Override
+	public boolean equals(Object o) {
+		if (o instanceof MLSparse) {
+			MLSparse other = (MLSparse) o;
+			return Arrays.equals(dims, other.dims) && isComplex() == other.isComplex()
+					&& sameValues(other) && other.sameValues(this);
 		}
+		return false;
+	}
 
-		/* (non-Javadoc)
-		 * @see java.lang.Object#equals(java.lang.Object)
-		 */
-		@Override
-		public boolean equals(Object o) {
-			if (o instanceof IndexMN) {
-				return m == ((IndexMN) o).m && n == ((IndexMN) o).n;
+	/** Whether the other array has the same values at every index stored in this one. */
+	private boolean sameValues(MLSparse other) {
+		for (int column = 0; column < getN(); column++) {
+			for (int i = jc[column]; i < jc[column + 1]; i++) {
+				if (!getReal(ir[i], column).equals(other.getReal(ir[i], column))) {
+					return false;
+				}
+				if (isComplex() && !getImaginary(ir[i], column).equals(other.getImaginary(ir[i], column))) {
+					return false;
+				}
 			}
-			return super.equals(o);
 		}
+		return true;
+	}
 
-		@Override
-		public int hashCode() {
-			return Arrays.hashCode(new int[]{m, n});
-		}
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(dims);
+	}
 
-		/* (non-Javadoc)
-		 * @see java.lang.Object#toString()
-		 */
-		@Override
-		public String toString() {
-			StringBuffer sb = new StringBuffer();
-			sb.append("{");
-			sb.append("m=" + m);
-			sb.append(", ");
-			sb.append("n=" + n);
-			sb.append("}");
-			return sb.toString();
+	/* (non-Javadoc)
+	 * @see com.paradigmdesigner.matlab.types.MLArray#contentToString()
+	 */
+	@Override
+	public String contentToString() {
+		StringBuffer sb = new StringBuffer();
+		sb.append(name + " = \n");
+
+		for (int column = 0; column < getN(); column++) {
+			for (int i = jc[column]; i < jc[column + 1]; i++) {
+				sb.append("\t(");
+				sb.append(ir[i] + "," + column);
+				sb.append(")");
+				sb.append("\t" + pr[i]);
+				if (isComplex()) {
+					sb.append("+" + pi[i]);
+				}
+				sb.append("\n");
+			}
 		}
+
+		return sb.toString();
 	}
 
 	@Override
@@ -0,0 +1,240 @@
+/*
+ * Code licensed under new-style BSD (see LICENSE).
+ * All code up to tags/original: Copyright (c) 2006, Wojciech Gradkowski
+ * All code after tags/original: Copyright (c) 2015, DiffPlug
+ */
+package com.jmatio.types;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Assembles an {@link MLSparse} from (row, column, value) triplets given in
+ * any order, like MATLAB's <code>sparse(i, j, v, m, n)</code>: values given
+ * more than once for the same element are summed.
+ * <p>
+ * The triplets are bucketed by column with a counting sort, then every
+ * column is sorted by row, which can be spread over an
+ * <code>ExecutorService</code>.  Building takes O(nnz log(nnz per column) + N)
+ * time, instead of the O(nnz) shifts per element of {@link MLSparse#set(Double, int, int)}.
+ * <p>
+ * Usage:
+ * <pre><code>
+ * MLSparseBuilder builder = new MLSparseBuilder("adjacency", 1000000, 1000000, false);
+ * for (Edge edge : edges) {
+ *     builder.add(edge.from, edge.to, edge.weight);
+ * }
+ * MLSparse adjacency = builder.build(executor);
+ * </code></pre>
+ *
+ * A builder is not thread-safe.
+ */
+public class MLSparseBuilder {
+	/** Minimum number of triplets sorted by a single task of {@link #build(ExecutorService)}. */
+	private static final int MIN_TASK_SIZE = 1 << 16;
+
+	private final String name;
+	private final int m;
+	private final int n;
+	private final boolean complex;
+
+	private int count;
+	private int[] rows = new int[16];
+	private int[] columns = new int[16];
+	private double[] real = new double[16];
+	private double[] imaginary;
+
+	/**
+	 * Creates a builder for an <code>m</code> x <code>n</code> sparse array.
+	 *
+	 * @param name - array name
+	 * @param m - number of rows
+	 * @param n - number of columns
+	 * @param complex - whether the array has an imaginary part
+	 */
+	public MLSparseBuilder(String name, int m, int n, boolean complex) {
+		this.name = name;
+		this.m = m;
+		this.n = n;
+		this.complex = complex;
+		if (complex) {
+			imaginary = new double[16];
+		}
+	}
+
+	/** Adds a real value at (row, column). */
+	public void add(int row, int column, double value) {
+		add(row, column, value, 0);
+	}
+
+	/** Adds a complex value at (row, column). */
+	public void add(int row, int column, double realValue, double imaginaryValue) {
+		if (row < 0 || row >= m || column < 0 || column >= n) {
+			throw new IndexOutOfBoundsException("(" + row + "," + column + ") is outside of the " + m + "x" + n + " array");
+		}
+		if (imaginaryValue != 0 && !complex) {
+			throw new IllegalArgumentException("Cannot add an imaginary value to a non-complex array");
+		}
+		if (count == rows.length) {
+			int capacity = count + (count >> 1);
+			rows = Arrays.copyOf(rows, capacity);
+			columns = Arrays.copyOf(columns, capacity);
+			real = Arrays.copyOf(real, capacity);
+			if (complex) {
+				imaginary = Arrays.copyOf(imaginary, capacity);
+			}
+		}
+		rows[count] = row;
+		columns[count] = column;
+		real[count] = realValue;
+		if (complex) {
+			imaginary[count] = imaginaryValue;
+		}
+		count++;
+	}
+
+	/** Returns the number of triplets added so far. */
+	public int size() {
+		return count;
+	}
+
+	/** Builds the sparse array in the calling thread. */
+	public MLSparse build() {
+		try {
+			return build(null);
+		} catch (InterruptedException e) {
+			// can't happen without an executor
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Builds the sparse array, sorting the columns on the given executor.
+	 * If a task fails, or the calling thread is interrupted, the remaining
+	 * tasks are cancelled and the failure is rethrown.
+	 *
+	 * @param executor - the executor to sort the columns on, or null to sort them in the calling thread
+	 * @throws InterruptedException if interrupted while waiting for the executor
+	 */
+	public MLSparse build(ExecutorService executor) throws InterruptedException {
+		// counting sort of the triplets by column; a key holds the row in its
+		// upper half and the index of the triplet in its lower half
+		final int[] jc = new int[n + 1];
+		for (int i = 0; i < count; i++) {
+			jc[columns[i] + 1]++;
+		}
+		for (int column = 0; column < n; column++) {
+			jc[column + 1] += jc[column];
+		}
+		final long[] keys = new long[count];
+		int[] next = Arrays.copyOf(jc, n);
+		for (int i = 0; i < count; i++) {
+			keys[next[columns[i]]++] = (long) rows[i] << 32 | i;
+		}
+
+		// sort every column by row and sum duplicates, in place
+		final int[] ir = new int[count];
+		final double[] pr = new double[count];
+		final double[] pi = complex ? new double[count] : null;
+		final int[] lengths = new int[n];
+		if (executor == null || count <= MIN_TASK_SIZE) {
+			sortColumns(jc, keys, ir, pr, pi, lengths, 0, n);
+		} else {
+			// ranges of whole columns holding about the same number of triplets
+			int taskSize = Math.max(MIN_TASK_SIZE, count / (4 * Runtime.getRuntime().availableProcessors()));
+			List<Future<Void>> tasks = new ArrayList<Future<Void>>();
+			try {
+				for (int start = 0; start < n;) {
+					int end = start + 1;
+					while (end < n && jc[end] - jc[start] < taskSize) {
+						end++;
+					}
+					final int from = start;
+					final int to = end;
+					start = end;
+					tasks.add(executor.submit(new Callable<Void>() {
+						@Override
+						public Void call() {
+							sortColumns(jc, keys, ir, pr, pi, lengths, from, to);
+							return null;
+						}
+					}));
+				}
+				for (Future<Void> task : tasks) {
+					try {
+						task.get();
+					} catch (ExecutionException e) {
+						Throwable cause = e.getCause();
+						if (cause instanceof RuntimeException) {
+							throw (RuntimeException) cause;
+						} else if (cause instanceof Error) {
+							throw (Error) cause;
+						}
+						throw new IllegalStateException(cause);
+					}
+				}
+			} finally {
+				for (Future<Void> task : tasks) {
+					task.cancel(true);
+				}
+			}
+		}
+
+		// close the gaps left by the summed duplicates
+		int nnz = 0;
+		for (int column = 0; column < n; column++) {
+			int start = jc[column];
+			jc[column] = nnz;
+			if (start != nnz) {
+				System.arraycopy(ir, start, ir, nnz, lengths[column]);
+				System.arraycopy(pr, start, pr, nnz, lengths[column]);
+				if (pi != null) {
+					System.arraycopy(pi, start, pi, nnz, lengths[column]);
+				}
+			}
+			nnz += lengths[column];
+		}
+		jc[n] = nnz;
+		if (nnz < count) {
+			return new MLSparse(name, new int[]{m, n}, complex ? MLArray.mtFLAG_COMPLEX : 0,
+					Arrays.copyOf(ir, nnz), jc, Arrays.copyOf(pr, nnz), pi == null ? null : Arrays.copyOf(pi, nnz));
+		}
+		return new MLSparse(name, new int[]{m, n}, complex ? MLArray.mtFLAG_COMPLEX : 0, ir, jc, pr, pi);
+	}
+
+	/**
+	 * Sorts the keys of the columns <code>from</code> to <code>to</code> and
+	 * writes their rows and summed values at the start of each column.
+	 */
+	private void sortColumns(int[] jc, long[] keys, int[] ir, double[] pr, double[] pi, int[] lengths, int from, int to) {
+		for (int column = from; column < to; column++) {
+			int start = jc[column];
+			int end = jc[column + 1];
+			Arrays.sort(keys, start, end);
+			int length = 0;
+			for (int k = start; k < end; k++) {
+				int row = (int) (keys[k] >>> 32);
+				int triplet = (int) keys[k];
+				if (length > 0 && ir[start + length - 1] == row) {
+					pr[start + length - 1] += real[triplet];
+					if (pi != null) {
+						pi[start + length - 1] += imaginary[triplet];
+					}
+				} else {
+					ir[start + length] = row;
+					pr[start + length] = real[triplet];
+					if (pi != null) {
+						pi[start + length] = imaginary[triplet];
+					}
+					length++;
+				}
+			}
+			lengths[column] = length;
+		}
+	}
+}
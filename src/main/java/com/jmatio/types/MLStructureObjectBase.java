@@ -8,29 +8,36 @@ package com.jmatio.types;
 import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
-import java.util.SortedMap;
-import java.util.TreeMap;
-
-import com.jmatio.common.DeterministicKeyMap;
 
 /**
  * Base class for MLStructure and MLObject.
  * 
  * Note: array of structures can contain only structures of the same type
  * , that means structures must have the same field names.
+ * <p>
+ * The values are stored by column: one <code>MLArray[]</code> per field,
+ * indexed by the structure's index in the array, rather than one map per
+ * structure.  {@link #getFields(int)} returns a view of one structure.
  */
 public abstract class MLStructureObjectBase extends MLArray {
 	/** A Set that keeps structure field names */
 	protected Set<String> keys = new LinkedHashSet<String>();
-	/** Array of structures */
-	protected SortedMap<Integer, DeterministicKeyMap<String, MLArray>> mlStructArray = new TreeMap<Integer, DeterministicKeyMap<String, MLArray>>();
+	/** Values of every field, in the order of <code>keys</code>, indexed by structure */
+	protected List<MLArray[]> columns = new ArrayList<MLArray[]>();
+	/** Position of every field in <code>columns</code> */
+	protected Map<String, Integer> ordinals = new HashMap<String, Integer>();
 	/** Current structure pointer for bulk insert */
 	protected int currentIndex = 0;
 
@@ -38,6 +45,94 @@ public abstract class MLStructureObjectBase extends MLArray {
 		super(name, dims, type, attributes);
 	}
 
+	/**
+	 * Adds a field, if it isn't there yet, and returns the array of its
+	 * values, indexed by structure.  This is the backing array, so it can be
+	 * filled directly; it is replaced if a structure beyond its end is set.
+	 * 
+	 * @param name - name of the field
+	 * @return the values of the field, <code>null</code> for structures where it isn't set
+	 */
+	public MLArray[] addField(String name) {
+		Integer ordinal = ordinals.get(name);
+		if (ordinal != null) {
+			return columns.get(ordinal);
+		}
+		MLArray[] column = new MLArray[columns.isEmpty() ? getSize() : columns.get(0).length];
+		keys.add(name);
+		ordinals.put(name, columns.size());
+		columns.add(column);
+		return column;
+	}
+
+	/**
+	 * Returns the ordinal of a field, which stays valid for the life of this
+	 * array and gives O(1) access to the field of any structure through
+	 * {@link #getField(int, int)} and {@link #setField(int, MLArray, int)}.
+	 * Fields are numbered from 0 in the order of {@link #getFieldNames()}.
+	 * <p>
+	 * Usage:
+	 * <pre><code>
+	 * int label = records.getFieldOrdinal("label");
+	 * for (int i = 0; i &lt; records.getSize(); i++) {
+	 *     MLChar value = (MLChar) records.getField(label, i);
+	 *     ...
+	 * }
+	 * </code></pre>
+	 * 
+	 * @param name - name of the field
+	 * @return the ordinal, or -1 if there is no such field
+	 */
+	public int getFieldOrdinal(String name) {
+		Integer ordinal = ordinals.get(name);
+		return ordinal == null ? -1 : ordinal;
+	}
+
+	/** Returns the number of fields. */
+	public int getFieldCount() {
+		return columns.size();
+	}
+
+	/**
+	 * Gets the value of the field with the given ordinal from index'th
+	 * struct in struct array.
+	 * 
+	 * @param ordinal - see {@link #getFieldOrdinal(String)}
+	 * @param index
+	 * @return value of the field or null if it isn't set
+	 */
+	public MLArray getField(int ordinal, int index) {
+		MLArray[] column = columns.get(ordinal);
+		return index < column.length ? column[index] : null;
+	}
+
+	/**
+	 * Sets the field with the given ordinal for index'th structure in struct
+	 * array.  Unlike the other setters, this does not move the current
+	 * structure pointer.
+	 * 
+	 * @param ordinal - see {@link #getFieldOrdinal(String)}
+	 * @param value - <code>MLArray</code> field value
+	 * @param index
+	 */
+	public void setField(int ordinal, MLArray value, int index) {
+		MLArray[] column = columns.get(ordinal);
+		if (index >= column.length) {
+			int length = Math.max(index + 1, column.length + (column.length >> 1));
+			for (int i = 0; i < columns.size(); i++) {
+				columns.set(i, Arrays.copyOf(columns.get(i), length));
+			}
+			column = columns.get(ordinal);
+		}
+		column[index] = value;
+	}
+
+	/** Stores the value, growing the columns if <code>index</code> is beyond their end. */
+	void put(String name, MLArray value, int index) {
+		addField(name);
+		setField(ordinals.get(name), value, index);
+	}
+
 	/**
 	 * Sets field for current structure
 	 * 
@@ -68,15 +163,8 @@ public abstract class MLStructureObjectBase extends MLArray {
 	 * @param index
 	 */
 	public void setField(String name, MLArray value, int index) {
-		keys.add(name);
 		currentIndex = index;
-
-		DeterministicKeyMap<String, MLArray> map = mlStructArray.get(index);
-		if (map == null) {
-			map = new DeterministicKeyMap<String, MLArray>(keys, new HashMap<String, MLArray>(keys.size()));
-			mlStructArray.put(index, map);
-		}
-		map.put(name, value);
+		put(name, value, index);
 	}
 
 	/**
@@ -126,8 +214,13 @@ public abstract class MLStructureObjectBase extends MLArray {
 	public Collection<MLArray> getAllFields() {
 		ArrayList<MLArray> fields = new ArrayList<MLArray>();
 
-		for (Map<String, MLArray> struct : mlStructArray.values()) {
-			fields.addAll(struct.values());
+		int length = columns.isEmpty() ? 0 : columns.get(0).length;
+		for (int index = 0; index < length; index++) {
+			for (MLArray[] column : columns) {
+				if (column[index] != null) {
+					fields.add(column[index]);
+				}
+			}
 		}
 		return fields;
 	}
@@ -151,9 +244,21 @@ public abstract class MLStructureObjectBase extends MLArray {
 		return getField(name, currentIndex);
 	}
 
-	/** Returns all the fields for the given index. */
+	/**
+	 * Returns all the fields for the given index, in field order, or null if
+	 * <code>i</code> is outside of the array or no field is set for it.  The
+	 * map is a view: it reflects later changes, and putting into it sets the field.
+	 */
 	public Map<String, MLArray> getFields(int i) {
-		return mlStructArray.get(i);
+		if (i < 0 || i >= getSize()) {
+			return null;
+		}
+		for (int ordinal = 0; ordinal < columns.size(); ordinal++) {
+			if (getField(ordinal, i) != null) {
+				return new Fields(i);
+			}
+		}
+		return null;
 	}
 
 	/**
@@ -178,10 +283,8 @@ public abstract class MLStructureObjectBase extends MLArray {
 	 * @return value of the field or null if the field doesn't exist
 	 */
 	public MLArray getField(String name, int index) {
-		if (mlStructArray.isEmpty()) {
-			return null;
-		}
-		return mlStructArray.get(index).get(name);
+		Integer ordinal = ordinals.get(name);
+		return ordinal == null ? null : getField(ordinal, index);
 	}
 
 	/* (non-Javadoc)
@@ -206,4 +309,117 @@ public abstract class MLStructureObjectBase extends MLArray {
 		return sb.toString();
 	}
 
+	/** The fields of one structure, read from the columns. */
+	private class Fields extends AbstractMap<String, MLArray> {
+		private final int index;
+
+		Fields(int index) {
+			this.index = index;
+		}
+
+		@Override
+		public MLArray get(Object key) {
+			return key instanceof String ? getField((String) key, index) : null;
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return get(key) != null;
+		}
+
+		@Override
+		public MLArray put(String key, MLArray value) {
+			MLArray previous = getField(key, index);
+			MLStructureObjectBase.this.put(key, value, index);
+			return previous;
+		}
+
+		@Override
+		public Set<Map.Entry<String, MLArray>> entrySet() {
+			return new AbstractSet<Map.Entry<String, MLArray>>() {
+				@Override
+				public Iterator<Map.Entry<String, MLArray>> iterator() {
+					// keys and columns are in the same order
+					final Iterator<String> names = keys.iterator();
+					return new Iterator<Map.Entry<String, MLArray>>() {
+						private int ordinal = -1;
+						private Map.Entry<String, MLArray> next = advance();
+
+						private Map.Entry<String, MLArray> advance() {
+							while (names.hasNext()) {
+								final String name = names.next();
+								final int fieldOrdinal = ++ordinal;
+								if (getField(fieldOrdinal, index) != null) {
+									return new Map.Entry<String, MLArray>() {
+										@Override
+										public String getKey() {
+											return name;
+										}
+
+										@Override
+										public MLArray getValue() {
+											return getField(fieldOrdinal, index);
+										}
+
+										@Override
+										public MLArray setValue(MLArray value) {
+											MLArray previous = getValue();
+											setField(fieldOrdinal, value, index);
+											return previous;
+										}
+
+										@Override
+										public boolean equals(Object o) {
+											if (!(o instanceof Map.Entry)) {
+												return false;
+											}
+											Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+											return name.equals(e.getKey()) && getValue().equals(e.getValue());
+										}
+
+										@Override
+										public int hashCode() {
+											return name.hashCode() ^ getValue().hashCode();
+										}
+									};
+								}
+							}
+							return null;
+						}
+
+						@Override
+						public boolean hasNext() {
+							return next != null;
+						}
+
+						@Override
+						public Map.Entry<String, MLArray> next() {
+							if (next == null) {
+								throw new NoSuchElementException();
+							}
+							Map.Entry<String, MLArray> result = next;
+							next = advance();
+							return result;
+						}
+
+						@Override
+						public void remove() {
+							throw new UnsupportedOperationException();
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					int size = 0;
+					for (MLArray[] column : columns) {
+						if (index < column.length && column[index] != null) {
+							size++;
+						}
+					}
+					return size;
+				}
+			};
+		}
+	}
 }
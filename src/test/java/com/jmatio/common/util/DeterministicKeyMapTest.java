@@ -85,4 +85,19 @@ public class DeterministicKeyMapTest {
 			}
 		}
 	}
+
+	@Test
+	public void testKeysMissingFromMap() {
+		Set<Integer> ordering = new LinkedHashSet<Integer>(Arrays.asList(4, 3, 2, 1));
+		Map<Integer, String> delegate = new LinkedHashMap<Integer, String>();
+		delegate.put(1, null);
+		delegate.put(3, "x");
+		delegate.put(2, "x");
+		DeterministicKeyMap<Integer, String> map = new DeterministicKeyMap<Integer, String>(ordering, delegate);
+
+		// keys which are only in the ordering are skipped, even when their missing value equals a present one
+		Assert.assertEquals(Arrays.asList(3, 2, 1), new ArrayList<Integer>(map.keySet()));
+		Assert.assertEquals(Arrays.asList("x", "x", null), new ArrayList<String>(map.values()));
+		Assert.assertEquals(3, new ArrayList<Map.Entry<Integer, String>>(map.entrySet()).size());
+	}
 }
@@ -0,0 +1,450 @@
+/*
+ * Code licensed under new-style BSD (see LICENSE).
+ * All code up to tags/original: Copyright (c) 2006, Wojciech Gradkowski
+ * All code after tags/original: Copyright (c) 2015, DiffPlug
+ */
+package com.jmatio.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.InflaterInputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.jmatio.types.MLArray;
+import com.jmatio.types.MLChar;
+import com.jmatio.types.MLDouble;
+import com.jmatio.types.MLInt32;
+import com.jmatio.types.MLNumericArray;
+import com.jmatio.types.MLObject;
+
+/**
+ * Tests for {@link MatFileLazyReader}.
+ */
+public class MatFileLazyReaderTest {
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	/** Loads a test file from the resources. */
+	private File getTestFile(String name) throws IOException {
+		File tempFile = temp.newFile(name.replace('/', '_'));
+		FileOutputStream fileOutput = new FileOutputStream(tempFile);
+		InputStream inputStream = MatFileLazyReaderTest.class.getResourceAsStream("/" + name);
+		byte[] buffer = new byte[1024];
+		int length = 0;
+		while ((length = inputStream.read(buffer)) != -1) {
+			fileOutput.write(buffer, 0, length);
+		}
+		fileOutput.close();
+		inputStream.close();
+		return tempFile;
+	}
+
+	@Test
+	public void testDirectory() throws IOException {
+		MLDouble mlDouble = new MLDouble("doublearr", new double[]{1.0, 2.0, 3.0, 4.0, 5.0, 6.0}, 3);
+		MLChar mlChar = new MLChar("chararr", "I am dummy");
+		List<MLArray> list = new ArrayList<MLArray>();
+		list.add(mlDouble);
+		list.add(mlChar);
+		File file = temp.newFile("lazy.mat");
+		new MatFileWriter(file, list);
+
+		MatFileLazyReader reader = new MatFileLazyReader(file);
+		try {
+			assertEquals(Arrays.asList("doublearr", "chararr"), reader.getVariableNames());
+
+			MatVariableInfo info = reader.getVariableInfo("doublearr");
+			assertEquals(MLArray.mxDOUBLE_CLASS, info.getType());
+			assertArrayEquals(new int[]{3, 2}, info.getDimensions());
+			assertTrue(info.isCompressed());
+			assertEquals(MLArray.mxCHAR_CLASS, reader.getVariableInfo("chararr").getType());
+			assertNull(reader.getVariableInfo("missing"));
+
+			assertEquals(mlDouble, reader.getMLArray("doublearr"));
+			assertEquals(mlChar, reader.getMLArray("chararr"));
+			assertNull(reader.getMLArray("missing"));
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void testScan() throws IOException {
+		MLDouble complex = new MLDouble("complexarr", new int[]{2, 3}, MLArray.mxDOUBLE_CLASS, MLArray.mtFLAG_COMPLEX);
+		MLDouble large = new MLDouble("largearr", new double[10000], 100);
+		List<MLArray> list = new ArrayList<MLArray>();
+		list.add(complex);
+		list.add(large);
+		File file = temp.newFile("scan.mat");
+		new MatFileWriter(file, list);
+
+		List<MatVariableInfo> infos = MatFileLazyReader.scan(file);
+		assertEquals(2, infos.size());
+		MatVariableInfo complexInfo = infos.get(0);
+		assertEquals("complexarr", complexInfo.getName());
+		assertTrue(complexInfo.isComplex());
+		assertFalse(complexInfo.isLogical());
+		assertFalse(complexInfo.isSparse());
+		assertArrayEquals(new int[]{2, 3}, complexInfo.getDimensions());
+
+		MatVariableInfo largeInfo = infos.get(1);
+		assertFalse(largeInfo.isComplex());
+		assertTrue(largeInfo.isCompressed());
+		// zeros compress well, the inflated matrix holds the 80000 bytes of data
+		assertTrue(largeInfo.getSize() < 1000);
+		assertTrue(largeInfo.getUncompressedSize() > 80000);
+
+		MatVariableInfo sparseInfo = MatFileLazyReader.scan(getTestFile("sparse.mat")).get(0);
+		assertTrue(sparseInfo.isSparse());
+		assertEquals(MLArray.mxSPARSE_CLASS, sparseInfo.getType());
+	}
+
+	@Test
+	public void testSameContentAsMatFileReader() throws IOException {
+		for (String name : new String[]{"cell.mat", "emptyname.mat", "simplestruct.mat", "sparse.mat", "multiDimComplexMatrix.mat"}) {
+			File file = getTestFile(name);
+			Map<String, MLArray> expected = new MatFileReader(file).getContent();
+
+			MatFileLazyReader reader = new MatFileLazyReader(file);
+			try {
+				Map<String, MLArray> actual = reader.getContent();
+				assertEquals(name, expected.keySet(), actual.keySet());
+				for (String key : expected.keySet()) {
+					assertEquals(name + ":" + key, expected.get(key).contentToString(), actual.get(key).contentToString());
+				}
+			} finally {
+				reader.close();
+			}
+		}
+	}
+
+	@Test
+	public void testMCOS() throws IOException {
+		MatFileLazyReader reader = new MatFileLazyReader(getTestFile("mcos/simplesingletext_multiple.mat"));
+		try {
+			MLObject obj = (MLObject) reader.getMLArray("obj1");
+			assertEquals("SimpleSingleText", obj.getClassName());
+			assertEquals("other text 1", ((MLChar) obj.getField("test_text")).getString(0));
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void testMappedUncompressed() throws IOException {
+		MLDouble mlDouble = new MLDouble("doublearr", new int[]{3, 2}, MLArray.mxDOUBLE_CLASS, MLArray.mtFLAG_COMPLEX);
+		for (int i = 0; i < 6; i++) {
+			mlDouble.setReal(i + 0.5, i);
+			mlDouble.setImaginary(-i * 2.0, i);
+		}
+		MLInt32 mlInt = new MLInt32("intarr", new int[][]{{1, -2}, {3, Integer.MAX_VALUE}});
+		MLChar mlChar = new MLChar("chararr", "I am dummy");
+		List<MLArray> list = new ArrayList<MLArray>();
+		list.add(mlDouble);
+		list.add(mlInt);
+		list.add(mlChar);
+		File compressed = temp.newFile("compressed.mat");
+		new MatFileWriter(compressed, list);
+		File file = temp.newFile("uncompressed.mat");
+		uncompress(compressed, file);
+
+		MatFileLazyReader reader = new MatFileLazyReader(file, MatFileType.Regular, new CompressionContext(), MatFileReader.MEMORY_MAPPED_FILE);
+		MLDouble readDouble;
+		try {
+			assertFalse(reader.getVariableInfo("doublearr").isCompressed());
+			readDouble = (MLDouble) reader.getMLArray("doublearr");
+			assertEquals(mlDouble, readDouble);
+			assertEquals(mlInt, reader.getMLArray("intarr"));
+			assertEquals(mlChar, reader.getMLArray("chararr"));
+			// backed by the mapped file rather than copied
+			for (ByteBuffer buf : new ByteBuffer[]{readDouble.getRealByteBuffer(), readDouble.getImaginaryByteBuffer(), ((MLNumericArray<?>) reader.getMLArray("intarr")).getRealByteBuffer()}) {
+				assertTrue(buf.isDirect());
+				assertTrue(buf.isReadOnly());
+			}
+		} finally {
+			reader.close();
+		}
+		// and still usable once the reader is closed
+		assertEquals(Double.valueOf(5.5), readDouble.getReal(5));
+		assertEquals(Double.valueOf(-10.0), readDouble.getImaginary(5));
+	}
+
+	@Test
+	public void testReadRegion() throws IOException {
+		int[] dims = {5, 4, 3};
+		MLDouble mlDouble = new MLDouble("doublearr", dims, MLArray.mxDOUBLE_CLASS, MLArray.mtFLAG_COMPLEX);
+		for (int i = 0; i < mlDouble.getSize(); i++) {
+			mlDouble.setReal(i + 0.5, i);
+			mlDouble.setImaginary(-i * 2.0, i);
+		}
+		MLInt32 mlInt = new MLInt32("intarr", new int[][]{{1, -2, 3}, {4, 5, -6}, {7, Integer.MAX_VALUE, 9}});
+		MLChar mlChar = new MLChar("chararr", "I am dummy");
+		List<MLArray> list = new ArrayList<MLArray>();
+		list.add(mlDouble);
+		list.add(mlInt);
+		list.add(mlChar);
+		File compressed = temp.newFile("region.mat");
+		new MatFileWriter(compressed, list);
+		File uncompressed = temp.newFile("region-v6.mat");
+		uncompress(compressed, uncompressed);
+
+		for (File file : new File[]{compressed, uncompressed}) {
+			MatFileLazyReader reader = new MatFileLazyReader(file);
+			try {
+				MLDouble region = (MLDouble) reader.readRegion("doublearr", new int[]{1, 1, 1}, new int[]{3, 2, 2});
+				assertArrayEquals(new int[]{3, 2, 2}, region.getDimensions());
+				assertTrue(region.isComplex());
+				for (int k = 0; k < 2; k++) {
+					for (int j = 0; j < 2; j++) {
+						for (int i = 0; i < 3; i++) {
+							int index = (i + 1) + (j + 1) * 5 + (k + 1) * 20;
+							int regionIndex = i + j * 3 + k * 6;
+							assertEquals(mlDouble.getReal(index), region.getReal(regionIndex));
+							assertEquals(mlDouble.getImaginary(index), region.getImaginary(regionIndex));
+						}
+					}
+				}
+				// whole columns are contiguous
+				assertEquals(mlDouble.getReal(0, 2), ((MLDouble) reader.readRegion("doublearr", new int[]{0, 0, 0}, new int[]{5, 4, 3})).getReal(0, 2));
+
+				MLInt32 intRegion = (MLInt32) reader.readRegion("intarr", 1, 2, 1, 2);
+				assertEquals(new MLInt32("intarr", new int[][]{{5, -6}, {Integer.MAX_VALUE, 9}}), intRegion);
+				assertEquals(0, reader.readRegion("intarr", 3, 0, 0, 3).getSize());
+				assertNull(reader.readRegion("missing", 0, 1, 0, 1));
+				try {
+					reader.readRegion("intarr", 2, 2, 0, 1);
+					fail();
+				} catch (IllegalArgumentException e) {
+					// outside of the array
+				}
+				try {
+					reader.readRegion("chararr", 0, 1, 0, 1);
+					fail();
+				} catch (IllegalArgumentException e) {
+					// not numeric
+				}
+			} finally {
+				reader.close();
+			}
+		}
+	}
+
+	@Test
+	public void testCompressedIndex() throws IOException {
+		// compressible data, which makes dynamic blocks, and random data, which makes stored blocks
+		int rows = 1000;
+		int columns = 300;
+		MLDouble smooth = new MLDouble("smooth", new int[]{rows, columns}, MLArray.mxDOUBLE_CLASS, MLArray.mtFLAG_COMPLEX);
+		MLInt32 noise = new MLInt32("noise", new int[]{rows, columns});
+		Random random = new Random(42);
+		for (int i = 0; i < rows * columns; i++) {
+			smooth.setReal(random.nextInt(100) * 0.5, i);
+			smooth.setImaginary((double) (i / 13), i);
+			noise.set(random.nextInt(), i);
+		}
+		List<MLArray> list = new ArrayList<MLArray>();
+		list.add(smooth);
+		list.add(noise);
+		File file = temp.newFile("indexed.mat");
+		new MatFileWriter(file, list);
+
+		MatFileLazyReader reader = new MatFileLazyReader(file);
+		try {
+			assertNull(reader.getIndex());
+		} finally {
+			reader.close();
+		}
+		MatCompressedIndex built = MatCompressedIndex.build(file, 1 << 16);
+		assertTrue(MatCompressedIndex.sidecarFor(file).isFile());
+
+		reader = new MatFileLazyReader(file);
+		try {
+			MatCompressedIndex index = reader.getIndex();
+			for (String name : new String[]{"smooth", "noise"}) {
+				MatVariableInfo info = reader.getVariableInfo(name);
+				List<MatCompressedIndex.AccessPoint> points = index.getAccessPoints(info);
+				assertTrue(name, points.size() > 10);
+				assertEquals(built.getAccessPoints(info).toString(), points.toString());
+			}
+
+			int[][] regions = {{0, rows, columns - 1, 1}, {17, 500, 150, 3}, {999, 1, 0, columns}, {0, rows, 0, columns}};
+			for (int[] region : regions) {
+				MLDouble smoothRegion = (MLDouble) reader.readRegion("smooth", region[0], region[1], region[2], region[3]);
+				MLInt32 noiseRegion = (MLInt32) reader.readRegion("noise", region[0], region[1], region[2], region[3]);
+				for (int j = 0; j < region[3]; j++) {
+					for (int i = 0; i < region[1]; i++) {
+						int m = region[0] + i;
+						int n = region[2] + j;
+						assertEquals(smooth.getReal(m, n), smoothRegion.getReal(i, j));
+						assertEquals(smooth.getImaginary(m, n), smoothRegion.getImaginary(i, j));
+						assertEquals(noise.get(m, n), noiseRegion.get(i, j));
+					}
+				}
+			}
+		} finally {
+			reader.close();
+		}
+
+		// a changed file no longer matches its index
+		assertTrue(file.setLastModified(file.lastModified() - 10000));
+		assertNull(MatCompressedIndex.load(file));
+	}
+
+	@Test
+	public void testCompressedIndexAfterSyncFlush() throws IOException {
+		// the parallel writer ends every block of deflate data with an empty stored block
+		int rows = 1000;
+		int columns = 1000;
+		MLDouble matrix = new MLDouble("matrix", new int[]{rows, columns});
+		Random random = new Random(7);
+		for (int i = 0; i < rows * columns; i++) {
+			matrix.set(random.nextInt(100) * 0.5, i);
+		}
+		File file = temp.newFile("flushed.mat");
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			new MatFileWriter().write(file, Arrays.asList((MLArray) matrix), executor);
+		} finally {
+			executor.shutdown();
+		}
+		MatCompressedIndex.build(file, 1 << 15);
+
+		MatFileLazyReader reader = new MatFileLazyReader(file);
+		try {
+			List<MatCompressedIndex.AccessPoint> points = reader.getIndex().getAccessPoints(reader.getVariableInfo("matrix"));
+			assertTrue(points.size() > 10);
+			// inflating resumes inside a byte, and crosses the stored blocks which follow
+			int unaligned = 0;
+			for (MatCompressedIndex.AccessPoint point : points) {
+				if ((point.getBitPosition() & 7) != 0) {
+					unaligned++;
+				}
+			}
+			assertTrue(unaligned > 0);
+			for (int start = 0; start < columns; start += 37) {
+				int count = Math.min(37, columns - start);
+				MLDouble region = (MLDouble) reader.readRegion("matrix", 0, rows, start, count);
+				for (int j = 0; j < count; j++) {
+					for (int i = 0; i < rows; i++) {
+						assertEquals(matrix.get(i, start + j), region.get(i, j));
+					}
+				}
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void testUnusableCompressedIndex() throws IOException {
+		MLDouble matrix = new MLDouble("matrix", new int[]{500, 200});
+		Random random = new Random(3);
+		for (int i = 0; i < matrix.getSize(); i++) {
+			matrix.set(random.nextInt(100) * 0.5, i);
+		}
+		File file = temp.newFile("unusable.mat");
+		new MatFileWriter(file, Arrays.asList((MLArray) matrix));
+		File sidecar = MatCompressedIndex.sidecarFor(file);
+
+		// a sidecar of another version is ignored like a stale one, and can be rebuilt
+		MatCompressedIndex.build(file, 1 << 15);
+		RandomAccessFile raFile = new RandomAccessFile(sidecar, "rw");
+		try {
+			raFile.seek(4);
+			raFile.writeInt(1);
+		} finally {
+			raFile.close();
+		}
+		assertNull(MatCompressedIndex.load(file));
+		assertReadable(file, matrix, false);
+		assertEquals(1, MatFileLazyReader.scan(file).size());
+		MatCompressedIndex.build(file, 1 << 15);
+		assertReadable(file, matrix, true);
+
+		// a corrupt sidecar throws when loaded, but the reader goes without it
+		raFile = new RandomAccessFile(sidecar, "rw");
+		try {
+			raFile.setLength(raFile.length() - 20);
+		} finally {
+			raFile.close();
+		}
+		try {
+			MatCompressedIndex.load(file);
+			fail();
+		} catch (IOException e) {
+			// corrupt
+		}
+		assertReadable(file, matrix, false);
+		MatCompressedIndex.build(file, 1 << 15);
+		assertReadable(file, matrix, true);
+	}
+
+	private static void assertReadable(File file, MLDouble matrix, boolean indexed) throws IOException {
+		MatFileLazyReader reader = new MatFileLazyReader(file);
+		try {
+			assertEquals(indexed, reader.getIndex() != null);
+			MLDouble region = (MLDouble) reader.readRegion("matrix", 0, matrix.getM(), matrix.getN() - 1, 1);
+			for (int i = 0; i < matrix.getM(); i++) {
+				assertEquals(matrix.get(i, matrix.getN() - 1), region.get(i, 0));
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	/** Rewrites a MAT-file with every <code>miCOMPRESSED</code> element inflated, like MATLAB's v6 format. */
+	private static void uncompress(File in, File out) throws IOException {
+		DataInputStream input = new DataInputStream(new FileInputStream(in));
+		DataOutputStream output = new DataOutputStream(new FileOutputStream(out));
+		try {
+			byte[] header = new byte[128];
+			input.readFully(header);
+			output.write(header);
+			while (input.available() > 0) {
+				int type = input.readInt();
+				byte[] element = new byte[input.readInt()];
+				input.readFully(element);
+				if (type == 15 /* miCOMPRESSED */) {
+					InputStream inflated = new InflaterInputStream(new ByteArrayInputStream(element));
+					byte[] buffer = new byte[1024];
+					int length;
+					while ((length = inflated.read(buffer)) != -1) {
+						output.write(buffer, 0, length);
+					}
+				} else {
+					output.writeInt(type);
+					output.writeInt(element.length);
+					output.write(element);
+				}
+			}
+		} finally {
+			input.close();
+			output.close();
+		}
+	}
+}
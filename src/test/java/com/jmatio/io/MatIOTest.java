@@ -5,27 +5,50 @@
  */
 package com.jmatio.io;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.InflaterInputStream;
 
 import org.junit.Assert;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
+import com.jmatio.common.MatDataTypes;
 import com.jmatio.types.MLArray;
 import com.jmatio.types.MLCell;
+import com.jmatio.types.MLCellStr;
 import com.jmatio.types.MLChar;
 import com.jmatio.types.MLDouble;
 import com.jmatio.types.MLInt32;
@@ -36,7 +59,10 @@ import com.jmatio.types.MLNumericArray;
 import com.jmatio.types.MLObject;
 import com.jmatio.types.MLSingle;
 import com.jmatio.types.MLSparse;
+import com.jmatio.types.MLSparseBuilder;
 import com.jmatio.types.MLStructure;
+import com.jmatio.types.MLUInt16;
+import com.jmatio.types.MLUInt32;
 import com.jmatio.types.MLUInt64;
 import com.jmatio.types.MLUInt8;
 
@@ -347,6 +373,613 @@ public class MatIOTest {
 		assertEquals("Test if only one array was red", 1, content.size());
 	}
 
+	/**
+	 * Test that arrays rejected by the filter are skipped without being inflated.
+	 */
+	@Test
+	public void testFilteredReadingSkipsInflation() throws IOException {
+		double[] src = new double[10000];
+		for (int i = 0; i < src.length; i++) {
+			src[i] = Math.sin(i);
+		}
+		MLDouble mlDouble = new MLDouble("doublearr", src, 100);
+		MLChar mlChar = new MLChar("dummy", "I am dummy");
+		ArrayList<MLArray> list = new ArrayList<MLArray>();
+		list.add(mlDouble);
+		list.add(mlChar);
+		File file = getTempFile("filterskip.mat");
+		new MatFileWriter(file, list);
+
+		// corrupt the zlib checksum at the end of the first variable, so inflating it fails
+		RandomAccessFile raFile = new RandomAccessFile(file, "rw");
+		try {
+			raFile.seek(128 + 4);
+			long end = 128 + 8 + raFile.readInt();
+			raFile.seek(end - 1);
+			int last = raFile.read();
+			raFile.seek(end - 1);
+			raFile.write(last ^ 0xff);
+		} finally {
+			raFile.close();
+		}
+
+		MatFileFilter filter = new MatFileFilter();
+		filter.addArrayName("dummy");
+		Map<String, MLArray> content = new MatFileReader(file, filter).getContent();
+		assertEquals(1, content.size());
+		assertEquals(mlChar, content.get("dummy"));
+	}
+
+	/**
+	 * Test that reading from a stream gives the same results as reading from a file.
+	 */
+	@Test
+	public void testStreamedReading() throws IOException {
+		for (String name : new String[]{"cell.mat", "emptyname.mat", "simplestruct.mat", "sparse.mat", "multiDimComplexMatrix.mat"}) {
+			Map<String, MLArray> expected = new MatFileReader(getTestFile(name)).getContent();
+
+			InputStream stream = MatIOTest.class.getResourceAsStream("/" + name);
+			Map<String, MLArray> actual;
+			try {
+				actual = new MatFileReader(stream, MatFileType.Regular).getContent();
+			} finally {
+				stream.close();
+			}
+			assertEquals(name, expected.keySet(), actual.keySet());
+			for (String key : expected.keySet()) {
+				assertEquals(name + ":" + key, expected.get(key).contentToString(), actual.get(key).contentToString());
+			}
+		}
+
+		// filtered out variables are skipped in the stream
+		MatFileFilter filter = new MatFileFilter();
+		filter.addArrayName("dummy");
+		ArrayList<MLArray> list = new ArrayList<MLArray>();
+		list.add(new MLDouble("doublearr", new double[]{1.3, 2.0, 3.0, 4.0, 5.0, 6.0}, 3));
+		list.add(new MLChar("dummy", "I am dummy"));
+		new MatFileWriter(getTempFile("streamfilter.mat"), list);
+		InputStream stream = new FileInputStream(getTempFile("streamfilter.mat"));
+		try {
+			Map<String, MLArray> content = new MatFileReader(stream, filter, MatFileType.Regular).getContent();
+			assertEquals(1, content.size());
+			assertEquals(list.get(1), content.get("dummy"));
+		} finally {
+			stream.close();
+		}
+	}
+
+	/**
+	 * Test that a large compressed array, inflated into a buffer of the size given by its tag, reads back identically.
+	 */
+	@Test
+	public void testLargeCompressedArray() throws IOException {
+		int m = 1000;
+		int n = 1500;
+		MLDouble large = new MLDouble("large", new int[]{m, n}, MLArray.mxDOUBLE_CLASS, MLArray.mtFLAG_COMPLEX);
+		Random random = new Random(8);
+		for (int i = 0; i < m * n; i++) {
+			large.setReal(Double.valueOf(i % 1000 == 0 ? random.nextDouble() : i / 7), i);
+			large.setImaginary(Double.valueOf(-i % 251), i);
+		}
+		List<MLArray> list = new ArrayList<MLArray>();
+		list.add(large);
+		File file = getTempFile("large-compressed.mat");
+		new MatFileWriter(file, list);
+		assertTrue(file.length() < 2L * 8 * m * n);
+
+		assertContent(list, new MatFileReader(file).getContent());
+		InputStream stream = new FileInputStream(file);
+		try {
+			assertContent(list, new MatFileReader(stream, MatFileType.Regular).getContent());
+		} finally {
+			stream.close();
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			assertContent(list, new MatFileReader().read(file, new MatFileFilter(), MatFileReader.MEMORY_MAPPED_FILE, executor));
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Test that an <code>miCOMPRESSED</code> element whose data ends before its matrix is reported instead of parsed.
+	 */
+	@Test
+	public void testTruncatedCompressedElement() throws IOException {
+		double[] values = new double[100000];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = i % 13;
+		}
+		File file = getTempFile("truncated.mat");
+		new MatFileWriter(file, Arrays.asList((MLArray) new MLDouble("values", values, 1)));
+		assertArrayEquals(values, ((MLDouble) new MatFileReader(file).getMLArray("values")).getArray()[0], 0.0);
+		byte[] bytes = readBytes(file);
+
+		// halve the element, and its size in the tag
+		ByteBuffer tag = ByteBuffer.wrap(bytes, 128, 8).order(bytes[126] == 'I' ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+		assertEquals(MatDataTypes.miCOMPRESSED, tag.getInt());
+		int size = tag.getInt() / 2;
+		tag.putInt(132, size);
+		File truncated = getTempFile("truncated-half.mat");
+		FileOutputStream out = new FileOutputStream(truncated);
+		try {
+			out.write(bytes, 0, 136 + size);
+		} finally {
+			out.close();
+		}
+
+		try {
+			new MatFileReader(truncated);
+			Assert.fail();
+		} catch (EOFException e) {
+			// expected
+		}
+		InputStream stream = new FileInputStream(truncated);
+		try {
+			new MatFileReader(stream, MatFileType.Regular);
+			Assert.fail();
+		} catch (EOFException e) {
+			// expected
+		} finally {
+			stream.close();
+		}
+	}
+
+	/**
+	 * Test that a kept compressed variable is checked against its Adler-32 checksum, and that a corrupt
+	 * inflated tag doesn't allocate the size it claims.
+	 */
+	@Test
+	public void testCorruptCompressedElement() throws IOException {
+		double[] values = new double[10000];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = i % 13;
+		}
+		File file = getTempFile("checksum.mat");
+		new MatFileWriter(file, Arrays.asList((MLArray) new MLDouble("values", values, 1)));
+		byte[] bytes = readBytes(file);
+		ByteOrder order = bytes[126] == 'I' ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+
+		// the checksum is the last 4 bytes of the element
+		bytes[bytes.length - 1] ^= 1;
+		File corrupt = getTempFile("checksum-corrupt.mat");
+		writeBytes(corrupt, bytes);
+		assertUnreadable(corrupt);
+		// a variable which is filtered out isn't inflated, nor checked
+		assertTrue(new MatFileReader(corrupt, new MatFileFilter(new String[]{"other"})).getContent().isEmpty());
+
+		// a tag claiming 2 GB, followed by a few bytes
+		ByteBuffer matrix = ByteBuffer.allocate(108).order(order);
+		matrix.putInt(MatDataTypes.miMATRIX);
+		matrix.putInt(Integer.MAX_VALUE - 64);
+		Deflater deflater = new Deflater();
+		deflater.setInput(matrix.array());
+		deflater.finish();
+		byte[] deflated = new byte[256];
+		int deflatedLength = deflater.deflate(deflated);
+		deflater.end();
+		ByteBuffer element = ByteBuffer.allocate(128 + 8 + deflatedLength).order(order);
+		element.put(bytes, 0, 128);
+		element.putInt(MatDataTypes.miCOMPRESSED);
+		element.putInt(deflatedLength);
+		element.put(deflated, 0, deflatedLength);
+		File huge = getTempFile("huge-tag.mat");
+		writeBytes(huge, element.array());
+		assertUnreadable(huge);
+	}
+
+	private static void writeBytes(File file, byte[] bytes) throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(bytes);
+		} finally {
+			out.close();
+		}
+	}
+
+	private static void assertUnreadable(File file) throws IOException {
+		try {
+			new MatFileReader(file);
+			Assert.fail();
+		} catch (MatlabIOException e) {
+			// expected
+		}
+		InputStream stream = new FileInputStream(file);
+		try {
+			new MatFileReader(stream, MatFileType.Regular);
+			Assert.fail();
+		} catch (MatlabIOException e) {
+			// expected
+		} finally {
+			stream.close();
+		}
+	}
+
+	/**
+	 * Test that a parallel read gives the same results, in the same order, as a sequential one.
+	 */
+	@Test
+	public void testParallelReading() throws IOException {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			for (String name : new String[]{"cell.mat", "emptyname.mat", "simplestruct.mat", "sparse.mat", "multiDimComplexMatrix.mat"}) {
+				File file = getTestFile(name);
+				Map<String, MLArray> expected = new MatFileReader(file).getContent();
+				Map<String, MLArray> actual = new MatFileReader().read(file, new MatFileFilter(), MatFileReader.HEAP_BYTE_BUFFER, executor);
+				assertEquals(name, new ArrayList<String>(expected.keySet()), new ArrayList<String>(actual.keySet()));
+				for (String key : expected.keySet()) {
+					assertEquals(name + ":" + key, expected.get(key).contentToString(), actual.get(key).contentToString());
+				}
+			}
+
+			// filtered reads
+			ArrayList<MLArray> list = new ArrayList<MLArray>();
+			for (int i = 0; i < 20; i++) {
+				list.add(new MLDouble("arr" + i, new double[]{i, 2 * i, 3 * i}, 1));
+			}
+			File file = getTempFile("parallel.mat");
+			new MatFileWriter(file, list);
+			MatFileFilter filter = new MatFileFilter(new String[]{"arr3", "arr17"});
+			Map<String, MLArray> content = new MatFileReader().read(file, filter, MatFileReader.MEMORY_MAPPED_FILE, executor);
+			assertEquals(Arrays.asList("arr3", "arr17"), new ArrayList<String>(content.keySet()));
+			assertEquals(list.get(17), content.get("arr17"));
+
+			// merging each variable before the next one is copied
+			for (int policy : new int[]{MatFileReader.HEAP_BYTE_BUFFER, MatFileReader.DIRECT_BYTE_BUFFER, MatFileReader.MEMORY_MAPPED_FILE}) {
+				content = new MatFileReader().read(file, new MatFileFilter(), policy, executor, 1);
+				assertEquals(list.size(), content.size());
+				assertContent(list, content);
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Test that a parallel write gives the same file as a sequential one, with little memory in flight.
+	 */
+	@Test
+	public void testParallelWriting() throws IOException {
+		ArrayList<MLArray> list = new ArrayList<MLArray>();
+		Random random = new Random(7);
+		for (int i = 0; i < 40; i++) {
+			double[] values = new double[random.nextInt(20000)];
+			for (int j = 0; j < values.length; j++) {
+				values[j] = random.nextInt(1000);
+			}
+			list.add(new MLDouble("arr" + i, values, 1));
+		}
+		list.add(new MLChar("text", "last"));
+		File expected = getTempFile("sequential.mat");
+		new MatFileWriter(expected, list);
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		CompressionContext context = new CompressionContext();
+		try {
+			File file = getTempFile("parallel-write.mat");
+			new MatFileWriter(context).write(file, list, executor, 200000);
+			assertArrayEquals(readWithoutText(expected), readWithoutText(file));
+			new MatFileWriter().write(file, list, executor);
+			assertArrayEquals(readWithoutText(expected), readWithoutText(file));
+			new MatFileWriter().write(file, list, null);
+			assertArrayEquals(readWithoutText(expected), readWithoutText(file));
+		} finally {
+			executor.shutdown();
+			context.close();
+		}
+	}
+
+	/**
+	 * Test that a large variable deflated in parallel blocks is a standard zlib stream.
+	 */
+	@Test
+	public void testParallelDeflate() throws IOException {
+		Random random = new Random(11);
+		double[] values = new double[800000];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = random.nextInt(100) * 0.5;
+		}
+		MLDouble big = new MLDouble("big", values, 1000);
+		List<MLArray> list = new ArrayList<MLArray>();
+		list.add(new MLChar("first", "before"));
+		list.add(big);
+		list.add(new MLChar("last", "after"));
+		File sequential = getTempFile("sequential-deflate.mat");
+		new MatFileWriter(sequential, list);
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			File file = getTempFile("parallel-deflate.mat");
+			new MatFileWriter().write(file, list, executor, 3 << 20);
+			if (ParallelDeflaterOutputStream.isSupported()) {
+				assertTrue(!Arrays.equals(readWithoutText(sequential), readWithoutText(file)));
+			}
+			Map<String, MLArray> content = new MatFileReader(file).getContent();
+			assertEquals(3, content.size());
+			assertEquals(big, content.get("big"));
+			assertEquals("after", ((MLChar) content.get("last")).getString(0));
+
+			// the scanner of the index crosses the flushed block boundaries
+			MatCompressedIndex.build(file, 1 << 18);
+			MatFileLazyReader lazy = new MatFileLazyReader(file);
+			try {
+				assertEquals(big, lazy.getMLArray("big"));
+				assertTrue(lazy.getIndex().getAccessPoints(lazy.getVariableInfo("big")).size() > 10);
+				MLDouble region = (MLDouble) lazy.readRegion("big", 3, 2, 700, 1);
+				assertEquals(values[700 * 1000 + 3], region.get(0), 0);
+				assertEquals(values[700 * 1000 + 4], region.get(1), 0);
+			} finally {
+				lazy.close();
+			}
+
+			if (ParallelDeflaterOutputStream.isSupported()) {
+				// the inflater checks the combined Adler-32
+				byte[] data = new byte[3 * ParallelDeflaterOutputStream.BLOCK_SIZE + 12345];
+				for (int i = 0; i < data.length; i++) {
+					data[i] = (byte) random.nextInt(16);
+				}
+				ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+				ParallelDeflaterOutputStream out = new ParallelDeflaterOutputStream(compressed, executor, Deflater.DEFAULT_COMPRESSION, Deflater.DEFAULT_STRATEGY, 0);
+				out.write(data, 0, 1000);
+				out.write(data[1000]);
+				out.write(data, 1001, data.length - 1001);
+				out.close();
+				InputStream in = new InflaterInputStream(new ByteArrayInputStream(compressed.toByteArray()));
+				ByteArrayOutputStream inflated = new ByteArrayOutputStream();
+				byte[] buffer = new byte[8192];
+				int n;
+				while ((n = in.read(buffer)) != -1) {
+					inflated.write(buffer, 0, n);
+				}
+				in.close();
+				assertArrayEquals(data, inflated.toByteArray());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Test writing with a deflate level and strategy, and without compression.
+	 */
+	@Test
+	public void testCompressionOptions() throws IOException {
+		int length = 30000;
+		MLDouble complex = new MLDouble("complex", new int[]{100, length / 100}, MLArray.mxDOUBLE_CLASS, MLArray.mtFLAG_COMPLEX);
+		for (int i = 0; i < length; i++) {
+			complex.setReal((double) (i % 97), i);
+			complex.setImaginary((double) -i, i);
+		}
+		byte[] bytes = new byte[20000];
+		new Random(3).nextBytes(bytes);
+		MLStructure struct = new MLStructure("struct", new int[]{1, 1});
+		struct.setField("values", new MLInt32(null, new int[]{1, 2, 3}, 1));
+		struct.setField("text", new MLChar(null, "nested"));
+		List<MLArray> list = new ArrayList<MLArray>();
+		list.add(complex);
+		list.add(new MLUInt8("bytes", bytes, 1));
+		list.add(new MLChar("text", "uncompressed"));
+		list.add(struct);
+		MLSparse sparse = new MLSparse("sparse", new int[]{3, 3}, 0, 2);
+		sparse.set(4.0, 1, 2);
+		list.add(sparse);
+
+		File expected = getTempFile("default-options.mat");
+		new MatFileWriter(expected, list);
+		CompressionContext context = new CompressionContext(1);
+		try {
+			File uncompressed = getTempFile("uncompressed.mat");
+			new MatFileWriter(context, CompressionOptions.UNCOMPRESSED).write(uncompressed, list);
+			assertTrue(uncompressed.length() > 8 * 2 * length + bytes.length);
+			ByteBuffer tag = ByteBuffer.wrap(readWithoutText(uncompressed), 128, 4);
+			assertEquals(MatDataTypes.miMATRIX, tag.getInt());
+			assertContent(list, new MatFileReader(uncompressed).getContent());
+			MatFileLazyReader lazy = new MatFileLazyReader(uncompressed);
+			try {
+				assertContent(list, lazy.getContent());
+			} finally {
+				lazy.close();
+			}
+
+			File incremental = getTempFile("uncompressed-incremental.mat");
+			MatFileIncrementalWriter writer = new MatFileIncrementalWriter(new FileOutputStream(incremental).getChannel(),
+					context, CompressionOptions.UNCOMPRESSED);
+			writer.write(list);
+			writer.close();
+			assertArrayEquals(readWithoutText(uncompressed), readWithoutText(incremental));
+
+			File fast = getTempFile("fast.mat");
+			new MatFileWriter(context, CompressionOptions.compressed(Deflater.BEST_SPEED, Deflater.HUFFMAN_ONLY)).write(fast, list);
+			assertTrue(fast.length() < uncompressed.length());
+			assertContent(list, new MatFileReader(fast).getContent());
+
+			// the pooled deflater goes back to the default level
+			File file = getTempFile("pooled-default.mat");
+			new MatFileWriter(context).write(file, list);
+			assertArrayEquals(readWithoutText(expected), readWithoutText(file));
+		} finally {
+			context.close();
+		}
+	}
+
+	/**
+	 * Test that adaptive options store the variables which don't shrink, and report it.
+	 */
+	@Test
+	public void testAdaptiveCompression() throws IOException {
+		byte[] noise = new byte[200000];
+		new Random(5).nextBytes(noise);
+		double[] smooth = new double[30000];
+		for (int i = 0; i < smooth.length; i++) {
+			smooth[i] = i % 97;
+		}
+		List<MLArray> list = new ArrayList<MLArray>();
+		list.add(new MLUInt8("noise", noise, 1));
+		list.add(new MLDouble("smooth", smooth, 1));
+		list.add(new MLChar("text", "small"));
+		list.add(new MLUInt8("tiny", new byte[]{1, 2, 3}, 1));
+
+		final List<String> decisions = new ArrayList<String>();
+		CompressionOptions options = CompressionOptions.adaptive(Deflater.DEFAULT_COMPRESSION, Deflater.DEFAULT_STRATEGY,
+				CompressionOptions.DEFAULT_MAX_RATIO, new CompressionOptions.Listener() {
+					@Override
+					public void decided(String name, long size, double sampledRatio, boolean compressed) {
+						decisions.add(name + (Double.isNaN(sampledRatio) ? "" : sampledRatio > 0.9 ? " noisy" : " smooth") + (compressed ? " compressed" : " stored"));
+					}
+				});
+		List<String> expected = Arrays.asList("noise noisy stored", "smooth smooth compressed", "text compressed", "tiny compressed");
+
+		File file = getTempFile("adaptive.mat");
+		new MatFileWriter(new CompressionContext(), options).write(file, list);
+		assertEquals(expected, decisions);
+		assertContent(list, new MatFileReader(file).getContent());
+		MatFileLazyReader lazy = new MatFileLazyReader(file);
+		try {
+			assertTrue(!lazy.getVariableInfo("noise").isCompressed());
+			assertTrue(lazy.getVariableInfo("smooth").isCompressed());
+			assertTrue(lazy.getVariableInfo("text").isCompressed());
+			assertContent(list, lazy.getContent());
+		} finally {
+			lazy.close();
+		}
+
+		decisions.clear();
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			File parallel = getTempFile("adaptive-parallel.mat");
+			new MatFileWriter(CompressionContext.NONE, options).write(parallel, list, executor);
+			assertEquals(expected, decisions);
+			assertArrayEquals(readWithoutText(file), readWithoutText(parallel));
+		} finally {
+			executor.shutdown();
+		}
+
+		decisions.clear();
+		File incremental = getTempFile("adaptive-incremental.mat");
+		MatFileIncrementalWriter writer = new MatFileIncrementalWriter(new FileOutputStream(incremental).getChannel(),
+				CompressionContext.NONE, options);
+		writer.write(list);
+		writer.close();
+		assertEquals(expected, decisions);
+		assertArrayEquals(readWithoutText(file), readWithoutText(incremental));
+	}
+
+	private static void assertContent(List<MLArray> expected, Map<String, MLArray> content) {
+		assertEquals(expected.size(), content.size());
+		for (MLArray array : expected) {
+			MLArray actual = content.get(array.getName());
+			if (array instanceof MLStructure) {
+				for (String field : ((MLStructure) array).getFieldNames()) {
+					assertEquals(((MLStructure) array).getField(field), ((MLStructure) actual).getField(field));
+				}
+			} else {
+				assertEquals(array, actual);
+			}
+		}
+	}
+
+	/**
+	 * Test that the children of a single large cell or structure are parsed in parallel like sequentially.
+	 */
+	@Test
+	public void testParallelChildren() throws IOException {
+		MLCell cell = new MLCell("big", new int[]{1, 400});
+		MLCell strings = new MLCell("", new int[]{2000, 1});
+		for (int i = 0; i < 2000; i++) {
+			strings.set(new MLChar("", "label " + i), i);
+		}
+		cell.set(strings, 0);
+		for (int i = 1; i < 400; i++) {
+			double[] values = new double[500];
+			Arrays.fill(values, i);
+			cell.set(new MLDouble("", values, 1), i);
+		}
+		MLStructure struct = new MLStructure("records", new int[]{300, 1});
+		for (int i = 0; i < 300; i++) {
+			struct.setField("values", new MLDouble(null, new double[600], 1), i);
+			struct.setField("label", new MLChar(null, "record " + i), i);
+		}
+		File file = getTempFile("bigcell.mat");
+		new MatFileWriter(file, Arrays.asList((MLArray) cell, struct));
+
+		// fewer threads than tasks, with a nested cell of its own
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			MatFileReader reader = new MatFileReader();
+			reader.setCellStrings(true);
+			Map<String, MLArray> content = reader.read(file, new MatFileFilter(), MatFileReader.HEAP_BYTE_BUFFER, executor);
+			MLCell readCell = (MLCell) content.get("big");
+			assertEquals(400, readCell.getSize());
+			assertEquals(2000, ((MLCellStr) readCell.get(0)).getSize());
+			assertEquals("label 1999", ((MLCellStr) readCell.get(0)).getString(1999));
+			for (int i = 1; i < 400; i++) {
+				assertEquals(cell.get(i), readCell.get(i));
+			}
+			MLStructure readStruct = (MLStructure) content.get("records");
+			for (int i = 0; i < 300; i++) {
+				assertEquals(struct.getFields(i), readStruct.getFields(i));
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Test that numeric arrays are stored in native byte order and converted on put.
+	 */
+	@Test
+	public void testNativeByteOrder() throws IOException {
+		MLInt32 mlInt = new MLInt32("intarr", new int[]{2, 2});
+		assertEquals(ByteOrder.nativeOrder(), mlInt.getRealByteBuffer().order());
+
+		ByteBuffer bigEndian = ByteBuffer.allocate(16).order(ByteOrder.BIG_ENDIAN);
+		bigEndian.putInt(1).putInt(-2).putInt(3).putInt(Integer.MAX_VALUE).flip();
+		mlInt.putRealByteBuffer(bigEndian);
+		assertEquals(Integer.valueOf(-2), mlInt.get(1));
+		assertEquals(Integer.valueOf(Integer.MAX_VALUE), mlInt.get(3));
+
+		MLSingle mlSingle = new MLSingle("singlearr", new Float[]{1.5f, -2.25f, 3f}, 3);
+		ArrayList<MLArray> list = new ArrayList<MLArray>();
+		list.add(mlInt);
+		list.add(mlSingle);
+		new MatFileWriter(getTempFile("byteorder.mat"), list);
+		Map<String, MLArray> content = new MatFileReader(getTempFile("byteorder.mat")).getContent();
+		assertEquals(mlInt, content.get("intarr"));
+		assertEquals(mlSingle, content.get("singlearr"));
+		assertEquals(Float.valueOf(-2.25f), ((MLSingle) content.get("singlearr")).get(1));
+	}
+
+	@Test
+	public void testCompressionContext() throws IOException {
+		ArrayList<MLArray> list = new ArrayList<MLArray>();
+		list.add(new MLDouble("doublearr", new double[]{1.3, 2.0, 3.0, 4.0, 5.0, 6.0}, 3));
+		list.add(new MLChar("chararr", "I am dummy"));
+
+		CompressionContext context = new CompressionContext(1);
+		try {
+			// the same deflaters, inflaters and buffers serve every file
+			for (int i = 0; i < 3; i++) {
+				File file = getTempFile("context" + i + ".mat");
+				new MatFileWriter(context).write(file, list);
+				MatFileIncrementalWriter incremental = new MatFileIncrementalWriter(new FileOutputStream(getTempFile("incremental" + i + ".mat")).getChannel(), context);
+				incremental.write(list);
+				incremental.close();
+
+				for (File written : new File[]{file, getTempFile("incremental" + i + ".mat")}) {
+					MatFileReader reader = new MatFileReader(MatFileType.Regular, context);
+					Map<String, MLArray> content = reader.read(written);
+					assertEquals(list.get(0), content.get("doublearr"));
+					assertEquals(list.get(1), content.get("chararr"));
+				}
+			}
+		} finally {
+			context.close();
+		}
+		// a closed context still works, it just stops pooling
+		assertEquals(list.get(0), new MatFileReader(MatFileType.Regular, context).read(getTempFile("context0.mat")).get("doublearr"));
+	}
+
 	/**
 	 * Test <code>MatFileFilter</code> options
 	 */
@@ -473,6 +1106,11 @@ public class MatIOTest {
 		assertEquals("\u017C\u00F3\u0142w", mlChar.getString(0));
 		assertEquals("\u017C\u00F3\u0142w", mlChar2.getString(0));
 		assertEquals("\u017C\u00F3\u0142i", mlChar2.getString(1));
+
+		MatFileIncrementalWriter incremental = new MatFileIncrementalWriter(getTempFile("incremental" + fileName));
+		incremental.write(mlChar);
+		incremental.close();
+		assertEquals(mlChar, new MatFileReader(getTempFile("incremental" + fileName)).getMLArray(name));
 	}
 
 	/**
@@ -589,6 +1227,53 @@ public class MatIOTest {
 		assertTrue(fieldNames.contains("f2"));
 	}
 
+	@Test
+	public void testMLStructureArrayColumns() throws IOException {
+		int size = 1000;
+		MLStructure records = new MLStructure("records", new int[]{1, size});
+		for (int i = 0; i < size; i++) {
+			records.setField("id", new MLDouble(null, new double[]{i}, 1), i);
+			records.setField("label", new MLChar(null, "record " + i), i);
+		}
+		// a field added later, filled through its column
+		MLArray[] weights = records.addField("weight");
+		for (int i = 0; i < size; i++) {
+			weights[i] = new MLDouble(null, new double[]{i / 2.0}, 1);
+		}
+
+		Map<String, MLArray> fields = records.getFields(7);
+		assertEquals(Arrays.asList("id", "label", "weight"), new ArrayList<String>(fields.keySet()));
+		assertEquals("record 7", ((MLChar) fields.get("label")).getString(0));
+		fields.put("label", new MLChar(null, "seven"));
+		assertEquals("seven", ((MLChar) records.getField("label", 7)).getString(0));
+		assertEquals(3 * size, records.getAllFields().size());
+		assertEquals(null, records.getField("missing", 7));
+		// like before the column storage, there are no fields outside of the array or for unset structures
+		assertEquals(null, records.getFields(size));
+		assertEquals(null, records.getFields(-1));
+		MLStructure partial = new MLStructure("partial", new int[]{1, 2});
+		partial.setField("id", new MLDouble(null, new double[]{1}, 1), 0);
+		assertEquals(null, partial.getFields(1));
+
+		// ordinals resolve a field name once
+		int label = records.getFieldOrdinal("label");
+		assertEquals(1, label);
+		assertEquals(-1, records.getFieldOrdinal("missing"));
+		assertEquals(3, records.getFieldCount());
+		assertEquals("record 8", ((MLChar) records.getField(label, 8)).getString(0));
+		records.setField(label, new MLChar(null, "eight"), 8);
+		assertEquals("eight", ((MLChar) records.getField("label", 8)).getString(0));
+
+		new MatFileWriter(getTempFile("records.mat"), Arrays.asList((MLArray) records));
+		MLStructure read = (MLStructure) new MatFileReader(getTempFile("records.mat")).getMLArray("records");
+		assertEquals(records.getFieldNames(), read.getFieldNames());
+		for (int i = 0; i < size; i++) {
+			assertEquals(records.getFields(i), read.getFields(i));
+		}
+		// like setting every field in turn, reading leaves the current structure on the last one
+		assertEquals("record " + (size - 1), ((MLChar) read.getField("label")).getString(0));
+	}
+
 	/**
 	 * Tests <code>MLUint8</code> reading and writing.
 	 * 
@@ -690,6 +1375,289 @@ public class MatIOTest {
 		}
 	}
 
+	/**
+	 * Tests <code>MLSparse</code> arrays whose linear indices overflow an int,
+	 * created from their CSC arrays.
+	 */
+	@Test
+	public void testMLSparseLargeDimensions() throws IOException {
+		int size = 100000;
+		int[] jc = new int[size + 1];
+		// one element in the first column and two in the last
+		jc[1] = 1;
+		Arrays.fill(jc, 2, size, 1);
+		jc[size] = 3;
+		MLSparse mlSparse = new MLSparse("bigsparse", new int[]{size, size}, 0, new int[]{7, 0, size - 1}, jc, new double[]{1.5, 2.5, 3.5}, null);
+		assertEquals(3, mlSparse.getNonZeroCount());
+		assertEquals(Double.valueOf(3.5), mlSparse.get(size - 1, size - 1));
+		assertEquals(Double.valueOf(0.0), mlSparse.get(size - 2, size - 1));
+
+		// inserting keeps the columns sorted
+		mlSparse.set(4.5, 3, 1);
+		assertArrayEquals(new int[]{7, 3, 0, size - 1}, mlSparse.getIR());
+		assertArrayEquals(new double[]{1.5, 4.5, 2.5, 3.5}, mlSparse.getPR(), 0.0);
+
+		ArrayList<MLArray> list = new ArrayList<MLArray>();
+		list.add(mlSparse);
+		new MatFileWriter(getTempFile("bigsparse.mat"), list);
+		MLSparse read = (MLSparse) new MatFileReader(getTempFile("bigsparse.mat")).getMLArray("bigsparse");
+		assertEquals(mlSparse, read);
+		assertEquals(Double.valueOf(4.5), read.get(3, 1));
+		assertEquals(Double.valueOf(2.5), read.get(0, size - 1));
+
+		// there is no dense buffer of 10^10 doubles to hand out
+		try {
+			read.getRealByteBuffer();
+			Assert.fail();
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+		try {
+			read.putRealByteBuffer(ByteBuffer.allocate(8));
+			Assert.fail();
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+		assertEquals(4, read.getPRBuffer().remaining());
+	}
+
+	@Test
+	public void testMLCellStr() throws Exception {
+		String[] values = new String[]{"alpha", "", "\u017C\u00F3\u0142w", "b", "gamma delta"};
+		MLCell cell = new MLCell("labels", new int[]{values.length, 1});
+		for (int i = 0; i < values.length; i++) {
+			// MATLAB's '' is 0 x 0
+			cell.set(values[i].isEmpty() ? new MLChar("", new int[]{0, 0}, MLArray.mxCHAR_CLASS, 0) : new MLChar("", values[i]), i);
+		}
+		MLCell mixed = new MLCell("mixed", new int[]{1, 3});
+		mixed.set(new MLChar("", "first"), 0);
+		mixed.set(new MLChar("", "second"), 1);
+		mixed.set(new MLDouble("", new double[]{1.0}, 1), 2);
+		new MatFileWriter(getTempFile("cellstr.mat"), Arrays.asList((MLArray) cell, mixed));
+
+		// a cell of strings is read into a character pool when asked to
+		assertTrue(!(new MatFileReader(getTempFile("cellstr.mat")).getMLArray("labels") instanceof MLCellStr));
+		MatFileReader reader = new MatFileReader();
+		reader.setCellStrings(true);
+		reader.read(getTempFile("cellstr.mat"));
+		MLCellStr labels = (MLCellStr) reader.getMLArray("labels");
+		assertArrayEquals(values, labels.getStrings());
+		assertEquals("gamma delta", labels.getCharSequence(4).toString());
+		assertEquals("\u017C\u00F3\u0142w", ((MLChar) labels.get(2)).getString(0));
+		assertTrue(labels.get(1).isEmpty());
+
+		// any other cell makes it a plain cell array
+		MLCell readMixed = (MLCell) reader.getMLArray("mixed");
+		assertTrue(!(readMixed instanceof MLCellStr));
+		assertEquals("first", ((MLChar) readMixed.get(0)).getString(0));
+		assertEquals("second", ((MLChar) readMixed.get(1)).getString(0));
+		assertEquals(1.0, ((MLDouble) readMixed.get(2)).get(0), 0.0);
+
+		labels.set("replaced", 1);
+		labels.set(new MLChar("", "x"), 3);
+		new MatFileWriter(getTempFile("cellstr2.mat"), Arrays.asList((MLArray) labels));
+		MatFileIncrementalWriter incremental = new MatFileIncrementalWriter(getTempFile("cellstr3.mat"));
+		incremental.write(labels);
+		incremental.close();
+		for (String fileName : new String[]{"cellstr2.mat", "cellstr3.mat"}) {
+			reader = new MatFileReader();
+			reader.setCellStrings(true);
+			MLCellStr read = (MLCellStr) reader.read(getTempFile(fileName)).get("labels");
+			assertEquals(labels, read);
+			assertArrayEquals(new String[]{"alpha", "replaced", "\u017C\u00F3\u0142w", "x", "gamma delta"}, read.getStrings());
+		}
+	}
+
+	/**
+	 * Test that only 1 x N and 0 x 0 char arrays go into an MLCellStr, so other empty strings keep their dimensions.
+	 */
+	@Test
+	public void testCellStringDimensions() throws Exception {
+		MLCell strings = new MLCell("strings", new int[]{1, 2});
+		strings.set(new MLChar("", "abc"), 0);
+		strings.set(new MLChar("", new int[]{0, 0}, MLArray.mxCHAR_CLASS, 0), 1);
+		MLCell row = new MLCell("row", new int[]{1, 3});
+		row.set(new MLChar("", "abc"), 0);
+		row.set(new MLChar("", new int[]{0, 0}, MLArray.mxCHAR_CLASS, 0), 1);
+		row.set(new MLChar("", new int[]{1, 0}, MLArray.mxCHAR_CLASS, 0), 2);
+		MLCell column = new MLCell("column", new int[]{1, 1});
+		column.set(new MLChar("", new int[]{0, 5}, MLArray.mxCHAR_CLASS, 0), 0);
+		File file = getTempFile("cellstr-dims.mat");
+		new MatFileWriter(file, Arrays.asList((MLArray) strings, row, column));
+
+		for (boolean cellStrings : new boolean[]{false, true}) {
+			MatFileReader reader = new MatFileReader();
+			reader.setCellStrings(cellStrings);
+			Map<String, MLArray> content = reader.read(file);
+			assertEquals(cellStrings, content.get("strings") instanceof MLCellStr);
+			assertArrayEquals(new int[]{0, 0}, ((MLCell) content.get("strings")).get(1).getDimensions());
+
+			// the 1 x 0 char makes a plain cell, which keeps the earlier cells as they were
+			MLCell readRow = (MLCell) content.get("row");
+			assertTrue(!(readRow instanceof MLCellStr));
+			assertEquals("abc", ((MLChar) readRow.get(0)).getString(0));
+			assertArrayEquals(new int[]{0, 0}, readRow.get(1).getDimensions());
+			assertArrayEquals(new int[]{1, 0}, readRow.get(2).getDimensions());
+			MLCell readColumn = (MLCell) content.get("column");
+			assertTrue(!(readColumn instanceof MLCellStr));
+			assertArrayEquals(new int[]{0, 5}, readColumn.get(0).getDimensions());
+		}
+	}
+
+	/**
+	 * Test that a cell array of strings read by default can be modified like any cell array, and an MLCellStr refuses loudly.
+	 */
+	@Test
+	public void testModifyReadCell() throws Exception {
+		MLCell cell = new MLCell("labels", new int[]{3, 1});
+		for (int i = 0; i < 3; i++) {
+			cell.set(new MLChar("", "label " + i), i);
+		}
+		File file = getTempFile("modify-cell.mat");
+		new MatFileWriter(file, Arrays.asList((MLArray) cell));
+
+		MLCell read = (MLCell) new MatFileReader(file).getMLArray("labels");
+		assertTrue(!(read instanceof MLCellStr));
+		read.set(new MLDouble("", new double[]{42}, 1), 0);
+		read.cells().set(1, new MLChar("", "from list"));
+		MLChar third = (MLChar) read.get(2);
+		third.setChar('L', 0);
+		File modified = getTempFile("modified-cell.mat");
+		new MatFileWriter(modified, Arrays.asList((MLArray) read));
+		MLCell reread = (MLCell) new MatFileReader(modified).getMLArray("labels");
+		assertEquals(42.0, ((MLDouble) reread.get(0)).get(0), 0.0);
+		assertEquals("from list", ((MLChar) reread.get(1)).getString(0));
+		assertEquals("Label 2", ((MLChar) reread.get(2)).getString(0));
+
+		MatFileReader reader = new MatFileReader();
+		reader.setCellStrings(true);
+		MLCellStr strings = (MLCellStr) reader.read(file).get("labels");
+		try {
+			strings.cells().set(1, new MLChar("", "lost"));
+			Assert.fail();
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+		try {
+			strings.set(new MLDouble("", new double[]{42}, 1), 0);
+			Assert.fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		assertEquals("label 1", strings.getString(1));
+
+		// since Java 8, Collections.sort sorts an ArrayList in place without calling set
+		ArrayList<MLArray> cells = strings.cells();
+		try {
+			Collections.sort(cells, new Comparator<MLArray>() {
+				@Override
+				public int compare(MLArray a, MLArray b) {
+					return ((MLChar) b).getString(0).compareTo(((MLChar) a).getString(0));
+				}
+			});
+			cells.get(0);
+			Assert.fail();
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+		assertEquals("label 1", strings.getString(1));
+	}
+
+	@Test
+	public void testMLSparseBuilder() throws Exception {
+		int m = 300;
+		int n = 200;
+		// enough triplets to be sorted by several tasks, with many duplicates
+		double[][] expected = new double[m][n];
+		MLSparseBuilder builder = new MLSparseBuilder("built", m, n, true);
+		Random random = new Random(42);
+		for (int i = 0; i < 200000; i++) {
+			int row = random.nextInt(m);
+			int column = random.nextInt(n / 2) * 2;
+			builder.add(row, column, 1, 0.5);
+			expected[row][column] += 1;
+		}
+		assertEquals(200000, builder.size());
+
+		MLSparse sequential = builder.build();
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		MLSparse parallel;
+		try {
+			parallel = builder.build(executor);
+		} finally {
+			executor.shutdown();
+		}
+		assertEquals(sequential, parallel);
+		assertArrayEquals(sequential.getJC(), parallel.getJC());
+
+		// the failure of a task is rethrown as it is, and the other tasks are cancelled
+		final List<Future<?>> held = new ArrayList<Future<?>>();
+		ExecutorService failing = new AbstractExecutorService() {
+			@Override
+			protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+				return new FutureTask<T>(new Callable<T>() {
+					@Override
+					public T call() {
+						throw new IllegalStateException("task failed");
+					}
+				});
+			}
+
+			@Override
+			public void execute(Runnable command) {
+				if (held.isEmpty()) {
+					command.run();
+				}
+				held.add((Future<?>) command);
+			}
+
+			@Override
+			public void shutdown() {}
+
+			@Override
+			public List<Runnable> shutdownNow() {
+				return new ArrayList<Runnable>();
+			}
+
+			@Override
+			public boolean isShutdown() {
+				return false;
+			}
+
+			@Override
+			public boolean isTerminated() {
+				return false;
+			}
+
+			@Override
+			public boolean awaitTermination(long timeout, TimeUnit unit) {
+				return false;
+			}
+		};
+		try {
+			builder.build(failing);
+			Assert.fail();
+		} catch (IllegalStateException e) {
+			assertEquals("task failed", e.getMessage());
+		}
+		assertTrue(held.size() > 1);
+		for (Future<?> task : held.subList(1, held.size())) {
+			assertTrue(task.isCancelled());
+		}
+		assertEquals(sequential.getNonZeroCount(), sequential.getMaxNZ());
+		for (int row = 0; row < m; row++) {
+			for (int column = 0; column < n; column++) {
+				assertEquals(expected[row][column], sequential.getReal(row, column), 0.0);
+				assertEquals(expected[row][column] / 2, sequential.getImaginary(row, column), 0.0);
+			}
+		}
+
+		ArrayList<MLArray> list = new ArrayList<MLArray>();
+		list.add(parallel);
+		new MatFileWriter(getTempFile("built.mat"), list);
+		assertEquals(parallel, new MatFileReader(getTempFile("built.mat")).getMLArray("built"));
+	}
+
 	/**
 	 * Regression bug
 	 * 
@@ -817,6 +1785,79 @@ public class MatIOTest {
 		assertEquals("Test if value red from file equals value stored", m3, mfr.getMLArray("m3"));
 	}
 
+	/**
+	 * Tests that nested arrays of every class are written the same through a
+	 * file channel and through any other channel, by both writers.
+	 */
+	@Test
+	public void testWriteNestedArrays() throws IOException {
+		MLStructure inner = new MLStructure("inner", new int[]{1, 2});
+		inner.setField("text", new MLChar(null, "caf\u00e9 \ud83d\ude00 \ud800 lone"), 0);
+		inner.setField("single", new MLSingle(null, new Float[]{1.5f, -2f}, 1), 0);
+		inner.setField("text", new MLChar(null, "x"), 1);
+		inner.setField("single", new MLUInt16(null, new int[]{1, 2}), 1);
+		MLCell cell = new MLCell(null, new int[]{1, 4});
+		cell.set(inner, 0);
+		cell.set(new MLInt32(null, new int[][]{{1, -2}, {3, 4}}), 1);
+		cell.set(new MLUInt32(null, new int[][]{{1, 2, 3}}), 2);
+		// the last cell is left empty
+		MLStructure outer = new MLStructure("outer", new int[]{1, 1});
+		outer.setField("cell", cell);
+		outer.setField("strings", new MLCellStr(null, new String[]{"a", "", "\u20ac\ud83d\ude00"}));
+		outer.setField("sparse", new MLSparse(null, new int[]{3, 3}, 0, 2));
+		List<MLArray> list = new ArrayList<MLArray>();
+		list.add(outer);
+		list.add(new MLInt8("small", new byte[]{1, 2, 3}, 1));
+
+		File file = getTempFile("nested.mat");
+		new MatFileWriter(file, list);
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		new MatFileWriter(Channels.newChannel(stream), list);
+		File incremental = getTempFile("nested-incremental.mat");
+		MatFileIncrementalWriter writer = new MatFileIncrementalWriter(incremental);
+		writer.write(list);
+		writer.close();
+
+		byte[] expected = readWithoutText(file);
+		byte[] streamed = stream.toByteArray();
+		Arrays.fill(streamed, 0, 116, (byte) 0);
+		assertArrayEquals(expected, streamed);
+		assertArrayEquals(expected, readWithoutText(incremental));
+
+		MatFileReader reader = new MatFileReader();
+		reader.setCellStrings(true);
+		Map<String, MLArray> content = reader.read(file);
+		MLStructure readOuter = (MLStructure) content.get("outer");
+		MLCell readCell = (MLCell) readOuter.getField("cell");
+		MLStructure readInner = (MLStructure) readCell.get(0);
+		assertEquals("caf\u00e9 \ud83d\ude00 ? lone", ((MLChar) readInner.getField("text", 0)).getString(0));
+		assertEquals(inner.getField("single", 0), readInner.getField("single", 0));
+		assertEquals(inner.getField("single", 1), readInner.getField("single", 1));
+		assertEquals(cell.get(1), readCell.get(1));
+		assertEquals(cell.get(2), readCell.get(2));
+		assertTrue(readCell.get(3).isEmpty());
+		assertEquals(Arrays.asList("a", "", "\u20ac\ud83d\ude00"), Arrays.asList(((MLCellStr) readOuter.getField("strings")).getStrings()));
+		assertEquals(list.get(1), content.get("small"));
+	}
+
+	/** Reads a MAT-file, blanking its descriptive text, which holds the time it was created. */
+	private static byte[] readWithoutText(File file) throws IOException {
+		byte[] bytes = readBytes(file);
+		Arrays.fill(bytes, 0, 116, (byte) 0);
+		return bytes;
+	}
+
+	private static byte[] readBytes(File file) throws IOException {
+		byte[] bytes = new byte[(int) file.length()];
+		RandomAccessFile raFile = new RandomAccessFile(file, "r");
+		try {
+			raFile.readFully(bytes);
+		} finally {
+			raFile.close();
+		}
+		return bytes;
+	}
+
 	/**
 	 * Regression bug: Test writing several arrays into a single file.
 	 * 
@@ -860,6 +1901,30 @@ public class MatIOTest {
 		assertEquals("Test if value red from file equals value stored", m3, mfr.getMLArray("m3"));
 	}
 
+	/**
+	 * Test that the writers don't move the position of a file channel they
+	 * are given, which would corrupt a channel in append mode.
+	 */
+	@Test
+	public void testWriteToAppendingChannel() throws IOException {
+		List<MLArray> list = new ArrayList<MLArray>();
+		list.add(new MLDouble("m1", new double[]{1.3, 2.0, 3.0, 4.0, 5.0, 6.0}, 3));
+		list.add(new MLDouble("m2", new double[]{3.1415}, 1));
+
+		File incremental = getTempFile("append-incremental.mat");
+		MatFileIncrementalWriter writer = new MatFileIncrementalWriter(new FileOutputStream(incremental, true).getChannel());
+		for (MLArray array : list) {
+			writer.write(array);
+		}
+		writer.close();
+		assertContent(list, new MatFileReader(incremental).getContent());
+
+		File file = getTempFile("append.mat");
+		new MatFileWriter(new FileOutputStream(file, true).getChannel(), list);
+		assertContent(list, new MatFileReader(file).getContent());
+		assertArrayEquals(readWithoutText(incremental), readWithoutText(file));
+	}
+
 	/**
 	 * 
 	 * <pre>
@@ -1155,6 +2220,14 @@ public class MatIOTest {
 		assertEquals(expected[1], mlchar.getString(1));
 		assertEquals(expected[2], mlchar.getString(2));
 		assertEquals(expected[3], mlchar.getString(3));
+		assertArrayEquals(expected, mlchar.getStrings());
+
+		// rows are padded to the longest string, and can be read without copying
+		CharSequence row = mlchar.getRow(2);
+		assertEquals(5, row.length());
+		assertEquals('w', row.charAt(3));
+		assertEquals("ow", row.subSequence(2, 4).toString());
+		assertEquals("a    ", mlchar.getRow(0).toString());
 	}
 
 	@Test
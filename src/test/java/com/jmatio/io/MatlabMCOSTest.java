@@ -16,6 +16,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.junit.Rule;
 import org.junit.Test;
@@ -218,6 +220,23 @@ public class MatlabMCOSTest {
 		assertThat(((MLDouble) obj.getFields(3).get("test_text")).get(0), equalTo(4.0));
 	}
 
+	@Test
+	public void testParallelParsingSimpleSingleTextMultipleMCOS() throws IOException {
+		File file = fileFromStream("/mcos/simplesingletext_multiple.mat");
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		Map<String, MLArray> content;
+		try {
+			content = new MatFileReader().read(file, new MatFileFilter(), MatFileReader.MEMORY_MAPPED_FILE, executor);
+		} finally {
+			executor.shutdown();
+		}
+
+		assertThat(content.keySet(), equalTo(new MatFileReader(file).getContent().keySet()));
+		MLObject obj = (MLObject) content.get("obj1");
+		assertThat(obj.getClassName(), equalTo("SimpleSingleText"));
+		assertThat(((MLChar) obj.getFields(0).get("test_text")).getString(0), equalTo("other text 1"));
+	}
+
 	private File fileFromStream(String location) throws IOException {
 		String outname = location.replace("/", "_");
 		File f = folder.newFile(outname);
@@ -0,0 +1,95 @@
+/*
+ * Code licensed under new-style BSD (see LICENSE).
+ * All code up to tags/original: Copyright (c) 2006, Wojciech Gradkowski
+ * All code after tags/original: Copyright (c) 2015, DiffPlug
+ */
+package com.jmatio.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.jmatio.types.MLArray;
+import com.jmatio.types.MLChar;
+import com.jmatio.types.MLDouble;
+
+/**
+ * Tests for {@link WindowedFileBuffer}.
+ */
+public class WindowedFileBufferTest {
+	private static final int[] POLICIES = {MatFileReader.MEMORY_MAPPED_FILE, MatFileReader.DIRECT_BYTE_BUFFER, MatFileReader.HEAP_BYTE_BUFFER};
+
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	@Test
+	public void testWindows() throws IOException {
+		File file = temp.newFile("windows.bin");
+		FileOutputStream output = new FileOutputStream(file);
+		for (int i = 0; i < 100; i++) {
+			output.write(i);
+		}
+		output.close();
+
+		for (int policy : POLICIES) {
+			RandomAccessFile raFile = new RandomAccessFile(file, "r");
+			WindowedFileBuffer windows = new WindowedFileBuffer(raFile.getChannel(), policy, 16);
+			try {
+				assertEquals(100, windows.size());
+				// within the first window, after it, before it, and larger than a window
+				assertWindow(windows, 0, 8);
+				assertWindow(windows, 8, 8);
+				assertWindow(windows, 12, 10);
+				assertWindow(windows, 3, 5);
+				assertWindow(windows, 40, 50);
+				assertWindow(windows, 96, 4);
+				try {
+					windows.window(96, 5);
+					fail("Expected EOFException");
+				} catch (EOFException e) {
+					// expected
+				}
+			} finally {
+				windows.close();
+				raFile.close();
+			}
+		}
+	}
+
+	private static void assertWindow(WindowedFileBuffer windows, long position, int length) throws IOException {
+		ByteBuffer buf = windows.window(position, length);
+		assertEquals(length, buf.remaining());
+		for (int i = 0; i < length; i++) {
+			assertEquals(position + i, buf.get());
+		}
+	}
+
+	@Test
+	public void testReadWithEachPolicy() throws IOException {
+		List<MLArray> list = new ArrayList<MLArray>();
+		list.add(new MLDouble("doublearr", new double[]{1.3, 2.0, 3.0, 4.0, 5.0, 6.0}, 3));
+		list.add(new MLChar("chararr", "I am dummy"));
+		File file = temp.newFile("policies.mat");
+		new MatFileWriter(file, list);
+
+		for (int policy : POLICIES) {
+			Map<String, MLArray> content = new MatFileReader().read(file, new MatFileFilter(), policy);
+			assertEquals(2, content.size());
+			assertEquals(list.get(0), content.get("doublearr"));
+			assertEquals(list.get(1), content.get("chararr"));
+		}
+	}
+}
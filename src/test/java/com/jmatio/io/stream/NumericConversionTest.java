@@ -0,0 +1,97 @@
+/*
+ * Code licensed under new-style BSD (see LICENSE).
+ * All code up to tags/original: Copyright (c) 2006, Wojciech Gradkowski
+ * All code after tags/original: Copyright (c) 2015, DiffPlug
+ */
+package com.jmatio.io.stream;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.junit.Test;
+
+import com.jmatio.common.MatDataTypes;
+
+/**
+ * Tests for {@link NumericConversion}.
+ */
+public class NumericConversionTest {
+	/** Enough values to span several blocks. */
+	private static final int COUNT = 2500;
+
+	@Test
+	public void testIntegersToDouble() {
+		ByteBuffer src = ByteBuffer.allocate(COUNT * 2).order(ByteOrder.LITTLE_ENDIAN);
+		for (int i = 0; i < COUNT; i++) {
+			src.putShort((short) (i - 1000));
+		}
+		src.flip();
+		ByteBuffer dest = ByteBuffer.allocate(COUNT * 8).order(ByteOrder.nativeOrder());
+		NumericConversion.convert(src, MatDataTypes.miINT16, dest, Double.class, COUNT);
+		assertEquals(COUNT * 2, src.position());
+		assertEquals(COUNT * 8, dest.position());
+		for (int i = 0; i < COUNT; i++) {
+			assertEquals(i - 1000, dest.getDouble(i * 8), 0.0);
+		}
+	}
+
+	@Test
+	public void testUnsignedToDouble() {
+		ByteBuffer src = ByteBuffer.allocate(12).order(ByteOrder.BIG_ENDIAN);
+		src.put((byte) 0xFF).put((byte) 0x80).put((byte) 0).put((byte) 0);
+		src.putInt(0xFFFFFFFF).putInt(7);
+		src.flip();
+
+		ByteBuffer dest = ByteBuffer.allocate(2 * 8).order(ByteOrder.nativeOrder());
+		NumericConversion.convert(src, MatDataTypes.miUINT8, dest, Double.class, 2);
+		assertEquals(255.0, dest.getDouble(0), 0.0);
+		assertEquals(128.0, dest.getDouble(8), 0.0);
+
+		src.position(4);
+		dest.clear();
+		NumericConversion.convert(src, MatDataTypes.miUINT32, dest, Double.class, 2);
+		assertEquals(4294967295.0, dest.getDouble(0), 0.0);
+		assertEquals(7.0, dest.getDouble(8), 0.0);
+
+		ByteBuffer src64 = ByteBuffer.allocate(8).order(ByteOrder.BIG_ENDIAN);
+		src64.putLong(0, -1L);
+		dest.clear();
+		NumericConversion.convert(src64, MatDataTypes.miUINT64, dest, Double.class, 1);
+		assertEquals(18446744073709551615.0, dest.getDouble(0), 0.0);
+	}
+
+	@Test
+	public void testNarrowing() {
+		ByteBuffer src = ByteBuffer.allocate(COUNT * 8).order(ByteOrder.LITTLE_ENDIAN);
+		for (int i = 0; i < COUNT; i++) {
+			src.putDouble(i + 0.75);
+		}
+		src.flip();
+		ByteBuffer dest = ByteBuffer.allocate(COUNT * 2).order(ByteOrder.nativeOrder());
+		NumericConversion.convert(src, MatDataTypes.miDOUBLE, dest, Short.class, COUNT);
+		for (int i = 0; i < COUNT; i++) {
+			assertEquals((short) (i + 0.75), dest.getShort(i * 2));
+		}
+
+		src.rewind();
+		ByteBuffer bytes = ByteBuffer.allocate(COUNT);
+		NumericConversion.convert(src, MatDataTypes.miDOUBLE, bytes, Byte.class, COUNT);
+		for (int i = 0; i < COUNT; i++) {
+			assertEquals((byte) (i + 0.75), bytes.get(i));
+		}
+	}
+
+	@Test
+	public void testIntegersToFloat() {
+		ByteBuffer src = ByteBuffer.allocate(12).order(ByteOrder.BIG_ENDIAN);
+		src.putInt(-5).putInt(6).putInt(Integer.MIN_VALUE);
+		src.flip();
+		ByteBuffer dest = ByteBuffer.allocate(12).order(ByteOrder.nativeOrder());
+		NumericConversion.convert(src, MatDataTypes.miINT32, dest, Float.class, 3);
+		assertEquals(-5f, dest.getFloat(0), 0f);
+		assertEquals(6f, dest.getFloat(4), 0f);
+		assertEquals((float) Integer.MIN_VALUE, dest.getFloat(8), 0f);
+	}
+}